@@ -431,7 +431,9 @@ public class Client implements Serializable {
 
     /**
      * Get all issues across all projects and folders changed since the provide
-     * time.
+     * time. Folders whose own stamp is lower than the supplied stamp cannot
+     * contain any changed issues, so they are not queried. The folder stamps
+     * are those of the last time the projects were reloaded.
      * 
      * @param stamp only retrieve uses with the supplied stamp or higher. Use
      *        zero to retrieve all issues
@@ -444,22 +446,23 @@ public class Client implements Serializable {
     public Collection<Issue> findIssues(long stamp, Operation operation) throws ProtocolException, HttpException, IOException {
         checkConnectedAndOnline(operation);
         List<Issue> issues = new ArrayList<Issue>();
-        Projects projects = environment.getProjects();
-        int folders = 0;
-        for (Project project : projects.values()) {
-            folders += project.size();
+        List<Folder> folders = new ArrayList<Folder>();
+        for (Project project : environment.getProjects().values()) {
+            for (Folder folder : project.values()) {
+                if (stamp == 0 || folder.getStamp() >= stamp) {
+                    folders.add(folder);
+                }
+            }
         }
-        operation.beginJob("Finding issues", folders);
+        operation.beginJob("Finding issues", folders.size());
         try {
-            for (Project project : projects.values()) {
-                for (Folder folder : project.values()) {
-                    if (operation.isCanceled()) {
-                        throw new ProtocolException(ProtocolException.CANCELLED);
-                    }
-                    operation.setName("Looking in " + folder.getName());
-                    issues.addAll(folder.getIssues(operation, stamp));
-                    operation.progressed(1);
+            for (Folder folder : folders) {
+                if (operation.isCanceled()) {
+                    throw new ProtocolException(ProtocolException.CANCELLED);
                 }
+                operation.setName("Looking in " + folder.getName());
+                issues.addAll(folder.getIssues(operation, stamp));
+                operation.progressed(1);
             }
         } finally {
             operation.done();
@@ -27,6 +27,14 @@ public class Project extends EntityMap<Folder> implements Serializable, NamedEnt
         this.projects = projects;
     }
 
+    @Override
+    public void add(Folder folder) {
+        super.add(folder);
+        if (projects != null) {
+            projects.foldersChanged();
+        }
+    }
+
     /**
      * Get the parent projects list.
      * 
@@ -16,6 +16,9 @@ public class Projects extends EntityMap<Project> implements Serializable {
 
     private static final long serialVersionUID = 1062522167070931646L;
     private final Environment environment;
+    // Folders of all projects by ID. Discarded whenever a project or folder is
+    // added and rebuilt on next use
+    private transient volatile Map<Integer, Folder> folderIndex;
 
     protected Projects(Environment environment) {
         super();
@@ -39,13 +42,41 @@ public class Projects extends EntityMap<Project> implements Serializable {
      * @return folder or <code>null</code> if no such folder exists
      */
     public Folder getFolder(int folderId) {
+        Map<Integer, Folder> index = folderIndex;
+        if (index == null) {
+            index = buildFolderIndex();
+        }
+        return index.get(folderId);
+    }
+
+    @Override
+    public void add(Project project) {
+        super.add(project);
+        foldersChanged();
+    }
+
+    @Override
+    public void clear() {
+        super.clear();
+        foldersChanged();
+    }
+
+    /**
+     * Called by {@link Project} when a folder has been added.
+     */
+    void foldersChanged() {
+        folderIndex = null;
+    }
+
+    private Map<Integer, Folder> buildFolderIndex() {
+        Map<Integer, Folder> index = new HashMap<Integer, Folder>();
         for (Project project : values()) {
-            Folder folder = project.get(folderId);
-            if (folder != null) {
-                return folder;
+            for (Folder folder : project.values()) {
+                index.put(folder.getId(), folder);
             }
         }
-        return null;
+        folderIndex = index;
+        return index;
     }
 
     /**
@@ -99,6 +130,7 @@ public class Projects extends EntityMap<Project> implements Serializable {
             for (Project project : projects.values()) {
                 add(project);
             }
+            buildFolderIndex();
         } finally {
             method.releaseConnection();
         }
@@ -53,38 +53,35 @@ public class Types extends HashMap<Integer, Type> implements Serializable {
     protected void doReload(final Operation operation) throws HttpException, IOException, ProtocolException {
         Client client = environment.getClient();
         Map<Integer, Type> typeMap = new HashMap<Integer, Type>();
-        for (int i = 0; i < 2; i++) {
-            HttpMethod method = client.doCommand("LIST TYPES");
-            try {
-                for (List<String> response : client.readResponse(method.getResponseBodyAsStream())) {
-                    if (operation.isCanceled()) {
-                        throw new ProtocolException(ProtocolException.CANCELLED);
-                    }
-                    if (response.get(0).equals("A")) {
-                        int attributeId = Integer.parseInt(response.get(1));
-                        int typeId = Integer.parseInt(response.get(2));
-                        Type type = typeMap.get(typeId);
-                        if (type == null) {
-                            throw new Error("Expected type before attribute");
-                        }
-                        type.put(attributeId, new Attribute(attributeId, response.get(3), response.get(4)));
-                    } else if (response.get(0).equals("T")) {
-                        int typeId = Integer.parseInt(response.get(1));
-                        Type type = new Type(this, typeId, response.get(2));
-                        typeMap.put(typeId, type);
-                    } else {
-                        Client.LOG.warn("Unexpected response \"" + response + "\"");
-                    }
+        HttpMethod method = client.doCommand("LIST TYPES");
+        try {
+            for (List<String> response : client.readResponse(method.getResponseBodyAsStream())) {
+                if (operation.isCanceled()) {
+                    throw new ProtocolException(ProtocolException.CANCELLED);
                 }
-                clear();
-                for (Type type : typeMap.values()) {
-                    put(type.getId(), type);
+                if (response.get(0).equals("A")) {
+                    int attributeId = Integer.parseInt(response.get(1));
+                    int typeId = Integer.parseInt(response.get(2));
+                    Type type = typeMap.get(typeId);
+                    if (type == null) {
+                        throw new Error("Expected type before attribute");
+                    }
+                    type.put(attributeId, new Attribute(attributeId, response.get(3), response.get(4)));
+                } else if (response.get(0).equals("T")) {
+                    int typeId = Integer.parseInt(response.get(1));
+                    Type type = new Type(this, typeId, response.get(2));
+                    typeMap.put(typeId, type);
+                } else {
+                    Client.LOG.warn("Unexpected response \"" + response + "\"");
                 }
-            } finally {
-                method.releaseConnection();
             }
+            clear();
+            for (Type type : typeMap.values()) {
+                put(type.getId(), type);
+            }
+        } finally {
+            method.releaseConnection();
         }
-
     }
 
     /**
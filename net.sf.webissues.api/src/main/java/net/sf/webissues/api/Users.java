@@ -2,6 +2,7 @@ package net.sf.webissues.api;
 
 import java.io.IOException;
 import java.io.Serializable;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -16,6 +17,9 @@ public class Users extends EntityMap<User> implements Serializable {
 
     private static final long serialVersionUID = -45193382221486291L;
     private Environment environment;
+    // Users by login and name. Discarded whenever a user is added and rebuilt
+    // on next use
+    private transient volatile UserIndex userIndex;
 
     protected Users(Environment environment) {
         this.environment = environment;
@@ -59,12 +63,7 @@ public class Users extends EntityMap<User> implements Serializable {
      * @return user or <code>null</code> if
      */
     public User getUserByLogin(String login) {
-        for (User user : values()) {
-            if (user.getLogin().equals(login)) {
-                return user;
-            }
-        }
-        return null;
+        return getUserIndex().byLogin.get(login);
     }
 
     /**
@@ -74,12 +73,28 @@ public class Users extends EntityMap<User> implements Serializable {
      * @return user or <code>null</code> if
      */
     public User getUserByName(String name) {
-        for (User user : values()) {
-            if (user.getName().equals(name)) {
-                return user;
-            }
+        return getUserIndex().byName.get(name);
+    }
+
+    @Override
+    public void add(User user) {
+        super.add(user);
+        userIndex = null;
+    }
+
+    @Override
+    public void clear() {
+        super.clear();
+        userIndex = null;
+    }
+
+    private UserIndex getUserIndex() {
+        UserIndex index = userIndex;
+        if (index == null) {
+            index = new UserIndex(values());
+            userIndex = index;
         }
-        return null;
+        return index;
     }
 
     protected void doReload(Operation operation) throws HttpException, IOException, ProtocolException {
@@ -113,8 +128,23 @@ public class Users extends EntityMap<User> implements Serializable {
             for (User user : users.values()) {
                 add(user);
             }
+            userIndex = new UserIndex(values());
         } finally {
             method.releaseConnection();
         }
     }
+
+    private static class UserIndex {
+        private final Map<String, User> byLogin = new HashMap<String, User>();
+        private final Map<String, User> byName = new HashMap<String, User>();
+
+        UserIndex(Collection<User> users) {
+            for (User user : users) {
+                byLogin.put(user.getLogin(), user);
+                if (!byName.containsKey(user.getName())) {
+                    byName.put(user.getName(), user);
+                }
+            }
+        }
+    }
 }
@@ -16,6 +16,7 @@ import java.io.InputStream;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.OperationCanceledException;
+import org.eclipse.core.runtime.SubProgressMonitor;
 import org.eclipse.mylyn.commons.net.Policy;
 import org.eclipse.mylyn.tasks.core.ITask;
 import org.eclipse.mylyn.tasks.core.TaskRepository;
@@ -48,7 +49,7 @@ public class WebIssuesAttachmentHandler extends AbstractTaskAttachmentHandler {
         try {
             WebIssuesClient client = connector.getClientManager().getClient(repository, monitor);
             int attachmentId = Integer.parseInt(attachmentAttribute.getValue());
-            return client.getAttachmentData(attachmentId, monitor);
+            return client.getAttachmentData(connector.getClientManager().getAttachmentCache(repository), attachmentId, monitor);
         } catch (OperationCanceledException e) {
             throw e;
         } catch (Exception e) {
@@ -86,7 +87,7 @@ public class WebIssuesAttachmentHandler extends AbstractTaskAttachmentHandler {
 
         monitor = Policy.monitorFor(monitor);
         try {
-            monitor.beginTask("Uploading attachment", IProgressMonitor.UNKNOWN);
+            monitor.beginTask("Uploading attachment", 10);
             try {
                 WebIssuesClient client = connector.getClientManager().getClient(repository, monitor);
                 IssueDetails issueDetails = client.getIssueDetails(Integer.parseInt(task.getTaskId()), monitor);
@@ -95,8 +96,9 @@ public class WebIssuesAttachmentHandler extends AbstractTaskAttachmentHandler {
                 User owner = user == null ? environment.getOwnerUser() : environment.getUsers().getByLogin(user);
                 Attachment attachment = new Attachment(issue, owner, filename, description, length);
                 InputStream inputStream = source.createInputStream(monitor);
+                monitor.worked(1);
                 client.putAttachmentData(Integer.parseInt(task.getTaskId()), attachment, inputStream, attachment.getSize(),
-                    "application/octet-stream", monitor);
+                    "application/octet-stream", new SubProgressMonitor(monitor, 9));
                 if (!Util.isNullOrBlank(comment)) {
                     client.addComment(new Comment(issue, comment, owner), monitor);
                 }
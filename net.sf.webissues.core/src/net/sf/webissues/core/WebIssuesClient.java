@@ -26,6 +26,7 @@ import org.eclipse.mylyn.commons.net.AuthenticationType;
 import org.eclipse.mylyn.tasks.core.ITask;
 import org.eclipse.mylyn.tasks.core.TaskRepository;
 import org.webissues.api.Attachment;
+import org.webissues.api.AttachmentCache;
 import org.webissues.api.Attribute;
 import org.webissues.api.Authenticator;
 import org.webissues.api.Client;
@@ -34,12 +35,23 @@ import org.webissues.api.Folder;
 import org.webissues.api.IEnvironment;
 import org.webissues.api.Issue;
 import org.webissues.api.IssueDetails;
+import org.webissues.api.IssueDetailsCache;
+import org.webissues.api.IssueDetailsCollector;
+import org.webissues.api.IssueStore;
 import org.webissues.api.ProtocolException;
+import org.webissues.api.ReadStates;
+import org.webissues.api.ResultCollector;
 
 public class WebIssuesClient implements CredentialsProvider, Serializable, Authenticator {
 
     private static final long serialVersionUID = 2277223233454809290L;
 
+    /**
+     * Folder stamps are not reloaded more often than this, so several queries
+     * run in one synchronization share the same <code>LIST PROJECTS</code>.
+     */
+    private static final long FOLDER_REFRESH_INTERVAL = 30 * 1000L;
+
     private transient final static Map<String, Integer> authAttempts = new WeakHashMap<String, Integer>();
 
     protected Client client;
@@ -51,6 +63,9 @@ public class WebIssuesClient implements CredentialsProvider, Serializable, Authe
     private String statusAttributeName = "Status";
     private String dueDateAttributeName = "Due Date";
     private String estimateAttributeName = "Work Hours";
+    private transient long foldersRefreshed;
+    // Read states of all issues, brought up to date on each query
+    private transient volatile ReadStates readStates;
 
     public WebIssuesClient(TaskRepository taskRepository, HttpClient httpClient, AbstractWebLocation location)
         throws MalformedURLException {
@@ -67,8 +82,14 @@ public class WebIssuesClient implements CredentialsProvider, Serializable, Authe
         URL urlObj = new URL(repositoryUrl);
         client.setUrl(urlObj);
         client.setHttpClient(httpClient);
+        client.setMaxConcurrentRequests(WebIssuesClientManager.MAX_CONCURRENT_REQUESTS);
+        if (client.getIssueDetailsCache() == null) {
+            client.setIssueDetailsCache(new IssueDetailsCache(WebIssuesClientManager.MAX_ISSUE_DETAILS_CACHE_SIZE));
+        }
         client.setAuthenticator(this);
         client.setCredentialsProvider(this);
+        // May now be logging in as someone else
+        readStates = null;
         String statusListString = taskRepository.getProperty("completedStatusList");
         if (statusListString != null) {
             completedStatusList = Arrays.asList(statusListString.toLowerCase().split(","));
@@ -152,7 +173,7 @@ public class WebIssuesClient implements CredentialsProvider, Serializable, Authe
             if (!client.isConnected()) {
                 connect(monitor);
             } else if (!client.getEnvironment().isOnline()) {
-                client.getEnvironment().goOnline(client, new MonitorOperationAdapter(monitor));
+                client.goOnline(new MonitorOperationAdapter(monitor));
                 error = null;
             }
         } catch (Exception e) {
@@ -204,7 +225,7 @@ public class WebIssuesClient implements CredentialsProvider, Serializable, Authe
 
     private void doUpdate(IProgressMonitor monitor) throws HttpException, IOException, ProtocolException {
         if (!client.getEnvironment().isOnline()) {
-            client.getEnvironment().goOnline(client, new MonitorOperationAdapter(monitor));
+            client.goOnline(new MonitorOperationAdapter(monitor));
         } else {
             client.getEnvironment().reload(client, new MonitorOperationAdapter(monitor));
         }
@@ -237,13 +258,102 @@ public class WebIssuesClient implements CredentialsProvider, Serializable, Authe
         }
     }
 
+    public InputStream getAttachmentData(AttachmentCache cache, int attachmentId, IProgressMonitor monitor) throws HttpException,
+                    IOException, ProtocolException {
+        if (cache == null) {
+            return getAttachmentData(attachmentId, monitor);
+        }
+        try {
+            return cache.getAttachmentData(client, attachmentId, new MonitorOperationAdapter(monitor));
+        } finally {
+            finishOp();
+        }
+    }
+
     public Collection<? extends Issue> getFolderIssues(Folder folder, long stamp, IProgressMonitor monitor) throws HttpException,
                     IOException, ProtocolException {
+        return getFolderIssues(folder, stamp, null, monitor);
+    }
+
+    public Collection<? extends Issue> getFolderIssues(Folder folder, long stamp, ReadStates states, IProgressMonitor monitor)
+                    throws HttpException, IOException, ProtocolException {
         if (folder == null) {
             throw new IllegalArgumentException("Folder may not be null");
         }
         try {
-            return folder.getIssues(new MonitorOperationAdapter(monitor), stamp);
+            return folder.getIssues(new MonitorOperationAdapter(monitor), stamp, states);
+        } finally {
+            finishOp();
+        }
+    }
+
+    public void getFolderIssues(Folder folder, long stamp, ReadStates states, ResultCollector collector, IProgressMonitor monitor)
+                    throws HttpException, IOException, ProtocolException {
+        if (folder == null) {
+            throw new IllegalArgumentException("Folder may not be null");
+        }
+        try {
+            folder.getIssues(new MonitorOperationAdapter(monitor), stamp, states, collector);
+        } finally {
+            finishOp();
+        }
+    }
+
+    /**
+     * Reload the projects and folders, so that {@link Folder#getStamp()} tells
+     * which folders have changed. This is a single request, and is skipped if
+     * it was done very recently.
+     * 
+     * @param monitor monitor
+     * @throws HttpException on any HTTP error
+     * @throws IOException on any I/O error
+     * @throws ProtocolException on any protocol error
+     */
+    public void refreshFolders(IProgressMonitor monitor) throws HttpException, IOException, ProtocolException {
+        try {
+            if (System.currentTimeMillis() - foldersRefreshed > FOLDER_REFRESH_INTERVAL) {
+                client.getEnvironment().getProjects().reload(new MonitorOperationAdapter(monitor));
+                foldersRefreshed = System.currentTimeMillis();
+            }
+        } finally {
+            finishOp();
+        }
+    }
+
+    public int synchronizeFolder(IssueStore store, Folder folder, ReadStates states, boolean full, IProgressMonitor monitor)
+                    throws HttpException, IOException, ProtocolException {
+        try {
+            return store.synchronize(folder, states, full, new MonitorOperationAdapter(monitor));
+        } finally {
+            finishOp();
+        }
+    }
+
+    /**
+     * Get the 'read' state of all issues. After the first time, only the
+     * states that have changed since are retrieved.
+     * 
+     * @param monitor monitor
+     * @return read states
+     * @throws HttpException on HTTP error
+     * @throws IOException on any other IO error
+     * @throws ProtocolException on error return by server or protocol problem
+     */
+    public ReadStates getReadStates(IProgressMonitor monitor) throws HttpException, IOException, ProtocolException {
+        try {
+            ReadStates states = readStates;
+            MonitorOperationAdapter operation = new MonitorOperationAdapter(monitor);
+            states = states == null ? client.getReadStates(0, operation) : client.getReadStates(states, operation);
+            readStates = states;
+            return states;
+        } finally {
+            finishOp();
+        }
+    }
+
+    public ReadStates getReadStates(long stamp, IProgressMonitor monitor) throws HttpException, IOException, ProtocolException {
+        try {
+            return client.getReadStates(stamp, new MonitorOperationAdapter(monitor));
         } finally {
             finishOp();
         }
@@ -266,6 +376,15 @@ public class WebIssuesClient implements CredentialsProvider, Serializable, Authe
         }
     }
 
+    public void getIssueDetails(Collection<Integer> issueIds, IssueDetailsCollector collector, IProgressMonitor monitor)
+                    throws HttpException, IOException, ProtocolException {
+        try {
+            client.getIssueDetails(issueIds, collector, new MonitorOperationAdapter(monitor));
+        } finally {
+            finishOp();
+        }
+    }
+
     public void addComment(Comment comment, IProgressMonitor monitor) throws IOException, ProtocolException {
         try {
             comment.getIssue().addComment(comment, new MonitorOperationAdapter(monitor));
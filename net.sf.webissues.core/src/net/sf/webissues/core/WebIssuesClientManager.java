@@ -39,6 +39,8 @@ import org.eclipse.mylyn.internal.tasks.core.TaskRepositoryManager;
 import org.eclipse.mylyn.tasks.core.IRepositoryListener;
 import org.eclipse.mylyn.tasks.core.TaskRepository;
 import org.eclipse.mylyn.tasks.core.TaskRepositoryLocationFactory;
+import org.webissues.api.AttachmentCache;
+import org.webissues.api.IssueStore;
 import org.webissues.api.ProtocolException;
 
 /**
@@ -49,10 +51,28 @@ import org.webissues.api.ProtocolException;
 public class WebIssuesClientManager implements IRepositoryListener {
     final static Logger LOG = Logger.getLogger(WebIssuesClientManager.class.getName());
 
+    /**
+     * Maximum number of requests a single client may have in progress at once,
+     * for example when querying all folders during synchronization.
+     */
+    public static final int MAX_CONCURRENT_REQUESTS = 4;
+
+    /**
+     * Maximum total size of attachment content cached for each repository.
+     */
+    public static final long MAX_ATTACHMENT_CACHE_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * Approximate maximum memory used to cache issue details for each
+     * repository.
+     */
+    public static final long MAX_ISSUE_DETAILS_CACHE_SIZE = 8 * 1024 * 1024;
+
     private static IdleConnectionTimeoutThread idleConnectionTimeoutThread = new IdleConnectionTimeoutThread();
     private static MultiThreadedHttpConnectionManager connectionManager = new MultiThreadedHttpConnectionManager();
 
     static {
+        connectionManager.getParams().setDefaultMaxConnectionsPerHost(MAX_CONCURRENT_REQUESTS);
         idleConnectionTimeoutThread.addConnectionManager(connectionManager);
         idleConnectionTimeoutThread.start();
     }
@@ -60,6 +80,8 @@ public class WebIssuesClientManager implements IRepositoryListener {
     public static final String USER_AGENT = "WebIssuesConnector";
 
     private final Map<String, WebIssuesClient> clientByUrl = new HashMap<String, WebIssuesClient>();
+    private final Map<String, IssueStore> issueStoreByUrl = new HashMap<String, IssueStore>();
+    private final Map<String, AttachmentCache> attachmentCacheByUrl = new HashMap<String, AttachmentCache>();
     private final File cacheFile;
     private TaskRepositoryLocationFactory taskRepositoryLocationFactory;
 
@@ -100,6 +122,72 @@ public class WebIssuesClientManager implements IRepositoryListener {
         return client;
     }
 
+    /**
+     * Get the local issue store for a repository, loading it from disk the
+     * first time it is requested. The store is kept next to the repository
+     * configuration cache.
+     * 
+     * @param taskRepository repository
+     * @return issue store
+     */
+    public synchronized IssueStore getIssueStore(TaskRepository taskRepository) {
+        String repositoryUrl = taskRepository.getRepositoryUrl();
+        IssueStore store = issueStoreByUrl.get(repositoryUrl);
+        if (store == null) {
+            File file = cacheFile == null ? null : new File(cacheFile.getAbsoluteFile().getParentFile(), "issues-"
+                            + Integer.toHexString(repositoryUrl.hashCode()) + ".dat");
+            store = new IssueStore(file, repositoryUrl);
+            try {
+                store.load();
+            } catch (IOException e) {
+                StatusHandler.log(new Status(IStatus.WARNING, WebIssuesCorePlugin.ID_PLUGIN,
+                                "The WebIssues issue store could not be read", e));
+                store.clear();
+            }
+            issueStoreByUrl.put(repositoryUrl, store);
+        }
+        return store;
+    }
+
+    /**
+     * Get the attachment cache for a repository, or <code>null</code> if
+     * there is nowhere to keep one. The cache is kept next to the repository
+     * configuration cache.
+     * 
+     * @param taskRepository repository
+     * @return attachment cache
+     */
+    public synchronized AttachmentCache getAttachmentCache(TaskRepository taskRepository) {
+        if (cacheFile == null) {
+            return null;
+        }
+        String repositoryUrl = taskRepository.getRepositoryUrl();
+        AttachmentCache cache = attachmentCacheByUrl.get(repositoryUrl);
+        if (cache == null) {
+            cache = new AttachmentCache(new File(cacheFile.getAbsoluteFile().getParentFile(), "attachments-"
+                            + Integer.toHexString(repositoryUrl.hashCode())), MAX_ATTACHMENT_CACHE_SIZE);
+            attachmentCacheByUrl.put(repositoryUrl, cache);
+        }
+        return cache;
+    }
+
+    /**
+     * Write the issue store of a repository to disk if it has changed.
+     * 
+     * @param taskRepository repository
+     */
+    public synchronized void writeIssueStore(TaskRepository taskRepository) {
+        IssueStore store = issueStoreByUrl.get(taskRepository.getRepositoryUrl());
+        if (store != null && store.isModified()) {
+            try {
+                store.save();
+            } catch (IOException e) {
+                StatusHandler.log(new Status(IStatus.WARNING, WebIssuesCorePlugin.ID_PLUGIN,
+                                "The WebIssues issue store could not be written", e));
+            }
+        }
+    }
+
     protected HttpClient createHttpClient(AbstractWebLocation location) {
         HttpClient httpClient = new HttpClient();
         httpClient.getParams().setAuthenticationPreemptive(true);
@@ -131,6 +219,13 @@ public class WebIssuesClientManager implements IRepositoryListener {
 
     public synchronized void repositoryRemoved(TaskRepository repository) {
         removeClient(repository);
+        getIssueStore(repository).delete();
+        issueStoreByUrl.remove(repository.getRepositoryUrl());
+        AttachmentCache attachmentCache = getAttachmentCache(repository);
+        if (attachmentCache != null) {
+            attachmentCache.clear();
+            attachmentCacheByUrl.remove(repository.getRepositoryUrl());
+        }
     }
 
     public synchronized void repositorySettingsChanged(TaskRepository repository) {
@@ -16,16 +16,12 @@ import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
 import java.net.URLEncoder;
-import java.text.DateFormat;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Calendar;
-import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.StringTokenizer;
@@ -53,16 +49,16 @@ import org.eclipse.mylyn.tasks.core.data.TaskDataCollector;
 import org.eclipse.mylyn.tasks.core.data.TaskMapper;
 import org.eclipse.mylyn.tasks.core.sync.ISynchronizationSession;
 import org.webissues.api.Access;
-import org.webissues.api.Attribute;
-import org.webissues.api.Client;
-import org.webissues.api.Condition;
 import org.webissues.api.Environment;
 import org.webissues.api.Folder;
 import org.webissues.api.IEnvironment;
 import org.webissues.api.Issue;
-import org.webissues.api.IssueType;
+import org.webissues.api.IssueFilter;
+import org.webissues.api.IssueStore;
 import org.webissues.api.Project;
 import org.webissues.api.ProtocolException;
+import org.webissues.api.ReadStates;
+import org.webissues.api.ResultCollector;
 import org.webissues.api.Util;
 
 /**
@@ -75,6 +71,17 @@ public class WebIssuesRepositoryConnector extends AbstractRepositoryConnector {
     private final static String CLIENT_LABEL = "WebIssues";
     public static final String TASK_KEY_UPDATE_DATE = "UpdateDate";
 
+    /**
+     * How often all issues of a folder are fetched again, rather than just the
+     * changes, so that issues deleted on the server are removed locally.
+     */
+    private final static long ISSUE_STORE_REFRESH_INTERVAL = 24 * 60 * 60 * 1000L;
+
+    /**
+     * Maximum number of query / folder results to remember.
+     */
+    private final static int MAX_QUERY_RESULTS = 1000;
+
     public static int getBugId(String taskId) throws CoreException {
         try {
             return Integer.parseInt(taskId);
@@ -110,6 +117,14 @@ public class WebIssuesRepositoryConnector extends AbstractRepositoryConnector {
 
     private final WebIssuesTaskDataHandler taskDataHandler = new WebIssuesTaskDataHandler(this);
     private TaskRepositoryLocationFactory taskRepositoryLocationFactory = new TaskRepositoryLocationFactory();
+    private final Map<String, QueryResult> queryResults = new LinkedHashMap<String, QueryResult>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, QueryResult> eldest) {
+            return size() > MAX_QUERY_RESULTS;
+        }
+    };
 
     public WebIssuesRepositoryConnector() {
         if (WebIssuesCorePlugin.getDefault() != null) {
@@ -240,9 +255,12 @@ public class WebIssuesRepositoryConnector extends AbstractRepositoryConnector {
         try {
             WebIssuesClient client;
             Map<String, ITask> taskById = null;
+            ReadStates states = null;
+            IssueStore store = getClientManager().getIssueStore(repository);
             int queries = 0;
             try {
                 client = getClientManager().getClient(repository, monitor);
+                client.refreshFolders(monitor);
             } catch (IOException ioe) {
                 LOG.log(Level.SEVERE, "IO Error.", ioe);
                 return WebIssuesCorePlugin.toStatus(ioe, repository);
@@ -259,7 +277,13 @@ public class WebIssuesRepositoryConnector extends AbstractRepositoryConnector {
                         queries++;
                         WebIssuesFilterQueryAdapter search = new WebIssuesFilterQueryAdapter(query, client.getEnvironment());
                         if (folder.getType().equals(search.getType())) {
-                            taskById = doFolder(repository, resultCollector, session, monitor, client, search, taskById, folder);
+                            if (states == null) {
+                                // Read states are for all folders, so only get them once,
+                                // and only those changed since the last query
+                                states = client.getReadStates(monitor);
+                            }
+                            taskById = doFolder(repository, query, resultCollector, session, monitor, client, search, taskById,
+                                folder, states, store);
                         } else {
                             LOG.warning("    " + folder + " is not of type " + search.getType());
                         }
@@ -287,127 +311,163 @@ public class WebIssuesRepositoryConnector extends AbstractRepositoryConnector {
                                 RepositoryStatus.ERROR_REPOSITORY, errors.size() + " out of " + queries + " failed.");
             }
         } finally {
+            getClientManager().writeIssueStore(repository);
             monitor.done();
         }
     }
 
-    private Map<String, ITask> doFolder(TaskRepository repository, TaskDataCollector resultCollector,
+    private Map<String, ITask> doFolder(TaskRepository repository, IRepositoryQuery query, TaskDataCollector resultCollector,
                                         ISynchronizationSession session, IProgressMonitor monitor, WebIssuesClient client,
-                                        WebIssuesFilterQueryAdapter search, Map<String, ITask> taskById, Folder folder)
-                    throws HttpException, IOException, ProtocolException, CoreException {
-        Collection<? extends Issue> folderIssues = client.getFolderIssues(folder, 0, monitor);
-        for (Issue issue : folderIssues) {
-            boolean matches = true;
-            for (Condition condition : search.getAllConditions()) {
-                String val = condition.getValue();
-                Attribute attr = condition.getAttribute();
-                try {
-                    String issueAttributeValue = null;
-                    switch (attr.getId()) {
-                        case IssueType.PROJECT_ATTR_ID:
-                            issueAttributeValue = issue.getFolder().getProject().getName();
-                            break;
-                        case IssueType.FOLDER_ATTR_ID:
-                            issueAttributeValue = issue.getFolder().getName();
-                            break;
-                        case IssueType.NAME_ATTR_ID:
-                            issueAttributeValue = issue.getName();
-                            break;
-                        case IssueType.CREATED_DATE_ATTR_ID:
-                            issueAttributeValue = String.valueOf((issue.getCreatedDate().getTimeInMillis() / 1000));
-                            break;
-                        case IssueType.MODIFIED_DATE_ATTR_ID:
-                            issueAttributeValue = String.valueOf((issue.getModifiedDate().getTimeInMillis() / 1000));
-                            break;
-                        case IssueType.CREATED_BY_ATTR_ID:
-                            issueAttributeValue = issue.getCreatedUser().getLogin();
-                            break;
-                        case IssueType.MODIFIED_BY_ATTR_ID:
-                            issueAttributeValue = issue.getCreatedUser().getLogin();
-                            break;
-                        default:
-                            issueAttributeValue = issue.get(attr);
-                    }
-                    if (issueAttributeValue == null) {
-                        issueAttributeValue = "";
-                    }
-                    matches = match(issue, matches, condition, val, issueAttributeValue);
-                } catch (NumberFormatException nfe) {
-                    nfe.printStackTrace(System.out);
-                    matches = false;
-                }
-                if (!matches) {
-                    break;
+                                        WebIssuesFilterQueryAdapter search, Map<String, ITask> taskById, Folder folder,
+                                        ReadStates states, IssueStore store) throws HttpException, IOException,
+                    ProtocolException, CoreException {
+        // Only fetch what changed since the last query (nothing if the folder
+        // stamp has not moved), occasionally fetching everything to pick up
+        // deleted issues
+        boolean full = System.currentTimeMillis() - store.getRefreshed(folder) > ISSUE_STORE_REFRESH_INTERVAL;
+        if (full || store.getStamp(folder) < folder.getStamp()) {
+            client.synchronizeFolder(store, folder, states, full, monitor);
+        }
+
+        // If neither the query nor the folder changed, the same issues match
+        String key = getQueryResultKey(repository, query, search, folder);
+        long stamp = store.getStamp(folder);
+        long refreshed = store.getRefreshed(folder);
+        QueryResult result;
+        synchronized (queryResults) {
+            result = queryResults.get(key);
+        }
+        FolderCollector collector = new FolderCollector(repository, resultCollector, session, monitor, client, search, taskById);
+        if (result != null && result.stamp == stamp && result.refreshed == refreshed) {
+            for (Issue issue : store.getIssues(folder, result.issueIds, states)) {
+                collector.foundMatch(issue);
+            }
+        } else {
+            for (Issue issue : store.getIssues(folder, states)) {
+                collector.found(issue);
+            }
+            if (collector.error == null) {
+                synchronized (queryResults) {
+                    queryResults.put(key, new QueryResult(stamp, refreshed, collector.matched));
                 }
             }
+        }
+        if (collector.error != null) {
+            throw collector.error;
+        }
+        return collector.taskById;
+    }
 
-            if (matches) {
-                TaskData taskData = taskDataHandler.createTaskDataFromIssue(client, repository, issue, monitor);
-                taskData.setPartial(true);
+    private String getQueryResultKey(TaskRepository repository, IRepositoryQuery query, WebIssuesFilterQueryAdapter search,
+                                     Folder folder) {
+        StringBuilder key = new StringBuilder(repository.getRepositoryUrl());
+        key.append('\n').append(query.getUrl());
+        if (search.getView() != null && search.getView().getDefinition() != null) {
+            key.append('\n').append(search.getView().getDefinition().toDefinitionString());
+        }
+        key.append('\n').append(folder.getId());
+        // Renaming a folder, project or user does not move the folder stamp
+        IEnvironment environment = folder.getProject().getProjects().getEnvironment();
+        key.append('\n').append(environment.getProjects().getListDigest());
+        key.append('\n').append(environment.getUsers().getListDigest());
+        return key.toString();
+    }
+
+    /*
+     * The issues of a folder that matched a query, and the state of the
+     * folder in the issue store at the time
+     */
+    private static class QueryResult {
+        private final long stamp;
+        private final long refreshed;
+        private final int[] issueIds;
+
+        QueryResult(long stamp, long refreshed, List<Integer> issueIds) {
+            this.stamp = stamp;
+            this.refreshed = refreshed;
+            this.issueIds = new int[issueIds.size()];
+            for (int i = 0; i < this.issueIds.length; i++) {
+                this.issueIds[i] = issueIds.get(i);
+            }
+        }
+    }
 
-                if (session != null && !session.isFullSynchronization()) {
-                    if (taskById == null) {
-                        taskById = new HashMap<String, ITask>();
-                        for (ITask task : session.getTasks()) {
-                            taskById.put(task.getTaskId(), task);
-                        }
-                    }
-                    ITask task = taskById.get(String.valueOf(issue.getId()));
-                    if (task != null && hasTaskChanged(repository, task, taskData)) {
-                        session.markStale(task);
-                    }
-                }
-                resultCollector.accept(taskData);
+    /*
+     * Turns each issue that matches the query into task data
+     */
+    private class FolderCollector implements ResultCollector {
+        private final TaskRepository repository;
+        private final TaskDataCollector resultCollector;
+        private final ISynchronizationSession session;
+        private final IProgressMonitor monitor;
+        private final WebIssuesClient client;
+        private final IssueFilter filter;
+        private Map<String, ITask> taskById;
+        private CoreException error;
+        private final List<Integer> matched = new ArrayList<Integer>();
+
+        FolderCollector(TaskRepository repository, TaskDataCollector resultCollector, ISynchronizationSession session,
+                        IProgressMonitor monitor, WebIssuesClient client, WebIssuesFilterQueryAdapter search,
+                        Map<String, ITask> taskById) {
+            this.repository = repository;
+            this.resultCollector = resultCollector;
+            this.session = session;
+            this.monitor = monitor;
+            this.client = client;
+            this.filter = new IssueFilter(search.getAllConditions());
+            this.taskById = taskById;
+        }
+
+        public void found(Issue issue) {
+            if (error != null) {
+                return;
+            }
+            try {
+                doIssue(issue);
+            } catch (CoreException e) {
+                error = e;
             }
         }
-        return taskById;
-    }
-
-    private String getDateValue(boolean dateOnly, String issueAttributeValue) throws ParseException {
-        DateFormat fmt = new SimpleDateFormat(dateOnly ? Client.DATEONLY_FORMAT : Client.DATETIME_FORMAT);
-        return String.valueOf(fmt.parse(issueAttributeValue).getTime() / 1000);
-    }
-
-    private boolean match(Issue issue, boolean matches, Condition condition, String val, String issueAttributeValue) {
-        val = val.toLowerCase();
-        issueAttributeValue = issueAttributeValue.toLowerCase();
-        switch (condition.getType()) {
-            case BEG:
-                matches = issueAttributeValue.startsWith(val);
-                break;
-            case END:
-                matches = issueAttributeValue.endsWith(val);
-                break;
-            case CON:
-                matches = issueAttributeValue.contains(val);
-                break;
-            case EQ:
-                matches = issueAttributeValue.equals(val);
-                break;
-            case NEQ:
-                matches = !issueAttributeValue.equals(val);
-                break;
-            case GT:
-                matches = parseDouble(issueAttributeValue, condition) > parseDouble(val, condition);
-                break;
-            case GTE:
-                matches = parseDouble(issueAttributeValue, condition) >= parseDouble(val, condition);
-                break;
-            case LT:
-                matches = parseDouble(issueAttributeValue, condition) > parseDouble(val, condition);
-                break;
-            case LTE:
-                matches = parseDouble(issueAttributeValue, condition) >= parseDouble(val, condition);
-                break;
-            case IN:
-                matches = Arrays.asList(val.split(":")).contains(issueAttributeValue);
-                break;
+
+        /*
+         * Turn an issue into task data without checking if it matches
+         */
+        void foundMatch(Issue issue) {
+            if (error != null) {
+                return;
+            }
+            try {
+                emit(issue);
+            } catch (CoreException e) {
+                error = e;
+            }
         }
-        return matches;
-    }
 
-    private double parseDouble(String val, Condition condition) {
-        return Double.parseDouble(val);
+        private void doIssue(Issue issue) throws CoreException {
+            if (filter.matches(issue)) {
+                matched.add(issue.getId());
+                emit(issue);
+            }
+        }
+
+        private void emit(Issue issue) throws CoreException {
+            TaskData taskData = taskDataHandler.createTaskDataFromIssue(client, repository, issue, monitor);
+            taskData.setPartial(true);
+
+            if (session != null && !session.isFullSynchronization()) {
+                if (taskById == null) {
+                    taskById = new HashMap<String, ITask>();
+                    for (ITask task : session.getTasks()) {
+                        taskById.put(task.getTaskId(), task);
+                    }
+                }
+                ITask task = taskById.get(String.valueOf(issue.getId()));
+                if (task != null && hasTaskChanged(repository, task, taskData)) {
+                    session.markStale(task);
+                }
+            }
+            resultCollector.accept(taskData);
+        }
     }
 
     @Override
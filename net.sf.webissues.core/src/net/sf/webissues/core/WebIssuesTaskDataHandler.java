@@ -45,6 +45,7 @@ import org.eclipse.mylyn.tasks.core.data.TaskAttributeMapper;
 import org.eclipse.mylyn.tasks.core.data.TaskAttributeMetaData;
 import org.eclipse.mylyn.tasks.core.data.TaskCommentMapper;
 import org.eclipse.mylyn.tasks.core.data.TaskData;
+import org.eclipse.mylyn.tasks.core.data.TaskDataCollector;
 import org.webissues.api.Attachment;
 import org.webissues.api.Attribute;
 import org.webissues.api.Change;
@@ -54,6 +55,7 @@ import org.webissues.api.Folder;
 import org.webissues.api.IEnvironment;
 import org.webissues.api.Issue;
 import org.webissues.api.IssueDetails;
+import org.webissues.api.IssueDetailsCollector;
 import org.webissues.api.IssueType;
 import org.webissues.api.Project;
 import org.webissues.api.Projects;
@@ -87,6 +89,46 @@ public class WebIssuesTaskDataHandler extends AbstractTaskDataHandler {
         }
     }
 
+    @Override
+    public boolean canGetMultiTaskData(TaskRepository repository) {
+        return true;
+    }
+
+    /**
+     * Retrieve the details of all the tasks, up to
+     * {@link WebIssuesClientManager#MAX_CONCURRENT_REQUESTS} at a time. Each
+     * task is passed to the collector as soon as it arrives.
+     */
+    @Override
+    public void getMultiTaskData(final TaskRepository repository, Set<String> taskIds, final TaskDataCollector collector,
+                                 IProgressMonitor monitor) throws CoreException {
+        final IProgressMonitor progressMonitor = Policy.monitorFor(monitor);
+        try {
+            final WebIssuesClient client = connector.getClientManager().getClient(repository, progressMonitor);
+            List<Integer> issueIds = new ArrayList<Integer>();
+            for (String taskId : taskIds) {
+                issueIds.add(WebIssuesRepositoryConnector.getBugId(taskId));
+            }
+            client.getIssueDetails(issueIds, new IssueDetailsCollector() {
+                public void found(IssueDetails issueDetails) {
+                    try {
+                        collector.accept(createTaskDataFromIssueDetails(client, repository, issueDetails, progressMonitor));
+                    } catch (CoreException e) {
+                        collector.failed(String.valueOf(issueDetails.getIssue().getId()), e.getStatus());
+                    }
+                }
+
+                public void failed(int issueId, ProtocolException exception) {
+                    collector.failed(String.valueOf(issueId), WebIssuesCorePlugin.toStatus(exception, repository));
+                }
+            }, progressMonitor);
+        } catch (OperationCanceledException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new CoreException(WebIssuesCorePlugin.toStatus(e, repository));
+        }
+    }
+
     TaskData downloadTaskData(TaskRepository repository, int taskId, IProgressMonitor monitor) throws CoreException {
         try {
             WebIssuesClient client = connector.getClientManager().getClient(repository, monitor);
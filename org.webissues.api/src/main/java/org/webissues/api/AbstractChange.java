@@ -10,7 +10,7 @@ import java.util.Calendar;
  * 1.0-alpha, more operation are considered "Changes", including comments,
  * attachments, title changes and others.
  */
-public abstract class AbstractChange implements Entity, Serializable {
+public abstract class AbstractChange implements Entity, Serializable, Cloneable {
 
     private static final long serialVersionUID = 1L;
 
@@ -209,4 +209,21 @@ public abstract class AbstractChange implements Entity, Serializable {
         this.id = id;
     }
 
+    /**
+     * Get a copy of this change attached to another issue, leaving this one as
+     * it is.
+     * 
+     * @param issue issue
+     * @return copy
+     */
+    AbstractChange copy(Issue issue) {
+        try {
+            AbstractChange copy = (AbstractChange) clone();
+            copy.issue = issue;
+            return copy;
+        } catch (CloneNotSupportedException cnse) {
+            throw new Error(cnse);
+        }
+    }
+
 }
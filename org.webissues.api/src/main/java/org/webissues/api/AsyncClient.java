@@ -0,0 +1,370 @@
+package org.webissues.api;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Runs the calls of a {@link Client} on an {@link ExecutorService}, returning
+ * a {@link Future} for each instead of blocking the calling thread. Each call
+ * goes through the same methods as the blocking API, so a call that fails
+ * because the session has expired is retried after logging in again, exactly
+ * as it would be if made directly.
+ * <p>
+ * Calls that are made at the same time will use more than one connection to
+ * the server, so the {@link org.apache.commons.httpclient.HttpClient} must be
+ * using a thread safe connection manager (see
+ * {@link Client#setMaxConcurrentRequests(int)}).
+ * <p>
+ * The {@link Operation} supplied with a call is invoked from the thread the
+ * call runs on. Cancelling a future also cancels the operation the call sees,
+ * so a running call stops at the next point it checks for cancellation.
+ */
+public class AsyncClient {
+
+    private final Client client;
+    private final ExecutorService executor;
+    private final boolean ownExecutor;
+
+    /**
+     * Constructor. Calls are run on a pool of as many threads as
+     * {@link Client#getMaxConcurrentRequests()}, which is shut down by
+     * {@link #shutdown()}.
+     *
+     * @param client client
+     */
+    public AsyncClient(Client client) {
+        this(client, Executors.newFixedThreadPool(client.getMaxConcurrentRequests(), new Client.WorkerThreadFactory("async")),
+                        true);
+    }
+
+    /**
+     * Constructor. Calls are run on the supplied executor, which is left
+     * running by {@link #shutdown()}.
+     *
+     * @param client client
+     * @param executor executor
+     */
+    public AsyncClient(Client client, ExecutorService executor) {
+        this(client, executor, false);
+    }
+
+    private AsyncClient(Client client, ExecutorService executor, boolean ownExecutor) {
+        this.client = client;
+        this.executor = executor;
+        this.ownExecutor = ownExecutor;
+    }
+
+    /**
+     * Get the client calls are made with.
+     *
+     * @return client
+     */
+    public Client getClient() {
+        return client;
+    }
+
+    /**
+     * Stop the thread pool if it was created by this object. Calls already
+     * submitted are still run.
+     */
+    public void shutdown() {
+        if (ownExecutor) {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Run any call, with the same retry on session expiry as the blocking
+     * API. This allows several requests to be composed into one future.
+     *
+     * @param call call
+     * @param operation operation call-back
+     * @return future result of call
+     */
+    public <T> Future<T> submit(final Call<T> call, Operation operation) {
+        return submit(new Task<T>(operation) {
+            T call(Operation taskOperation) throws Exception {
+                return client.doCall(call, taskOperation);
+            }
+        });
+    }
+
+    /**
+     * Get the details of an issue.
+     *
+     * @param issueId issue ID
+     * @param operation operation call-back
+     * @return future issue details
+     * @see Client#getIssueDetails(int, Operation)
+     */
+    public Future<IssueDetails> getIssueDetails(final int issueId, Operation operation) {
+        return submit(new Task<IssueDetails>(operation) {
+            IssueDetails call(Operation taskOperation) throws Exception {
+                return client.getIssueDetails(issueId, taskOperation);
+            }
+        });
+    }
+
+    /**
+     * Get the details of many issues. The issues are requested separately, up
+     * to as many at a time as the executor allows, but the result is a single
+     * future that completes when all of them have been retrieved. If any
+     * request fails, the others are cancelled and the future fails with the
+     * same exception.
+     * <p>
+     * The requests only use the operation to check for cancellation, as
+     * several of them may be running at once.
+     *
+     * @param issueIds issue IDs
+     * @param operation operation call-back
+     * @return future map of details by issue ID, in the order requested
+     */
+    public Future<Map<Integer, IssueDetails>> getIssueDetails(Collection<Integer> issueIds, final Operation operation) {
+        Map<Integer, Future<IssueDetails>> futures = new LinkedHashMap<Integer, Future<IssueDetails>>();
+        Operation cancelOnly = new OperationAdapter() {
+            @Override
+            public boolean isCanceled() {
+                return super.isCanceled() || (operation != null && operation.isCanceled());
+            }
+        };
+        for (Integer issueId : issueIds) {
+            if (!futures.containsKey(issueId)) {
+                futures.put(issueId, getIssueDetails(issueId.intValue(), cancelOnly));
+            }
+        }
+        return new AllFuture<Integer, IssueDetails>(futures);
+    }
+
+    /**
+     * Find issues changed since the supplied stamps.
+     *
+     * @param stamps stamps, which will be updated as the call progresses
+     * @param operation operation call-back
+     * @return future issues
+     * @see Client#findIssues(Map, Operation)
+     */
+    public Future<Collection<Issue>> findIssues(final Map<Folder, Long> stamps, Operation operation) {
+        return submit(new Task<Collection<Issue>>(operation) {
+            Collection<Issue> call(Operation taskOperation) throws Exception {
+                return client.findIssues(stamps, taskOperation);
+            }
+        });
+    }
+
+    /**
+     * Get the 'read' state of issues changed since a stamp.
+     *
+     * @param stamp stamp
+     * @param operation operation call-back
+     * @return future read states
+     * @see Client#getReadStates(long, Operation)
+     */
+    public Future<ReadStates> getReadStates(final long stamp, Operation operation) {
+        return submit(new Task<ReadStates>(operation) {
+            ReadStates call(Operation taskOperation) throws Exception {
+                return client.getReadStates(stamp, taskOperation);
+            }
+        });
+    }
+
+    /**
+     * Set attribute values for an issue.
+     *
+     * @param issueId issue ID
+     * @param attributes attributes
+     * @param operation operation call-back
+     * @return future collection of change IDs
+     * @see Client#setIssueAttributeValues(int, Map, Operation)
+     */
+    public Future<Collection<Integer>> setIssueAttributeValues(final int issueId, final Map<Attribute, String> attributes,
+                                                               Operation operation) {
+        return submit(new Task<Collection<Integer>>(operation) {
+            Collection<Integer> call(Operation taskOperation) throws Exception {
+                return client.setIssueAttributeValues(issueId, attributes, taskOperation);
+            }
+        });
+    }
+
+    /**
+     * Create a new issue.
+     *
+     * @param issue issue
+     * @param operation operation call-back
+     * @return future new issue ID
+     * @see Client#createIssue(Issue, Operation)
+     */
+    public Future<Integer> createIssue(final Issue issue, Operation operation) {
+        return submit(new Task<Integer>(operation) {
+            Integer call(Operation taskOperation) throws Exception {
+                return client.createIssue(issue, taskOperation);
+            }
+        });
+    }
+
+    /**
+     * Get the content of an attachment. The stream must be closed when done
+     * with.
+     *
+     * @param attachmentId attachment ID
+     * @param operation operation call-back
+     * @return future stream of attachment data
+     * @see Client#getAttachmentData(int, Operation)
+     */
+    public Future<InputStream> getAttachmentData(final int attachmentId, Operation operation) {
+        return submit(new Task<InputStream>(operation) {
+            InputStream call(Operation taskOperation) throws Exception {
+                return client.getAttachmentData(attachmentId, taskOperation);
+            }
+        });
+    }
+
+    private <T> Future<T> submit(final Task<T> task) {
+        FutureTask<T> future = new FutureTask<T>(task) {
+            @Override
+            public boolean cancel(boolean mayInterruptIfRunning) {
+                task.operation.setCanceled(true);
+                return super.cancel(mayInterruptIfRunning);
+            }
+        };
+        executor.execute(future);
+        return future;
+    }
+
+    /*
+     * A call with its own operation, which forwards to the caller's operation
+     * but can also be cancelled through the future
+     */
+    private static abstract class Task<T> implements Callable<T> {
+        private final Operation operation;
+
+        Task(final Operation callerOperation) {
+            operation = new TimedOperation() {
+                private volatile boolean cancelled;
+
+                public void beginJob(String name, int size) {
+                    if (callerOperation != null) {
+                        callerOperation.beginJob(name, size);
+                    }
+                }
+
+                public void done() {
+                    if (callerOperation != null) {
+                        callerOperation.done();
+                    }
+                }
+
+                public boolean isCanceled() {
+                    return cancelled || (callerOperation != null && callerOperation.isCanceled());
+                }
+
+                public void setCanceled(boolean cancelled) {
+                    this.cancelled = cancelled;
+                }
+
+                public void setName(String name) {
+                    if (callerOperation != null) {
+                        callerOperation.setName(name);
+                    }
+                }
+
+                public void progressed(int value) {
+                    if (callerOperation != null) {
+                        callerOperation.progressed(value);
+                    }
+                }
+
+                public void timed(String phase, long millis) {
+                    if (callerOperation instanceof TimedOperation) {
+                        ((TimedOperation) callerOperation).timed(phase, millis);
+                    }
+                }
+            };
+        }
+
+        public T call() throws Exception {
+            return call(operation);
+        }
+
+        abstract T call(Operation taskOperation) throws Exception;
+    }
+
+    /*
+     * Combines the futures of several calls, without tying up a thread to
+     * wait for them
+     */
+    private static class AllFuture<K, V> implements Future<Map<K, V>> {
+        private final Map<K, Future<V>> futures;
+
+        AllFuture(Map<K, Future<V>> futures) {
+            this.futures = futures;
+        }
+
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = false;
+            for (Future<V> future : futures.values()) {
+                cancelled |= future.cancel(mayInterruptIfRunning);
+            }
+            return cancelled;
+        }
+
+        public boolean isCancelled() {
+            for (Future<V> future : futures.values()) {
+                if (future.isCancelled()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        public boolean isDone() {
+            for (Future<V> future : futures.values()) {
+                if (!future.isDone()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        public Map<K, V> get() throws InterruptedException, ExecutionException {
+            try {
+                return get(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            } catch (TimeoutException te) {
+                throw new IllegalStateException(te);
+            }
+        }
+
+        public Map<K, V> get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            long remaining = unit.toNanos(timeout);
+            long deadline = System.nanoTime() + remaining;
+            Map<K, V> results = new LinkedHashMap<K, V>();
+            List<Future<V>> pending = new ArrayList<Future<V>>(futures.values());
+            try {
+                for (Map.Entry<K, Future<V>> entry : futures.entrySet()) {
+                    if (remaining != Long.MAX_VALUE) {
+                        remaining = Math.max(0, deadline - System.nanoTime());
+                    }
+                    results.put(entry.getKey(), entry.getValue().get(remaining, TimeUnit.NANOSECONDS));
+                    pending.remove(entry.getValue());
+                }
+            } catch (ExecutionException ee) {
+                for (Future<V> future : pending) {
+                    future.cancel(false);
+                }
+                throw ee;
+            }
+            return results;
+        }
+    }
+}
@@ -84,6 +84,7 @@ public class Attachment extends AbstractChange implements Serializable, Entity {
         final Client client = getIssue().getFolder().getProject().getProjects().getEnvironment().getClient();
         client.doCall(new Call<Boolean>() {
             public Boolean call() throws HttpException, IOException, ProtocolException {
+                client.issueHistoryDeleted(getIssue().getId());
                 client.doCommand("DELETE ATTACHMENT " + getId());
                 return true;
             }
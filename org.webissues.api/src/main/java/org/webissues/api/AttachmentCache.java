@@ -0,0 +1,342 @@
+package org.webissues.api;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.httpclient.HttpException;
+
+/**
+ * A local copy of attachment content, kept in a directory so that an
+ * attachment is only downloaded from the server the first time it is opened.
+ * Attachments can never be changed once added, so a cached copy never needs
+ * to be checked with the server.
+ * <p>
+ * Content is stored in files named by its SHA-1 hash, so attachments with the
+ * same content (the same file attached to several issues, for example) are
+ * only stored once. When the total size of the stored content exceeds the
+ * limit, the least recently used content is removed. A single attachment
+ * larger than the limit is never kept.
+ * <p>
+ * {@link #getAttachmentData(Client, int, Operation)} returns a stream over the
+ * cached file, which is opened before another thread can remove the content.
+ */
+public class AttachmentCache {
+
+    private static final int VERSION = 1;
+    private static final String INDEX = "index";
+
+    private final File directory;
+    private final long maxSize;
+    private final Map<Integer, String> hashById = new HashMap<Integer, String>();
+    private final LinkedHashMap<String, Long> sizeByHash = new LinkedHashMap<String, Long>(16, 0.75f, true);
+    private long size;
+
+    /**
+     * Constructor. Any previously cached content in the directory is used.
+     *
+     * @param directory directory to store content in, which is created if it
+     *        does not exist
+     * @param maxSize maximum total size in bytes of the content to keep
+     */
+    public AttachmentCache(File directory, long maxSize) {
+        this.directory = directory;
+        this.maxSize = maxSize;
+        load();
+    }
+
+    /**
+     * Get the content of an attachment, downloading it if it is not already
+     * cached. The stream must be closed when done with.
+     *
+     * @param client client used to download the attachment
+     * @param attachmentId attachment ID
+     * @param operation operation call-back
+     * @return stream of attachment data
+     * @throws HttpException on HTTP error
+     * @throws IOException on any other IO error
+     * @throws ProtocolException on error return by server or protocol problem
+     */
+    public InputStream getAttachmentData(Client client, int attachmentId, Operation operation) throws HttpException, IOException,
+                    ProtocolException {
+        return openFile(client, attachmentId, operation);
+    }
+
+    /**
+     * Get the SHA-1 hash of the content of an attachment, if it is cached.
+     *
+     * @param attachmentId attachment ID
+     * @return hash as hexadecimal or <code>null</code> if not cached
+     */
+    public synchronized String getHash(int attachmentId) {
+        return hashById.get(attachmentId);
+    }
+
+    /**
+     * Get if the content of an attachment is cached.
+     *
+     * @param attachmentId attachment ID
+     * @return cached
+     */
+    public synchronized boolean isCached(int attachmentId) {
+        return hashById.containsKey(attachmentId);
+    }
+
+    /**
+     * Get the total size of the cached content.
+     *
+     * @return size in bytes
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * Remove all cached content.
+     */
+    public synchronized void clear() {
+        hashById.clear();
+        sizeByHash.clear();
+        size = 0;
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+
+    /*
+     * Open the cached file for an attachment, downloading it first if needed.
+     * Cached files are opened while holding the lock, so another thread
+     * evicting the content cannot delete the file before it is open. Content
+     * too big to cache is read from a temporary file that is deleted when the
+     * stream is closed.
+     */
+    private InputStream openFile(Client client, int attachmentId, Operation operation) throws HttpException,
+                    IOException, ProtocolException {
+        synchronized (this) {
+            String hash = hashById.get(attachmentId);
+            if (hash != null) {
+                File file = new File(directory, hash);
+                if (file.exists()) {
+                    // Touch for LRU
+                    sizeByHash.get(hash);
+                    return new FileInputStream(file);
+                }
+                Client.LOG.warn("Cached attachment " + attachmentId + " has gone, it will be downloaded again");
+                remove(hash);
+            }
+        }
+
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Could not create directory " + directory);
+        }
+        File tmpFile = File.createTempFile("download", ".tmp", directory);
+        // Unless handed over to the caller, the temporary file is deleted
+        // however this ends, including once it has been renamed
+        boolean handedOver = false;
+        try {
+            long length = 0;
+            MessageDigest digest = newDigest();
+            InputStream in = new DigestInputStream(client.getAttachmentData(attachmentId, operation), digest);
+            try {
+                OutputStream out = new FileOutputStream(tmpFile);
+                try {
+                    byte[] buf = new byte[65536];
+                    int read;
+                    while ((read = in.read(buf)) != -1) {
+                        if (operation.isCanceled()) {
+                            throw new ProtocolException(ProtocolException.CANCELLED);
+                        }
+                        out.write(buf, 0, read);
+                        length += read;
+                    }
+                } finally {
+                    out.close();
+                }
+            } finally {
+                in.close();
+            }
+            String hash = Util.toHex(digest.digest());
+
+            if (length > maxSize) {
+                // Too big to keep
+                InputStream tmpIn = new TemporaryFileInputStream(tmpFile);
+                handedOver = true;
+                return tmpIn;
+            }
+            synchronized (this) {
+                File file = new File(directory, hash);
+                if (!sizeByHash.containsKey(hash) || !file.exists()) {
+                    if ((file.exists() && !file.delete()) || !tmpFile.renameTo(file)) {
+                        throw new IOException("Could not rename " + tmpFile + " to " + file);
+                    }
+                    sizeByHash.put(hash, length);
+                    size += length;
+                }
+                // Otherwise the same content as another attachment
+                hashById.put(attachmentId, hash);
+                evict();
+                save();
+                return new FileInputStream(file);
+            }
+        } finally {
+            if (!handedOver) {
+                tmpFile.delete();
+            }
+        }
+    }
+
+    /*
+     * Reads a file that is deleted once closed, as it cannot be deleted while
+     * open on every platform
+     */
+    private static class TemporaryFileInputStream extends FileInputStream {
+        private final File file;
+
+        TemporaryFileInputStream(File file) throws IOException {
+            super(file);
+            this.file = file;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                file.delete();
+            }
+        }
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, Long>> it = sizeByHash.entrySet().iterator();
+        while (size > maxSize && it.hasNext()) {
+            Map.Entry<String, Long> entry = it.next();
+            it.remove();
+            removeFile(entry.getKey(), entry.getValue());
+        }
+    }
+
+    private void remove(String hash) {
+        Long length = sizeByHash.remove(hash);
+        if (length != null) {
+            removeFile(hash, length);
+        }
+    }
+
+    private void removeFile(String hash, long length) {
+        size -= length;
+        for (Iterator<String> it = hashById.values().iterator(); it.hasNext();) {
+            if (it.next().equals(hash)) {
+                it.remove();
+            }
+        }
+        new File(directory, hash).delete();
+    }
+
+    /*
+     * Read the index of cached content, dropping entries whose file has gone
+     * and files that are not in the index
+     */
+    private void load() {
+        File index = new File(directory, INDEX);
+        if (index.exists()) {
+            try {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(index)));
+                try {
+                    if (in.readInt() == VERSION) {
+                        int contentCount = in.readInt();
+                        for (int i = 0; i < contentCount; i++) {
+                            String hash = in.readUTF();
+                            long length = in.readLong();
+                            if (new File(directory, hash).length() == length) {
+                                sizeByHash.put(hash, length);
+                                size += length;
+                            }
+                        }
+                        int attachmentCount = in.readInt();
+                        for (int i = 0; i < attachmentCount; i++) {
+                            int attachmentId = in.readInt();
+                            String hash = in.readUTF();
+                            if (sizeByHash.containsKey(hash)) {
+                                hashById.put(attachmentId, hash);
+                            }
+                        }
+                    }
+                } finally {
+                    in.close();
+                }
+            } catch (IOException ioe) {
+                Client.LOG.warn("Could not read attachment cache index " + index + ", the cache will be emptied", ioe);
+                hashById.clear();
+                sizeByHash.clear();
+                size = 0;
+            }
+        }
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (!file.getName().equals(INDEX) && !sizeByHash.containsKey(file.getName())) {
+                    file.delete();
+                }
+            }
+        }
+        evict();
+    }
+
+    /*
+     * Write the index, in least recently used order. A failure only means
+     * the content will be downloaded again next time, so is just logged.
+     */
+    private void save() {
+        File index = new File(directory, INDEX);
+        File tmpFile = new File(directory, INDEX + ".tmp");
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+            try {
+                out.writeInt(VERSION);
+                out.writeInt(sizeByHash.size());
+                for (Map.Entry<String, Long> entry : sizeByHash.entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    out.writeLong(entry.getValue());
+                }
+                out.writeInt(hashById.size());
+                for (Map.Entry<Integer, String> entry : hashById.entrySet()) {
+                    out.writeInt(entry.getKey());
+                    out.writeUTF(entry.getValue());
+                }
+            } finally {
+                out.close();
+            }
+            if ((index.exists() && !index.delete()) || !tmpFile.renameTo(index)) {
+                throw new IOException("Could not rename " + tmpFile + " to " + index);
+            }
+        } catch (IOException ioe) {
+            Client.LOG.warn("Could not write attachment cache index " + index, ioe);
+        }
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException nsae) {
+            throw new Error(nsae);
+        }
+    }
+}
@@ -41,6 +41,17 @@ public class Attribute implements Entity, NamedEntity, Serializable, Comparable<
     private boolean forViewFilter = true;
 
     private boolean fixedPosition;
+    // Index of this attribute's value in an issue plus one, or 0 if it has
+    // none yet, see IssueType#put(). Not saved, as slots are given out again
+    // when first needed after loading
+    private transient int slot;
+    // Values of this attribute seen in issues, created when first needed
+    private transient volatile ValueDictionary valueDictionary;
+
+    // Most distinct values shared for attributes with a fixed set of values,
+    // and for anything else (free text, numbers and dates)
+    private static final int MAX_ENUM_VALUES = 1024;
+    private static final int MAX_OTHER_VALUES = 256;
 
     /**
      * The type of data this attribute will hold.
@@ -186,7 +197,7 @@ public class Attribute implements Entity, NamedEntity, Serializable, Comparable<
         client.doCall(new Call<Boolean>() {
             public Boolean call() throws HttpException, IOException, ProtocolException {
                 client.doCommand("DELETE ATTRIBUTE " + getId());
-                type.remove(getId());
+                type.removeAttribute(Attribute.this);
                 return true;
             }
         }, operation);
@@ -338,6 +349,49 @@ public class Attribute implements Entity, NamedEntity, Serializable, Comparable<
         return type;
     }
 
+    int getSlot() {
+        if (slot == 0 && type != null && !builtIn) {
+            // May have been loaded back in, in which case the type gives out
+            // slots again
+            type.getSlotCount();
+        }
+        return slot - 1;
+    }
+
+    boolean hasSlot() {
+        return slot != 0;
+    }
+
+    void setSlot(int slot) {
+        this.slot = slot + 1;
+    }
+
+    /**
+     * Get the dictionary used to share the values of this attribute between
+     * issues. For enumerations it starts off holding all the options.
+     * 
+     * @return value dictionary
+     */
+    ValueDictionary getValueDictionary() {
+        ValueDictionary dictionary = valueDictionary;
+        if (dictionary == null) {
+            synchronized (this) {
+                dictionary = valueDictionary;
+                if (dictionary == null) {
+                    boolean fixed = AttributeType.ENUM.equals(attributeType) || AttributeType.USER.equals(attributeType);
+                    dictionary = new ValueDictionary(fixed ? MAX_ENUM_VALUES : MAX_OTHER_VALUES);
+                    if (options != null) {
+                        for (String option : options) {
+                            dictionary.intern(option);
+                        }
+                    }
+                    valueDictionary = dictionary;
+                }
+            }
+        }
+        return dictionary;
+    }
+
     /**
      * Get the maximum number of decimal places allowed. Only applicable if the type is
      * {@link AttributeType#NUMERIC}. If there is no minimum value, the default is 0 (i.e an
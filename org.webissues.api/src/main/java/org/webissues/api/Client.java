@@ -1,32 +1,39 @@
 package org.webissues.api;
 
-import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.net.URL;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.jar.Manifest;
+import java.util.zip.GZIPInputStream;
 
-import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.Cookie;
 import org.apache.commons.httpclient.HttpClient;
 import org.apache.commons.httpclient.HttpException;
-import org.apache.commons.httpclient.HttpMethod;
 import org.apache.commons.httpclient.auth.CredentialsProvider;
 import org.apache.commons.httpclient.cookie.CookiePolicy;
-import org.apache.commons.httpclient.methods.PostMethod;
-import org.apache.commons.httpclient.methods.multipart.FilePart;
-import org.apache.commons.httpclient.methods.multipart.MultipartRequestEntity;
-import org.apache.commons.httpclient.methods.multipart.Part;
-import org.apache.commons.httpclient.methods.multipart.PartSource;
-import org.apache.commons.httpclient.methods.multipart.StringPart;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.webissues.api.AbstractChange.Type;
@@ -85,11 +92,22 @@ public class Client implements Serializable {
     private IEnvironment environment;
     private CredentialsProvider credentialsProvider;
     private int majorProtocolVersion = -1;
+    private int maxConcurrentRequests = 1;
+    private boolean compression;
+    private List<SessionCookie> sessionCookies;
 
     // Private transient variables
     private transient HttpClient httpClient;
     private transient Authenticator authenticator;
     private transient PasswordChangeCallback passwordChangeCallback;
+    private transient volatile Transport transport;
+    private transient volatile IssueDetailsCache issueDetailsCache;
+    private transient AtomicLong responseBytes = new AtomicLong();
+    private transient AtomicLong decodedResponseBytes = new AtomicLong();
+    // Incremented on each login, so threads that all find the session has
+    // expired only log in once between them
+    private transient volatile int loginCount;
+    private transient boolean resumable;
 
     public Client(HttpClient client) {
         this.httpClient = client;
@@ -112,6 +130,85 @@ public class Client implements Serializable {
         this.majorProtocolVersion = majorProtocolVersion;
     }
 
+    /**
+     * Set the maximum number of requests that may be in progress at the same
+     * time for operations that can be split up, such as
+     * {@link #findIssues(Map, Operation)}. The default of 1 means all requests
+     * are made one after the other on the calling thread.
+     * <p>
+     * Any value greater than 1 requires that the {@link HttpClient} is using a
+     * thread safe connection manager (such as
+     * <code>MultiThreadedHttpConnectionManager</code>) that allows at least
+     * this many connections to the server.
+     * 
+     * @param maxConcurrentRequests maximum concurrent requests
+     */
+    public final void setMaxConcurrentRequests(int maxConcurrentRequests) {
+        if (maxConcurrentRequests < 1) {
+            throw new IllegalArgumentException("Maximum concurrent requests must be at least 1");
+        }
+        this.maxConcurrentRequests = maxConcurrentRequests;
+    }
+
+    /**
+     * Get the maximum number of requests that may be in progress at the same
+     * time.
+     * 
+     * @return maximum concurrent requests
+     * @see #setMaxConcurrentRequests(int)
+     */
+    public final int getMaxConcurrentRequests() {
+        return maxConcurrentRequests;
+    }
+
+    /**
+     * Set whether the server should be asked to compress its responses. When
+     * enabled, each command is sent with <code>Accept-Encoding: gzip</code>,
+     * and compressed responses are decompressed as they are read. Responses
+     * such as <code>LIST ISSUES</code> are very repetitive, so this greatly
+     * reduces the amount transferred over slow links, at the cost of some CPU
+     * on both ends. The server (or the web server in front of it) must be
+     * configured to compress PHP output for this to have any effect. The
+     * default is off.
+     * 
+     * @param compression ask for compressed responses
+     */
+    public final void setCompression(boolean compression) {
+        this.compression = compression;
+    }
+
+    /**
+     * Get whether the server is asked to compress its responses.
+     * 
+     * @return ask for compressed responses
+     * @see #setCompression(boolean)
+     */
+    public final boolean isCompression() {
+        return compression;
+    }
+
+    /**
+     * Get the number of response bytes read from the server since this client
+     * was created or loaded back in, as they were transferred (i.e. before any
+     * decompression).
+     * 
+     * @return response bytes
+     */
+    public final long getResponseBytes() {
+        return responseBytes.get();
+    }
+
+    /**
+     * Get the number of response bytes read from the server since this client
+     * was created or loaded back in, after any decompression. Compared with
+     * {@link #getResponseBytes()}, this shows how effective compression is.
+     * 
+     * @return decoded response bytes
+     */
+    public final long getDecodedResponseBytes() {
+        return decodedResponseBytes.get();
+    }
+
     /**
      * Set the HTTP client to use
      * 
@@ -119,6 +216,52 @@ public class Client implements Serializable {
      */
     public final void setHttpClient(HttpClient httpClient) {
         this.httpClient = httpClient;
+        restoreSessionCookies();
+    }
+
+    /**
+     * Set how commands are carried to the server. By default a
+     * {@link HttpClientTransport} using the HTTP client of this object is
+     * used.
+     * 
+     * @param transport transport
+     */
+    public final void setTransport(Transport transport) {
+        this.transport = transport;
+    }
+
+    /**
+     * Get how commands are carried to the server.
+     * 
+     * @return transport
+     */
+    public final Transport getTransport() {
+        Transport t = transport;
+        if (t == null) {
+            t = new HttpClientTransport(this);
+            transport = t;
+        }
+        return t;
+    }
+
+    /**
+     * Set the cache used to avoid retrieving the details of the same issue
+     * repeatedly. By default there is no cache.
+     * 
+     * @param issueDetailsCache cache or <code>null</code> for no cache
+     */
+    public final void setIssueDetailsCache(IssueDetailsCache issueDetailsCache) {
+        this.issueDetailsCache = issueDetailsCache;
+    }
+
+    /**
+     * Get the cache used to avoid retrieving the details of the same issue
+     * repeatedly.
+     * 
+     * @return cache or <code>null</code> if there is no cache
+     */
+    public final IssueDetailsCache getIssueDetailsCache() {
+        return issueDetailsCache;
     }
 
     /**
@@ -184,6 +327,10 @@ public class Client implements Serializable {
         this.credentialsProvider = credentialsProvider;
     }
 
+    final CredentialsProvider getCredentialsProvider() {
+        return credentialsProvider;
+    }
+
     /**
      * Get if the client is currently connected. Note that a client may be
      * connected but not 'online' if the Client was serialised while it was
@@ -224,6 +371,20 @@ public class Client implements Serializable {
         return httpClient;
     }
 
+    /**
+     * Go online if the client is connected but offline, for example after
+     * being loaded back in. This happens automatically when any operation
+     * needs the server, so need only be called to go online in advance.
+     * 
+     * @param operation operation call-back
+     * @throws HttpException on HTTP error
+     * @throws IOException on any other IO error
+     * @throws ProtocolException on error return by server or protocol problem
+     */
+    public void goOnline(Operation operation) throws HttpException, IOException, ProtocolException {
+        checkConnectedAndOnline(operation);
+    }
+
     /**
      * Connect to the server
      * 
@@ -260,6 +421,7 @@ public class Client implements Serializable {
         final SimpleDateFormat dateTimeFormat = new SimpleDateFormat(DATETIME_FORMAT);
         return doCall(new Call<Collection<Integer>>() {
             public Collection<Integer> call() throws HttpException, IOException, ProtocolException {
+                issueChanged(issueId);
                 List<Integer> changes = new ArrayList<Integer>();
                 for (Attribute attribute : attributes.keySet()) {
                     String value = attributes.get(attribute);
@@ -270,7 +432,7 @@ public class Client implements Serializable {
                             value = dateTimeFormat.format(Util.parseTimestamp(value).getTime());
                         }
                     }
-                    HttpMethod method = doCommand("SET VALUE " + issueId + " " + attribute.getId() + " '" + Util.escape(value)
+                    Transport.Response method = doCommand("SET VALUE " + issueId + " " + attribute.getId() + " '" + Util.escape(value)
                                     + "'");
                     try {
                         for (List<String> response : readResponse(method.getResponseBodyAsStream())) {
@@ -305,6 +467,7 @@ public class Client implements Serializable {
     public void moveIssue(final int issueId, Operation operation, final int folderId) throws IOException, ProtocolException {
         doCall(new Call<Boolean>() {
             public Boolean call() throws HttpException, IOException, ProtocolException {
+                issueChanged(issueId);
                 doCommand("MOVE ISSUE " + issueId + " " + folderId);
                 return true;
             }
@@ -323,6 +486,7 @@ public class Client implements Serializable {
     public void deleteIssue(final int issueId, Operation operation) throws IOException, ProtocolException {
         doCall(new Call<Boolean>() {
             public Boolean call() throws HttpException, IOException, ProtocolException {
+                issueHistoryDeleted(issueId);
                 doCommand("DELETE ISSUE " + issueId);
                 return true;
             }
@@ -343,7 +507,8 @@ public class Client implements Serializable {
                     ProtocolException {
         return doCall(new Call<Integer>() {
             public Integer call() throws HttpException, IOException, ProtocolException {
-                HttpMethod method = doCommand("RENAME ISSUE " + issueId + " '" + Util.escape(newName) + "'");
+                issueChanged(issueId);
+                Transport.Response method = doCommand("RENAME ISSUE " + issueId + " '" + Util.escape(newName) + "'");
                 try {
                     for (List<String> response : readResponse(method.getResponseBodyAsStream())) {
                         if (response.get(0).equals("ID")) {
@@ -407,7 +572,8 @@ public class Client implements Serializable {
     }
 
     /**
-     * Get the full issue details.
+     * Get the full issue details. If an {@link IssueDetailsCache} has been
+     * set, details are returned from that while the issue has not changed.
      * 
      * @param issueId issue ID
      * @param operation operation call-back
@@ -418,33 +584,47 @@ public class Client implements Serializable {
      */
     public IssueDetails getIssueDetails(final int issueId, Operation operation) throws HttpException, IOException,
                     ProtocolException {
-
+        final IssueDetailsCache cache = issueDetailsCache;
+        if (cache != null) {
+            IssueDetails cached = cache.get(issueId);
+            if (cached != null) {
+                return cached;
+            }
+        }
         return doCall(new Call<IssueDetails>() {
             public IssueDetails call() throws HttpException, IOException, ProtocolException {
-                String command = "GET DETAILS " + issueId + " 0";
+                /*
+                 * If there are out of date details, only ask for the history
+                 * since them. The issue and all of its values are always sent
+                 */
+                final IssueDetails base = cache == null ? null : cache.getBase(issueId);
+                String command = "GET DETAILS " + issueId + " " + (base == null ? 0 : base.getIssue().getStamp());
                 if(Util.compareVersions(getEnvironment().getVersion(), "1.0") >= 0) {
                     // Mark read only
                     command += " 0";
                 }
-                HttpMethod method = doCommand(command);
+                Transport.Response method = doCommand(command);
                 IssueDetails issueDetails = null;
                 Issue issue = null;
-                Map<Integer, Change> changeMap = null;
+                Map<Integer, Change> changeMap = base == null || base.getChangeMap() == null ? null
+                                : new HashMap<Integer, Change>(base.getChangeMap());
                 try {
-                    for (List<String> response : readResponse(method.getResponseBodyAsStream())) {
-                        if (response.get(0).equals("V")) {
-                            int attributeId = Integer.parseInt(response.get(1));
+                    ResponseReader response = new ResponseReader(method.getResponseBodyAsStream());
+                    while (response.nextRow()) {
+                        if (response.isRow("V")) {
+                            int attributeId = response.intField(1);
                             if (issueDetails == null) {
                                 throw new Error("Expected issue before attribute");
                             }
-                            issueDetails.getIssue().put(environment.getTypes().getAttribute(attributeId), response.get(3));
-                        } else if (response.get(0).equals("I")) {
+                            Attribute attribute = environment.getTypes().getAttribute(attributeId);
+                            issueDetails.getIssue().put(attribute, response.valueField(3, attribute));
+                        } else if (response.isRow("I")) {
                             if (issueDetails != null) {
                                 throw new Error("Received two issues");
                             }
                             issue = Issue.createFromResponse(response, environment);
                             issueDetails = new IssueDetails(Client.this, issue);
-                        } else if (response.get(0).equals("C")) {
+                        } else if (response.isRow("C")) {
                             if (issueDetails == null) {
                                 throw new Error("Expected issue before comment");
                             }
@@ -453,11 +633,12 @@ public class Client implements Serializable {
                                 if (changeMap == null) {
                                     throw new Error("Expected changes before comment");
                                 }
-                                issueDetails.getComments().add(Comment.createFromResponse(issue, response, environment, changeMap));
+                                issueDetails.getComments().add(
+                                    Comment.createFromResponse(issue, response.toList(), environment, changeMap));
                             } else {
-                                issueDetails.getComments().add(Comment.createFromResponse(issue, response, environment));
+                                issueDetails.getComments().add(Comment.createFromResponse(issue, response.toList(), environment));
                             }
-                        } else if (response.get(0).equals("A")) {
+                        } else if (response.isRow("A")) {
                             if (issueDetails == null) {
                                 throw new Error("Expected issue before attachment");
                             }
@@ -468,18 +649,19 @@ public class Client implements Serializable {
                                     throw new Error("Expected changes before comment");
                                 }
                                 issueDetails.getAttachments().add(
-                                    Attachment.createFromResponse(issue, response, environment, changeMap));
+                                    Attachment.createFromResponse(issue, response.toList(), environment, changeMap));
                             } else {
-                                issueDetails.getAttachments().add(Attachment.createFromResponse(issue, response, environment));
+                                issueDetails.getAttachments().add(
+                                    Attachment.createFromResponse(issue, response.toList(), environment));
                             }
-                        } else if (response.get(0).equals("H")) {
+                        } else if (response.isRow("H")) {
                             if (issueDetails == null) {
                                 throw new Error("Expected issue before change");
                             }
                             if (changeMap == null) {
                                 changeMap = new HashMap<Integer, Change>();
                             }
-                            Change change = Change.createFromResponse(issue, response, environment.getUsers(), environment);
+                            Change change = Change.createFromResponse(issue, response.toList(), environment.getUsers(), environment);
                             changeMap.put(change.getId(), change);
                             if (change.getType().equals(Type.VALUE_CHANGED) || change.getType().equals(Type.ISSUE_MOVED)
                                             || change.getType().equals(Type.ISSUE_RENAMED)) {
@@ -492,11 +674,112 @@ public class Client implements Serializable {
                 } finally {
                     method.releaseConnection();
                 }
+                if (issueDetails != null) {
+                    issueDetails.setChangeMap(changeMap);
+                    if (base != null) {
+                        issueDetails = base.merge(issueDetails);
+                    }
+                    if (cache != null) {
+                        cache.put(issueDetails);
+                    }
+                }
                 return issueDetails;
             }
         }, operation);
     }
 
+    /**
+     * Get the full details of many issues, passing each to a collector as soon
+     * as it has been retrieved. If {@link #getMaxConcurrentRequests()} is
+     * greater than 1, that many issues are requested at a time, and the
+     * details are passed on in the order they arrive rather than the order
+     * requested. Issues that cannot be retrieved because of an error returned
+     * by the server (for example because they have been deleted) are passed to
+     * {@link IssueDetailsCollector#failed(int, ProtocolException)}, and the
+     * rest are still retrieved. Any other error stops all the requests.
+     * 
+     * @param issueIds issue IDs
+     * @param collector collector, invoked on the calling thread
+     * @param operation operation call-back
+     * @throws HttpException on HTTP error
+     * @throws IOException on any other IO error
+     * @throws ProtocolException if cancelled, or on a protocol problem
+     */
+    public void getIssueDetails(Collection<Integer> issueIds, IssueDetailsCollector collector, final Operation operation)
+                    throws HttpException, IOException, ProtocolException {
+        checkConnectedAndOnline(operation);
+        operation.beginJob("Getting issue details", issueIds.size());
+        try {
+            if (maxConcurrentRequests == 1 || issueIds.size() < 2) {
+                for (Integer issueId : issueIds) {
+                    try {
+                        collector.found(getIssueDetails(issueId.intValue(), operation));
+                    } catch (ProtocolException pe) {
+                        if (pe.getCode() == ProtocolException.CANCELLED) {
+                            throw pe;
+                        }
+                        collector.failed(issueId.intValue(), pe);
+                    }
+                    operation.progressed(1);
+                }
+                return;
+            }
+
+            // As for findIssuesInParallel(), workers only get to see cancellation
+            final Operation workerOperation = new OperationAdapter() {
+                @Override
+                public boolean isCanceled() {
+                    return super.isCanceled() || operation.isCanceled();
+                }
+            };
+            ExecutorService executor = Executors.newFixedThreadPool(Math.min(maxConcurrentRequests, issueIds.size()),
+                new WorkerThreadFactory("getIssueDetails"));
+            try {
+                CompletionService<IssueDetails> completion = new ExecutorCompletionService<IssueDetails>(executor);
+                final Map<Future<IssueDetails>, Integer> idByFuture = new HashMap<Future<IssueDetails>, Integer>();
+                for (final Integer issueId : issueIds) {
+                    idByFuture.put(completion.submit(new Callable<IssueDetails>() {
+                        public IssueDetails call() throws Exception {
+                            return getIssueDetails(issueId.intValue(), workerOperation);
+                        }
+                    }), issueId);
+                }
+                for (int i = 0; i < idByFuture.size(); i++) {
+                    Future<IssueDetails> future = null;
+                    while (future == null) {
+                        if (operation.isCanceled()) {
+                            throw new ProtocolException(ProtocolException.CANCELLED);
+                        }
+                        try {
+                            future = completion.poll(250, TimeUnit.MILLISECONDS);
+                        } catch (InterruptedException ie) {
+                            throw new ProtocolException(ProtocolException.CANCELLED);
+                        }
+                    }
+                    try {
+                        collector.found(waitFor(future, operation));
+                    } catch (ProtocolException pe) {
+                        if (pe.getCode() == ProtocolException.CANCELLED) {
+                            throw pe;
+                        }
+                        collector.failed(idByFuture.get(future).intValue(), pe);
+                    }
+                    operation.progressed(1);
+                }
+            } catch (ProtocolException pe) {
+                workerOperation.setCanceled(true);
+                throw pe;
+            } catch (IOException ioe) {
+                workerOperation.setCanceled(true);
+                throw ioe;
+            } finally {
+                executor.shutdownNow();
+            }
+        } finally {
+            operation.done();
+        }
+    }
+
     /**
      * Create a new issue on the server.
      * 
@@ -509,7 +792,7 @@ public class Client implements Serializable {
     public int createIssue(final Issue issue, final Operation operation) throws IOException, ProtocolException {
         return doCall(new Call<Integer>() {
             public Integer call() throws IOException, HttpException, ProtocolException {
-                HttpMethod method = doCommand("ADD ISSUE " + issue.getFolder().getId() + " '" + Util.escape(issue.getName()) + "'");
+                Transport.Response method = doCommand("ADD ISSUE " + issue.getFolder().getId() + " '" + Util.escape(issue.getName()) + "'");
                 try {
                     List<String> response = readResponse(method.getResponseBodyAsStream()).iterator().next();
                     int id = Integer.parseInt(response.get(1));
@@ -523,44 +806,118 @@ public class Client implements Serializable {
     }
 
     /**
-     * Store the content of an attachment.
+     * Store the content of an attachment. The stream is read completely (and
+     * closed) before anything is sent, being spooled to a temporary file if it
+     * is large, so the upload can be safely repeated if the session has
+     * expired or the connection fails. See
+     * {@link #putAttachmentData(int, String, String, File, String, Operation)}
+     * to upload a file without copying it.
      * 
      * @param issueId issue to attach to
-     * @param attachment attachment
+     * @param name attachment name
+     * @param description attachment description
      * @param inputStream attachment data
+     * @param length length of attachment data. This is only a hint, the actual
+     *        length of the data is used
+     * @param contentType content type
      * @param operation operation call-back
+     * @return attachment ID
      * @throws HttpException on HTTP error
      * @throws IOException on any other IO error
      * @throws ProtocolException on error return by server or protocol problem
      */
-    public int putAttachmentData(final int issueId, final String name, final String description, final InputStream inputStream,
-                                 final long length, final String contentType, Operation operation) throws HttpException,
-                    IOException, ProtocolException {
-        return doCall(new Call<Integer>() {
-            public Integer call() throws HttpException, IOException, ProtocolException {
-                // TODO the value of 40 was determined through trial and error.
-                // check
-                // the exact restriction. If this is too long "invalid string"
-                // error is
-                // returned
-                String nname = name;
-                if (nname.length() > 40) {
-                    nname = nname.substring(0, 40);
-                }
-                nname = Util.escape(nname);
-                HttpMethod method = doCommand(new Part[] {
-                                new StringPart("command", "ADD ATTACHMENT " + issueId + " '" + Util.escape(nname) + "' '"
-                                                + Util.escape(description) + "'"),
-                                new FilePart("file", new AttachmentPartSource(inputStream, length)) {
-                                } });
+    public int putAttachmentData(int issueId, String name, String description, InputStream inputStream, long length,
+                                 String contentType, Operation operation) throws HttpException, IOException, ProtocolException {
+        UploadSource source = UploadSource.spool(inputStream);
+        try {
+            return putAttachmentData(issueId, name, description, source, operation);
+        } finally {
+            source.dispose();
+        }
+    }
+
+    /**
+     * Store the content of an attachment from a file. The file is read as it is
+     * sent, and read again if the upload must be repeated because the session
+     * has expired or the connection failed.
+     * 
+     * @param issueId issue to attach to
+     * @param name attachment name
+     * @param description attachment description
+     * @param file attachment data
+     * @param contentType content type
+     * @param operation operation call-back
+     * @return attachment ID
+     * @throws HttpException on HTTP error
+     * @throws IOException on any other IO error
+     * @throws ProtocolException on error return by server or protocol problem
+     */
+    public int putAttachmentData(int issueId, String name, String description, File file, String contentType,
+                                 Operation operation) throws HttpException, IOException, ProtocolException {
+        return putAttachmentData(issueId, name, description, UploadSource.fromFile(file), operation);
+    }
+
+    private int putAttachmentData(final int issueId, final String name, final String description, final UploadSource source,
+                                  final Operation operation) throws HttpException, IOException, ProtocolException {
+        final int size = (int) Math.min(Integer.MAX_VALUE, (source.getLength() + 1023) / 1024);
+        // The stream of the last attempt, to tell how much of it was sent
+        final ProgressInputStream[] sent = new ProgressInputStream[1];
+        operation.beginJob("Uploading attachment", size);
+        try {
+            for (int attempt = 1;; attempt++) {
                 try {
-                    List<String> response = readResponse(method.getResponseBodyAsStream()).iterator().next();
-                    return Integer.parseInt(response.get(1));
-                } finally {
-                    method.releaseConnection();
+                    return doCall(new Call<Integer>() {
+                        public Integer call() throws HttpException, IOException, ProtocolException {
+                            // TODO the value of 40 was determined through trial and error.
+                            // check
+                            // the exact restriction. If this is too long "invalid string"
+                            // error is
+                            // returned
+                            String nname = name;
+                            if (nname.length() > 40) {
+                                nname = nname.substring(0, 40);
+                            }
+                            nname = Util.escape(nname);
+                            issueChanged(issueId);
+                            ProgressInputStream in = new ProgressInputStream(source.open(), operation);
+                            sent[0] = in;
+                            try {
+                                Transport.Response method = doCommand(new Transport.Request("ADD ATTACHMENT " + issueId + " '"
+                                                + Util.escape(nname) + "' '" + Util.escape(description) + "'", in, source
+                                                .getLength()));
+                                try {
+                                    List<String> response = readResponse(method.getResponseBodyAsStream()).iterator().next();
+                                    return Integer.parseInt(response.get(1));
+                                } finally {
+                                    method.releaseConnection();
+                                }
+                            } catch (ProgressInputStream.CancelledException ce) {
+                                throw new ProtocolException(ProtocolException.CANCELLED);
+                            } finally {
+                                in.close();
+                            }
+                        }
+                    }, operation);
+                } catch (IOException ioe) {
+                    /*
+                     * The connection may have dropped part way through a long
+                     * upload, so try once more (after logging in again) as the
+                     * content can be read again. Once all of the content has
+                     * been sent the server may have added the attachment, and
+                     * an HTTP error means the server got the request, so
+                     * either way sending it again could add it twice or just
+                     * fail again.
+                     */
+                    if (attempt > 1 || operation.isCanceled() || ioe instanceof HttpException || sent[0] == null
+                                    || sent[0].getCount() >= source.getLength()) {
+                        throw ioe;
+                    }
+                    LOG.warn("Upload failed, retrying. " + ioe.getMessage());
                 }
             }
-        }, operation);
+        } finally {
+            operation.done();
+        }
     }
 
     /**
@@ -577,7 +934,7 @@ public class Client implements Serializable {
                     ProtocolException {
         return doCall(new Call<InputStream>() {
             public InputStream call() throws HttpException, IOException, ProtocolException {
-                final HttpMethod method = doCommand("GET ATTACHMENT " + attachmentId);
+                final Transport.Response method = doCommand("GET ATTACHMENT " + attachmentId);
                 return new java.io.FilterInputStream(method.getResponseBodyAsStream()) {
                     @Override
                     public void close() throws IOException {
@@ -597,10 +954,18 @@ public class Client implements Serializable {
 
     /**
      * Get all issues across all projects and folders changed since the provide
-     * time.
+     * time. If {@link #getMaxConcurrentRequests()} is greater than 1, the
+     * folders will be queried in parallel.
+     * <p>
+     * Only folders whose stamp has moved past the supplied stamp (or that have
+     * no stamp in the map) are queried, see
+     * {@link Projects#getChangedFolders(Map)}. The folder stamps are those of
+     * the last time the projects were reloaded, so reload them first to see
+     * the latest changes.
      * 
-     * @param stamp only retrieve uses with the supplied stamp or higher. Use
-     *        null to retrieve all issues for all folders
+     * @param stamps only retrieve uses with the supplied stamp or higher. Use
+     *        an empty map to retrieve all issues for all folders. Will be
+     *        updated with the current stamp of each folder
      * @param operation operation callback
      * @return list of issues
      * @throws HttpException on HTTP error
@@ -610,33 +975,173 @@ public class Client implements Serializable {
     public Collection<Issue> findIssues(Map<Folder, Long> stamps, Operation operation) throws ProtocolException, HttpException,
                     IOException {
         checkConnectedAndOnline(operation);
-        List<Issue> issues = new ArrayList<Issue>();
-        Projects projects = environment.getProjects();
-        int folders = 0;
-        for (Project project : projects.values()) {
-            folders += project.size();
+        List<Folder> folders = environment.getProjects().getChangedFolders(stamps);
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Finding issues in " + folders.size() + " changed folders");
         }
-        operation.beginJob("Finding issues", folders);
+        operation.beginJob("Finding issues", folders.size());
         try {
-            for (Project project : projects.values()) {
-                for (Folder folder : project.values()) {
-                    if (operation.isCanceled()) {
-                        throw new ProtocolException(ProtocolException.CANCELLED);
-                    }
-                    operation.setName("Looking in " + folder.getName());
-                    issues.addAll(folder.getIssues(operation,
-                        stamps.size() == 0 ? 0 : (stamps.containsKey(folder) ? stamps.get(folder) : 0)));
-                    stamps.put(folder, Long.valueOf(folder.getStamp()));
-                    operation.progressed(1);
+            if (folders.isEmpty()) {
+                return new ArrayList<Issue>();
+            }
+
+            // Read states are for all folders, so get them once for the oldest stamp
+            long oldestStamp = Long.MAX_VALUE;
+            for (Folder folder : folders) {
+                oldestStamp = Math.min(oldestStamp, getStamp(stamps, folder));
+            }
+            ReadStates states = getReadStates(oldestStamp, operation);
+
+            if (maxConcurrentRequests > 1 && folders.size() > 1) {
+                return findIssuesInParallel(folders, stamps, states, operation);
+            }
+            List<Issue> issues = new ArrayList<Issue>();
+            for (Folder folder : folders) {
+                if (operation.isCanceled()) {
+                    throw new ProtocolException(ProtocolException.CANCELLED);
                 }
+                operation.setName("Looking in " + folder.getName());
+                issues.addAll(folder.getIssues(operation, getStamp(stamps, folder), states));
+                stamps.put(folder, Long.valueOf(folder.getStamp()));
+                operation.progressed(1);
             }
+            return issues;
         } finally {
             operation.done();
         }
-        return issues;
     }
 
-    private void checkConnectedAndOnline(Operation operation) throws HttpException, IOException, ProtocolException {
+    private Collection<Issue> findIssuesInParallel(List<Folder> folders, Map<Folder, Long> stamps, final ReadStates states,
+                                                   final Operation operation) throws ProtocolException, HttpException,
+                    IOException {
+
+        /*
+         * Workers only get to see cancellation. Progress is reported from this
+         * thread, as Operation implementations are not required to be thread
+         * safe. For the same reason, the stamps map is only updated here.
+         */
+        final Operation workerOperation = new OperationAdapter() {
+            @Override
+            public boolean isCanceled() {
+                return super.isCanceled() || operation.isCanceled();
+            }
+        };
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(maxConcurrentRequests, folders.size()),
+            new WorkerThreadFactory("findIssues"));
+        try {
+            List<Future<Collection<Issue>>> results = new ArrayList<Future<Collection<Issue>>>();
+            for (final Folder folder : folders) {
+                final long stamp = getStamp(stamps, folder);
+                results.add(executor.submit(new Callable<Collection<Issue>>() {
+                    public Collection<Issue> call() throws Exception {
+                        if (workerOperation.isCanceled()) {
+                            throw new ProtocolException(ProtocolException.CANCELLED);
+                        }
+                        return folder.getIssues(workerOperation, stamp, states);
+                    }
+                }));
+            }
+
+            List<Issue> issues = new ArrayList<Issue>();
+            for (int i = 0; i < folders.size(); i++) {
+                Folder folder = folders.get(i);
+                operation.setName("Looking in " + folder.getName());
+                issues.addAll(waitFor(results.get(i), operation));
+                stamps.put(folder, Long.valueOf(folder.getStamp()));
+                operation.progressed(1);
+            }
+            return issues;
+        } catch (ProtocolException pe) {
+            workerOperation.setCanceled(true);
+            throw pe;
+        } catch (IOException ioe) {
+            workerOperation.setCanceled(true);
+            throw ioe;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Get the 'read' state of all issues changed since the provided stamp.
+     * The result may be passed to
+     * {@link Folder#getIssues(Operation, long, ReadStates)} to avoid
+     * retrieving the states again for every folder.
+     * 
+     * @param stamp only retrieve states for issues with the supplied stamp or
+     *        higher
+     * @param operation operation callback
+     * @return read states
+     * @throws HttpException on HTTP error
+     * @throws IOException on any other IO error
+     * @throws ProtocolException on error return by server or protocol problem
+     */
+    public ReadStates getReadStates(final long stamp, Operation operation) throws HttpException, IOException, ProtocolException {
+        return doCall(new Call<ReadStates>() {
+            public ReadStates call() throws HttpException, IOException, ProtocolException {
+                return ReadStates.retrieve(Client.this, stamp);
+            }
+        }, operation);
+    }
+
+    /**
+     * Bring read states up to date, only retrieving the states that have
+     * changed since they were retrieved. The states supplied are not changed.
+     * 
+     * @param previous states previously retrieved
+     * @param operation operation call-back
+     * @return states
+     * @throws HttpException on HTTP error
+     * @throws IOException on any other IO error
+     * @throws ProtocolException on error return by server or protocol problem
+     */
+    public ReadStates getReadStates(final ReadStates previous, Operation operation) throws HttpException, IOException,
+                    ProtocolException {
+        return doCall(new Call<ReadStates>() {
+            public ReadStates call() throws HttpException, IOException, ProtocolException {
+                return ReadStates.update(Client.this, previous);
+            }
+        }, operation);
+    }
+
+    private static long getStamp(Map<Folder, Long> stamps, Folder folder) {
+        return stamps.size() == 0 ? 0 : (stamps.containsKey(folder) ? stamps.get(folder) : 0);
+    }
+
+    /*
+     * Wait for the result of a worker, polling the operation for cancellation
+     * and unwrapping any exception thrown by the worker.
+     */
+    static <T> T waitFor(Future<T> future, Operation operation) throws ProtocolException, HttpException, IOException {
+        while (true) {
+            if (operation.isCanceled()) {
+                throw new ProtocolException(ProtocolException.CANCELLED);
+            }
+            try {
+                return future.get(250, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException te) {
+                // Check for cancel and wait again
+            } catch (InterruptedException ie) {
+                throw new ProtocolException(ProtocolException.CANCELLED);
+            } catch (ExecutionException ee) {
+                Throwable cause = ee.getCause();
+                if (cause instanceof ProtocolException) {
+                    throw (ProtocolException) cause;
+                } else if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                } else if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                } else if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                IOException ioe = new IOException(cause.getMessage());
+                ioe.initCause(cause);
+                throw ioe;
+            }
+        }
+    }
+
+    private synchronized void checkConnectedAndOnline(Operation operation) throws HttpException, IOException, ProtocolException {
         if (environment == null) {
             throw new IOException("Not connected");
         }
@@ -644,26 +1149,21 @@ public class Client implements Serializable {
             if (authenticator == null) {
                 throw new IllegalStateException("No authenticator set and the client needs to go online");
             }
-            if (httpClient == null) {
+            if (httpClient == null && (transport == null || transport instanceof HttpClientTransport)) {
                 throw new IllegalStateException("No HTTP client set and the client needs to go online");
             }
-            environment.goOnline(this, operation);
+            if (!resumeSession(operation)) {
+                environment.goOnline(this, operation);
+            }
+            loginCount++;
         }
     }
 
     protected static List<List<String>> readResponse(InputStream in) throws IOException, ProtocolException {
-        BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+        ResponseReader reader = new ResponseReader(in);
         List<List<String>> responses = new ArrayList<List<String>>();
-        String response = null;
-        while ((response = reader.readLine()) != null) {
-            LOG.debug(">" + response);
-            List<String> parsed = Util.parseLine(response);
-            if (responses.size() == 0 && parsed.size() > 0 && parsed.get(0).equals("ERROR")) {
-                throw new ProtocolException(Integer.parseInt(parsed.get(1)), parsed.get(2));
-            }
-            if (responses.size() != 0 || parsed.size() != 1 || !parsed.get(0).equals("NULL")) {
-                responses.add(parsed);
-            }
+        while (reader.nextRow()) {
+            responses.add(reader.toList());
         }
         return responses;
     }
@@ -674,26 +1174,41 @@ public class Client implements Serializable {
                 throw new ProtocolException(ProtocolException.CANCELLED);
             }
             checkConnectedAndOnline(operation);
+            int login = loginCount;
             try {
                 return call.call();
             } catch (ProtocolException pe) {
                 if (pe.getCode() != ProtocolException.LOGIN_REQUIRED) {
                     throw pe;
                 } else {
-                    // Force a login
-                    environment.goOffline();
+                    // The session has expired
+                    relogin(login, operation);
                 }
             }
         }
         return null;
     }
 
-    protected HttpMethod doCommand(String command) throws IOException, HttpException {
+    protected Transport.Response doCommand(String command) throws IOException, HttpException {
+        LOG.debug(command);
+        return doCommand(new Transport.Request(command));
+    }
+
+    protected Transport.Response doCommand(Transport.Request request) throws IOException, HttpException {
+        return doCommand(request, true);
+    }
+
+    /*
+     * Send a command without going offline if it fails, leaving that to the
+     * caller. For workers of a thread that holds the lock on this client, as
+     * going offline needs the lock.
+     */
+    Transport.Response sendCommand(String command) throws IOException, HttpException {
         LOG.debug(command);
-        return doCommand(new StringPart("command", command));
+        return doCommand(new Transport.Request(command), false);
     }
 
-    protected HttpMethod doCommand(Part... parts) throws IOException, HttpException {
+    private Transport.Response doCommand(Transport.Request request, boolean goOfflineOnError) throws IOException, HttpException {
         String urlText = url.toExternalForm();
 
         // Version 1
@@ -709,23 +1224,26 @@ public class Client implements Serializable {
             urlText += "/server/webissues/handler.php";
         }
 
-        PostMethod authpost = new PostMethod(urlText);
-        authpost.getParams().setParameter(CredentialsProvider.PROVIDER, credentialsProvider);
-        authpost.setRequestEntity(new MultipartRequestEntity(parts, authpost.getParams()));
+        if (compression) {
+            request.setHeader("Accept-Encoding", "gzip");
+        }
+
+        Transport.Response response = null;
         try {
-            int status = httpClient.executeMethod(authpost);
-            Header responseHeader = authpost.getResponseHeader("X-WebIssues-Version");
-            if (responseHeader == null) {
+            response = getTransport().execute(urlText, request);
+            if (response.getResponseHeader("X-WebIssues-Version") == null) {
                 /*
                  * If current major protocol version is automatic, then retry
                  * the command using protocol version 0.x. An attempt is made to
                  * switch back to the original version if there is an error
                  */
                 if (majorProtocolVersion == -1) {
+                    response.releaseConnection();
+                    response = null;
                     int oldProtocolVersion = majorProtocolVersion;
                     majorProtocolVersion = 0;
                     try {
-                        return doCommand(parts);
+                        return doCommand(request, goOfflineOnError);
                     } catch (IOException ioe) {
                         majorProtocolVersion = oldProtocolVersion;
                         throw ioe;
@@ -733,27 +1251,179 @@ public class Client implements Serializable {
                 }
                 throw new IOException("The URL " + urlText + " does not appear to be a WebIssues server. Is the URL correct?");
             }
+            int status = response.getStatusCode();
             if (status != 200) {
                 throw new HttpException("HTTP error " + status);
             }
         } catch (IOException ioe) {
-            if (environment.isOnline()) {
-                environment.goOffline();
+            if (goOfflineOnError && !(ioe instanceof ProgressInputStream.CancelledException)) {
+                goOffline();
+            }
+            if (response != null) {
+                response.releaseConnection();
             }
-            authpost.releaseConnection();
             throw ioe;
         }
-        return authpost;
+        return new DecodingResponse(response);
+    }
+
+    /*
+     * Counts the response bytes, and decompresses the response if the server
+     * compressed it
+     */
+    private class DecodingResponse implements Transport.Response {
+        private final Transport.Response response;
+
+        DecodingResponse(Transport.Response response) {
+            this.response = response;
+        }
+
+        public int getStatusCode() {
+            return response.getStatusCode();
+        }
+
+        public String getResponseHeader(String name) {
+            return response.getResponseHeader(name);
+        }
+
+        public InputStream getResponseBodyAsStream() throws IOException {
+            InputStream in = response.getResponseBodyAsStream();
+            if (in == null) {
+                return null;
+            }
+            in = new CountingInputStream(in, responseBytes);
+            if ("gzip".equalsIgnoreCase(response.getResponseHeader("Content-Encoding"))) {
+                in = new GZIPInputStream(in);
+            }
+            return new CountingInputStream(in, decodedResponseBytes);
+        }
+
+        public void releaseConnection() {
+            response.releaseConnection();
+        }
+    }
+
+    /*
+     * Called for each issue listed, so cached details of issues that have
+     * since changed are discarded
+     */
+    void issueSeen(Issue issue) {
+        IssueDetailsCache cache = issueDetailsCache;
+        if (cache != null) {
+            cache.noteStamp(issue);
+        }
+    }
+
+    /*
+     * Called before an issue is changed through this client
+     */
+    void issueChanged(int issueId) {
+        IssueDetailsCache cache = issueDetailsCache;
+        if (cache != null) {
+            cache.invalidate(issueId);
+        }
+    }
+
+    /*
+     * Called before part of the history of an issue is deleted through this
+     * client
+     */
+    void issueHistoryDeleted(int issueId) {
+        IssueDetailsCache cache = issueDetailsCache;
+        if (cache != null) {
+            cache.discard(issueId);
+        }
+    }
+
+    /*
+     * Log in again after the session has expired, keeping the environment.
+     * Nothing is done if another thread has logged in since the call was
+     * made. If logging in fails, go offline so the next call makes a full
+     * connection.
+     */
+    private synchronized void relogin(int login, Operation operation) throws HttpException, IOException, ProtocolException {
+        if (login != loginCount || !environment.isOnline()) {
+            return;
+        }
+        boolean loggedIn = false;
+        try {
+            environment.relogin(this, operation);
+            loginCount++;
+            loggedIn = true;
+        } finally {
+            if (!loggedIn) {
+                goOffline();
+            }
+        }
+    }
+
+    /*
+     * The first time a loaded back in client goes online, try the session it
+     * had when it was saved
+     */
+    private boolean resumeSession(Operation operation) throws HttpException, IOException, ProtocolException {
+        if (!resumable) {
+            return false;
+        }
+        resumable = false;
+        return environment.resume(this, operation);
+    }
+
+    /*
+     * Requests may be running on several threads, so more than one of them may
+     * decide the environment should go offline.
+     */
+    private synchronized void goOffline() {
+        if (environment.isOnline()) {
+            environment.goOffline();
+        }
     }
 
     private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
         in.defaultReadObject();
+        responseBytes = new AtomicLong();
+        decodedResponseBytes = new AtomicLong();
+        resumable = environment != null;
         newHttpClient();
     }
 
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        saveSessionCookies();
+        out.defaultWriteObject();
+    }
+
     private void newHttpClient() {
         httpClient = new HttpClient();
         httpClient.getParams().setCookiePolicy(CookiePolicy.RFC_2109);
+        restoreSessionCookies();
+    }
+
+    /*
+     * Only the cookies of an online client are saved, otherwise any saved
+     * before are kept, as the client may not have needed to go online since
+     * being loaded back in
+     */
+    private void saveSessionCookies() {
+        if (httpClient != null && environment != null && environment.isOnline()) {
+            sessionCookies = new ArrayList<SessionCookie>();
+            Cookie[] cookies = httpClient.getState().getCookies();
+            if (cookies != null) {
+                for (Cookie cookie : cookies) {
+                    sessionCookies.add(new SessionCookie(cookie));
+                }
+            }
+        }
+    }
+
+    private void restoreSessionCookies() {
+        if (httpClient != null && sessionCookies != null) {
+            Date now = new Date();
+            for (SessionCookie cookie : sessionCookies) {
+                if (cookie.expires == null || cookie.expires.after(now)) {
+                    httpClient.getState().addCookie(cookie.toCookie());
+                }
+            }
+        }
     }
 
     /*
@@ -782,27 +1452,51 @@ public class Client implements Serializable {
         }
     }
 
-    private final class AttachmentPartSource implements PartSource {
+    /*
+     * The parts of an HTTP cookie needed to send it again, as commons-httpclient
+     * cookies cannot be relied on to be serializable
+     */
+    private static final class SessionCookie implements Serializable {
+        private static final long serialVersionUID = 1L;
 
-        private final InputStream in;
-        private long length;
+        private final String domain;
+        private final String name;
+        private final String value;
+        private final String path;
+        private final Date expires;
+        private final boolean secure;
 
-        AttachmentPartSource(InputStream in, long length) {
-            this.in = in;
-            this.length = length;
+        SessionCookie(Cookie cookie) {
+            domain = cookie.getDomain();
+            name = cookie.getName();
+            value = cookie.getValue();
+            path = cookie.getPath();
+            expires = cookie.getExpiryDate();
+            secure = cookie.getSecure();
         }
 
-        public InputStream createInputStream() throws IOException {
-            return in;
+        Cookie toCookie() {
+            return new Cookie(domain, name, value, path, expires, secure);
         }
+    }
 
-        public String getFileName() {
-            return "file";
-        }
+    /*
+     * Creates daemon threads for the worker pools, so an abandoned operation
+     * can never prevent the JVM from exiting.
+     */
+    static final class WorkerThreadFactory implements ThreadFactory {
 
-        public long getLength() {
-            return length;
+        private final String name;
+        private final AtomicInteger count = new AtomicInteger();
+
+        WorkerThreadFactory(String name) {
+            this.name = name;
         }
 
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "WebIssues-" + name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
     }
 }
@@ -71,6 +71,7 @@ public class Comment extends AbstractChange implements Serializable {
         final Client client = getClient();
         client.doCall(new Call<Boolean>() {
             public Boolean call() throws HttpException, IOException, ProtocolException {
+                client.issueHistoryDeleted(getIssue().getId());
                 client.doCommand("DELETE COMMENT " + getId());
                 return true;
             }
@@ -89,6 +90,7 @@ public class Comment extends AbstractChange implements Serializable {
         final Client client = getClient();
         client.doCall(new Call<Boolean>() {
             public Boolean call() throws HttpException, IOException, ProtocolException {
+                client.issueChanged(getIssue().getId());
                 client.doCommand("EDIT COMMENT " + getId() + " '" + Util.escape(newText) + "'");
                 return true;
             }
@@ -8,10 +8,12 @@ import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
 
-import org.apache.commons.httpclient.Header;
 import org.apache.commons.httpclient.HttpException;
-import org.apache.commons.httpclient.HttpMethod;
 
 /**
  * Contains all (mostly) top level static data that is retrieved upon
@@ -150,7 +152,7 @@ public class Environment implements Serializable, IEnvironment {
         if (!online) {
             throw new IllegalStateException("Not online");
         }
-        doReload(operation);
+        loadLists(client, operation, false);
     }
 
     /* (non-Javadoc)
@@ -190,24 +192,24 @@ public class Environment implements Serializable, IEnvironment {
         if (online) {
             throw new IllegalStateException("Already online");
         }
-        operation.beginJob("Connection", 4);
+        operation.beginJob("Connection", 5);
         features.clear();
         try {
             // Hello
-            HttpMethod method = client.doCommand("HELLO");
+            long started = System.currentTimeMillis();
+            Transport.Response method = client.doCommand("HELLO");
             try {
-                Header responseHeader = method.getResponseHeader("X-WebIssues-Version");
-                if(responseHeader == null) {
+                version = method.getResponseHeader("X-WebIssues-Version");
+                if(version == null) {
                     throw new IOException();
                 }
-                version = responseHeader.getValue();
 
                 if (version.startsWith("0.")) {
                     // Version 0.X+
-                    server = method.getResponseHeader("X-WebIssues-Server").getValue();
+                    server = method.getResponseHeader("X-WebIssues-Server");
                 } else {
                     // Version 1.0+
-                    server = method.getResponseHeader("Server").getValue();
+                    server = method.getResponseHeader("Server");
                 }
                 List<String> row = client.readResponse(method.getResponseBodyAsStream()).iterator().next();
                 name = row.get(1);
@@ -216,6 +218,7 @@ public class Environment implements Serializable, IEnvironment {
                 operation.progressed(1);
                 method.releaseConnection();
             }
+            timed(operation, "HELLO", started);
 
             if (Util.compareVersions(version, Client.MIN_PROTOCOL_VERSION) < 0) {
                 synchronized (Client.LOG) {
@@ -244,109 +247,249 @@ public class Environment implements Serializable, IEnvironment {
             }
 
             // Login
-            operation.setName("Authenticating");
-            Authenticator.Credentials credentials = client.getAuthenticator().getCredentials(client.getUrl());
-            if (credentials == null) {
-                throw new ProtocolException(ProtocolException.AUTHENTICATION_CANCELLED);
+            started = System.currentTimeMillis();
+            login(client, operation);
+            operation.progressed(1);
+            timed(operation, "LOGIN", started);
+
+            // List features (version 0.X+ only, TODO does 1.0 have any kind of feature list?), types, projects and users
+            operation.setName("Getting types");
+            loadLists(client, operation, version.startsWith("0."));
+            online = true;
+        } finally {
+            operation.done();
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see org.webissues.api.IEnvironment#resume(org.webissues.api.Client, org.webissues.api.Operation)
+     */
+    public boolean resume(Client client, Operation operation) throws HttpException, IOException, ProtocolException {
+        if (online) {
+            throw new IllegalStateException("Already online");
+        }
+        if (version == null || userId == 0) {
+            return false;
+        }
+        operation.beginJob("Resuming session", 1);
+        try {
+            // Any command that needs a login will do, this one has a small response
+            Transport.Response method = client.doCommand("LIST PREFERENCES " + userId);
+            try {
+                client.readResponse(method.getResponseBodyAsStream());
+            } finally {
+                method.releaseConnection();
             }
-            String command = "LOGIN '" + Util.escape(credentials.getUsername()) + "' '"
-                            + Util.escape(new String(credentials.getPassword())) + "'";
+            online = true;
+            return true;
+        } catch (ProtocolException pe) {
+            Client.LOG.debug("Could not resume session, going online again. " + pe.getMessage());
+            return false;
+        } finally {
+            operation.progressed(1);
+            operation.done();
+        }
+    }
 
-            while (true) {
+    /* (non-Javadoc)
+     * @see org.webissues.api.IEnvironment#relogin(org.webissues.api.Client, org.webissues.api.Operation)
+     */
+    public void relogin(Client client, Operation operation) throws HttpException, IOException, ProtocolException {
+        if (!online) {
+            throw new IllegalStateException("Not online");
+        }
+        operation.beginJob("Logging in", 1);
+        try {
+            login(client, operation);
+        } finally {
+            operation.progressed(1);
+            operation.done();
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see org.webissues.api.IEnvironment#getMembersOf(org.webissues.api.Project)
+     */
+    public Collection<User> getMembersOf(Project project) {
+        return getUsers().getMembersOf(project);
+    }
+
+    public Client getClient() {
+        return client;
+    }
+
+    private void login(Client client, Operation operation) throws HttpException, IOException, ProtocolException {
+        operation.setName("Authenticating");
+        Authenticator.Credentials credentials = client.getAuthenticator().getCredentials(client.getUrl());
+        if (credentials == null) {
+            throw new ProtocolException(ProtocolException.AUTHENTICATION_CANCELLED);
+        }
+        String command = "LOGIN '" + Util.escape(credentials.getUsername()) + "' '"
+                        + Util.escape(new String(credentials.getPassword())) + "'";
+
+        while (true) {
+            try {
+                Transport.Response method = client.doCommand(command);
                 try {
-                    method = client.doCommand(command);
-                    try {
-                        List<String> row = client.readResponse(method.getResponseBodyAsStream()).iterator().next();
-                        userId = Integer.parseInt(row.get(1));
-                        if (version.startsWith("0.")) {
-                            // Version 0.X+
-                            access = Access.fromValue(Integer.parseInt(row.get(2)));
-                        } else {
-                            // Version 1.0+
-                            access = Access.fromValue(Integer.parseInt(row.get(3)));
-                        }
-                    } finally {
-                        operation.progressed(1);
-                        method.releaseConnection();
-                    }
-                    break;
-                } catch (ProtocolException pe) {
-                    if (pe.getCode() == ProtocolException.MUST_CHANGE_PASSWORD) {
-                        /* Version 1.0+ supports change password on logon. To support this the
-                         * caller must have set a PasswordChangeCallback
-                         */
-                        if (client.getPasswordChangeCallback() == null) {
-                            throw pe;
-                        }
-                        char[] newPassword = client.getPasswordChangeCallback().getNewPassword();
-                        if (newPassword == null) {
-                            throw pe;
-                        }
-                        command = "LOGIN NEW '" + Util.escape(credentials.getUsername()) + "' '"
-                                        + Util.escape(new String(credentials.getPassword())) + "' '"
-                                        + Util.escape(new String(newPassword)) + "'";
+                    List<String> row = client.readResponse(method.getResponseBodyAsStream()).iterator().next();
+                    userId = Integer.parseInt(row.get(1));
+                    if (version.startsWith("0.")) {
+                        // Version 0.X+
+                        access = Access.fromValue(Integer.parseInt(row.get(2)));
                     } else {
+                        // Version 1.0+
+                        access = Access.fromValue(Integer.parseInt(row.get(3)));
+                    }
+                } finally {
+                    method.releaseConnection();
+                }
+                break;
+            } catch (ProtocolException pe) {
+                if (pe.getCode() == ProtocolException.MUST_CHANGE_PASSWORD) {
+                    /* Version 1.0+ supports change password on logon. To support this the
+                     * caller must have set a PasswordChangeCallback
+                     */
+                    if (client.getPasswordChangeCallback() == null) {
                         throw pe;
                     }
+                    char[] newPassword = client.getPasswordChangeCallback().getNewPassword();
+                    if (newPassword == null) {
+                        throw pe;
+                    }
+                    command = "LOGIN NEW '" + Util.escape(credentials.getUsername()) + "' '"
+                                    + Util.escape(new String(credentials.getPassword())) + "' '"
+                                    + Util.escape(new String(newPassword)) + "'";
+                } else {
+                    throw pe;
                 }
             }
+        }
+    }
 
-            // List featureset(1));
-
-            if (version.startsWith("0.")) {
-                // Version 0.X+
-                operation.setName("Retrieving features");
-                method = client.doCommand("LIST FEATURES");
-                try {
-                    for (List<String> response : client.readResponse(method.getResponseBodyAsStream())) {
-                        if (response.get(0).equals("F")) {
-                            features.add(response.get(1));
-                        } else {
-                            Client.LOG.warn("Unexpected LIST FEATURES response \"" + response + "\"");
-                        }
-                    }
-                } finally {
-                    operation.progressed(1);
-                    method.releaseConnection();
+    /*
+     * Send the commands that list the features, types, projects and users, and
+     * load the responses. If the client allows concurrent requests, all of
+     * the commands are sent at once, and each response is loaded as soon as it
+     * and those it depends on have arrived, so loading overlaps waiting for
+     * the rest. Types must be loaded before projects, and projects before
+     * users.
+     */
+    private void loadLists(Client client, Operation operation, boolean listFeatures) throws HttpException, IOException,
+                    ProtocolException {
+        List<ListCommand> commands = new ArrayList<ListCommand>();
+        ListCommand featuresCommand = listFeatures ? new ListCommand(client, "LIST FEATURES") : null;
+        if (featuresCommand != null) {
+            commands.add(featuresCommand);
+        }
+        ListCommand typesCommand = new ListCommand(client, "LIST TYPES");
+        ListCommand projectsCommand = new ListCommand(client, "LIST PROJECTS");
+        ListCommand usersCommand = new ListCommand(client, "LIST USERS");
+        commands.add(typesCommand);
+        commands.add(projectsCommand);
+        commands.add(usersCommand);
+
+        int maxConcurrentRequests = client.getMaxConcurrentRequests();
+        ExecutorService executor = maxConcurrentRequests > 1 ? Executors.newFixedThreadPool(Math.min(maxConcurrentRequests,
+            commands.size()), new Client.WorkerThreadFactory("environment")) : null;
+        try {
+            if (executor != null) {
+                for (ListCommand command : commands) {
+                    command.send(executor);
                 }
             }
-            else {
-                // TODO does 1.0 have any kind of feature list?
+            if (featuresCommand != null) {
+                features.clear();
+                for (List<String> response : client.readResponse(featuresCommand.get(executor, operation).getBody())) {
+                    if (response.get(0).equals("F")) {
+                        features.add(response.get(1));
+                    } else {
+                        Client.LOG.warn("Unexpected LIST FEATURES response \"" + response + "\"");
+                    }
+                }
             }
 
-            operation.setName("Getting types");
-            try {
-                doReload(operation);
-            } finally {
-                operation.progressed(1);
+            long started = System.currentTimeMillis();
+            types.load(typesCommand.get(executor, operation), operation);
+            operation.progressed(1);
+            timed(operation, "Loading types", started);
+
+            started = System.currentTimeMillis();
+            projects.load(projectsCommand.get(executor, operation), operation);
+            operation.progressed(1);
+            timed(operation, "Loading projects", started);
+
+            started = System.currentTimeMillis();
+            users.load(usersCommand.get(executor, operation), operation);
+            operation.progressed(1);
+            timed(operation, "Loading users", started);
+        } catch (IOException ioe) {
+            // The commands do not go offline themselves, see ListCommand
+            if (online) {
+                goOffline();
             }
-            online = true;
+            throw ioe;
         } finally {
-            operation.done();
+            if (executor != null) {
+                executor.shutdownNow();
+            }
         }
     }
 
-    /* (non-Javadoc)
-     * @see org.webissues.api.IEnvironment#getMembersOf(org.webissues.api.Project)
+    /*
+     * Report how long a phase took, from the calling thread
      */
-    public Collection<User> getMembersOf(Project project) {
-        List<User> users = new ArrayList<User>();
-        for (User user : getUsers().values()) {
-            if (user.containsKey(project.getId())) {
-                users.add(user);
-            }
-        }
-        return users;
+    private static void timed(Operation operation, String phase, long started) {
+        report(operation, phase, System.currentTimeMillis() - started);
     }
 
-    public Client getClient() {
-        return client;
+    private static void report(Operation operation, String phase, long millis) {
+        if (Client.LOG.isDebugEnabled()) {
+            Client.LOG.debug(phase + " took " + millis + "ms");
+        }
+        if (operation instanceof TimedOperation) {
+            ((TimedOperation) operation).timed(phase, millis);
+        }
     }
 
-    private void doReload(Operation operation) throws HttpException, IOException, ProtocolException {
-        types.doReload(operation);
-        projects.doReload(operation);
-        users.doReload(operation);
+    /*
+     * One of the list commands, sent either by a worker or, if there are no
+     * workers, by the caller when its response is needed. When connecting, the
+     * caller holds the lock on the client while it waits for the workers, so
+     * they must not go offline on an error, which needs the same lock.
+     */
+    private static final class ListCommand implements Callable<ListResponse> {
+        private final Client client;
+        private final String command;
+        private final FutureTask<ListResponse> task = new FutureTask<ListResponse>(this);
+        // Set before the task completes, so visible to whoever gets the result
+        private long millis;
+
+        ListCommand(Client client, String command) {
+            this.client = client;
+            this.command = command;
+        }
+
+        public ListResponse call() throws Exception {
+            long started = System.currentTimeMillis();
+            try {
+                return ListResponse.read(client.sendCommand(command));
+            } finally {
+                millis = System.currentTimeMillis() - started;
+            }
+        }
+
+        void send(ExecutorService executor) {
+            executor.execute(task);
+        }
+
+        ListResponse get(ExecutorService executor, Operation operation) throws HttpException, IOException, ProtocolException {
+            if (executor == null) {
+                task.run();
+            }
+            ListResponse list = Client.waitFor(task, operation);
+            report(operation, command, millis);
+            return list;
+        }
     }
 
 }
\ No newline at end of file
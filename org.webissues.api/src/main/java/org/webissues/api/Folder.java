@@ -2,18 +2,21 @@ package org.webissues.api;
 
 import java.io.IOException;
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
-import java.util.List;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Set;
 
 import org.apache.commons.httpclient.HttpException;
-import org.apache.commons.httpclient.HttpMethod;
 
 /**
  * Each {@link Project} may contain many {@link Folder}s and is of a single
  * {@link IssueType}. All issues must belong to a folder, so this class provides this
- * {@link #getIssues(Operation, long)} method retrieve all issues in the folder.
+ * {@link #getIssues(Operation, long)} method retrieve all issues in the folder, and
+ * {@link #getIssues(Operation, long, ReadStates, ResultCollector)} to stream them.
  */
 public class Folder implements Serializable, Entity, NamedEntity {
 
@@ -22,7 +25,8 @@ public class Folder implements Serializable, Entity, NamedEntity {
     private int id;
     private String name;
     private IssueType type;
-    private int stamp;
+    // Updated in place when only the stamps in the project list change
+    private volatile int stamp;
     private final Client client;
     private final Project project;
 
@@ -102,28 +106,147 @@ public class Folder implements Serializable, Entity, NamedEntity {
      * @throws ProtocolException on any protocol error
      */
     public Collection<Issue> getIssues(Operation operation, final long stamp) throws HttpException, IOException, ProtocolException {
+        return getIssues(operation, stamp, null);
+    }
+
+    /**
+     * Get a list of all issues contained in this folder, optionally after a
+     * specified date / time, using read states that have already been
+     * retrieved. Use this when querying many folders at once so
+     * <code>LIST STATES</code> is only sent once.
+     * 
+     * @param operation
+     * @param stamp only collects issues that were last changed on or after the
+     *        supplied stamp.
+     * @param states read states, or <code>null</code> to retrieve them
+     * @return list of issues
+     * @throws HttpException on any HTTP error
+     * @throws IOException on any I/O error
+     * @throws ProtocolException on any protocol error
+     * @see Client#getReadStates(long, Operation)
+     */
+    public Collection<Issue> getIssues(Operation operation, final long stamp, final ReadStates states) throws HttpException,
+                    IOException, ProtocolException {
         return client.doCall(new Call<Collection<Issue>>() {
             public Collection<Issue> call() throws HttpException, IOException, ProtocolException {
-                Map<Integer, Issue> issues = new HashMap<Integer, Issue>();
-                HttpMethod method = client.doCommand("LIST ISSUES " + id + " " + stamp);
+                Collection<Issue> issues = readIssues(stamp);
+
+                // States
+                (states == null ? ReadStates.retrieve(client, stamp) : states).apply(issues);
+                return issues;
+            }
+        }, operation);
+    }
+
+    private Collection<Issue> readIssues(long stamp) throws HttpException, IOException, ProtocolException {
+        Map<Integer, Issue> issues = new HashMap<Integer, Issue>();
+        Transport.Response method = client.doCommand("LIST ISSUES " + id + " " + stamp);
+        try {
+            ResponseReader response = new ResponseReader(method.getResponseBodyAsStream());
+            while (response.nextRow()) {
+                if (response.isRow("V")) {
+                    int attributeId = response.intField(1);
+                    int issueId = response.intField(2);
+                    Issue issue = issues.get(issueId);
+                    if (issue == null) {
+                        throw new Error("Expected issue before attribute");
+                    }
+                    Attribute attribute = client.getEnvironment().getTypes().getAttribute(attributeId);
+                    issue.put(attribute, response.valueField(3, attribute));
+                } else if (response.isRow("I")) {
+                    Issue issue = Issue.createFromResponse(response, client.getEnvironment());
+                    client.issueSeen(issue);
+                    int folderId = response.intField(2);
+                    if (folderId != id) {
+                        throw new Error("Unexpected folderId");
+                    }
+                    issues.put(issue.getId(), issue);
+                } else if (response.isRow("F")) {
+                    // We already have this
+                } else {
+                    Client.LOG.warn("Unexpected issues response \"" + response + "\"");
+                }
+            }
+        } finally {
+            method.releaseConnection();
+        }
+        return issues.values();
+    }
+
+    /**
+     * Stream all issues contained in this folder, optionally after a specified
+     * date / time, to a {@link ResultCollector}. Each issue is passed to
+     * {@link ResultCollector#found(Issue)} as soon as all of its attribute
+     * values have been read, while the rest of the response is still being
+     * downloaded, so the caller does not have to wait for (or hold) the whole
+     * folder.
+     * <p>
+     * The server sends the values of an issue together, so an issue is
+     * considered complete when a row for a different issue (or the end of the
+     * response) arrives. If a value arrives for an issue that has already
+     * been collected, the rest of the response is dropped and the folder is
+     * listed again without streaming, and every issue in it is passed to the
+     * collector again with all of its values. So an issue passed again
+     * replaces the one passed before. The collector is invoked on the calling
+     * thread.
+     * 
+     * @param operation
+     * @param stamp only collects issues that were last changed on or after the
+     *        supplied stamp.
+     * @param states read states, or <code>null</code> to retrieve them
+     * @param collector collector to receive each issue
+     * @throws HttpException on any HTTP error
+     * @throws IOException on any I/O error
+     * @throws ProtocolException on any protocol error
+     * @see Client#getReadStates(long, Operation)
+     */
+    public void getIssues(Operation operation, final long stamp, final ReadStates states, final ResultCollector collector)
+                    throws HttpException, IOException, ProtocolException {
+        client.doCall(new Call<Boolean>() {
+            public Boolean call() throws HttpException, IOException, ProtocolException {
+                // States are needed before the first issue is delivered
+                ReadStates readStates = states == null ? ReadStates.retrieve(client, stamp) : states;
+                Map<Integer, Issue> pending = new LinkedHashMap<Integer, Issue>();
+                Set<Integer> delivered = new HashSet<Integer>();
+                Issue current = null;
+                boolean grouped = true;
+                Transport.Response method = client.doCommand("LIST ISSUES " + id + " " + stamp);
                 try {
-                    for (List<String> response : client.readResponse(method.getResponseBodyAsStream())) {
-                        if (response.get(0).equals("V")) {
-                            int attributeId = Integer.parseInt(response.get(1));
-                            int issueId = Integer.parseInt(response.get(2));
-                            Issue issue = issues.get(issueId);
-                            if (issue == null) {
-                                throw new Error("Expected issue before attribute");
+                    ResponseReader response = new ResponseReader(method.getResponseBodyAsStream());
+                    while (response.nextRow()) {
+                        if (response.isRow("V")) {
+                            int attributeId = response.intField(1);
+                            int issueId = response.intField(2);
+                            if (current == null || current.getId() != issueId) {
+                                if (current != null) {
+                                    deliver(current, pending, delivered, readStates, collector);
+                                }
+                                current = pending.get(issueId);
+                                if (current == null) {
+                                    if (delivered.contains(issueId)) {
+                                        Client.LOG.warn("Value for issue " + issueId + " arrived after it was collected \""
+                                                        + response + "\", listing the folder again");
+                                        grouped = false;
+                                        break;
+                                    }
+                                    throw new Error("Expected issue before attribute");
+                                }
+                            }
+                            Attribute attribute = client.getEnvironment().getTypes().getAttribute(attributeId);
+                            current.put(attribute, response.valueField(3, attribute));
+                        } else if (response.isRow("I")) {
+                            if (current != null) {
+                                deliver(current, pending, delivered, readStates, collector);
+                                current = null;
                             }
-                            issue.put(client.getEnvironment().getTypes().getAttribute(attributeId), response.get(3));
-                        } else if (response.get(0).equals("I")) {
                             Issue issue = Issue.createFromResponse(response, client.getEnvironment());
-                            int folderId = Integer.parseInt(response.get(2));
+                            client.issueSeen(issue);
+                            int folderId = response.intField(2);
                             if (folderId != id) {
                                 throw new Error("Unexpected folderId");
                             }
-                            issues.put(issue.getId(), issue);
-                        } else if (response.get(0).equals("F")) {
+                            pending.put(issue.getId(), issue);
+                        } else if (response.isRow("F")) {
                             // We already have this
                         } else {
                             Client.LOG.warn("Unexpected issues response \"" + response + "\"");
@@ -133,32 +256,34 @@ public class Folder implements Serializable, Entity, NamedEntity {
                     method.releaseConnection();
                 }
 
-                // States
-                if (!client.getEnvironment().getVersion().startsWith("0.")) {
-                    method = client.doCommand("LIST STATES " + stamp);
-                    try {
-                        for (List<String> response : client.readResponse(method.getResponseBodyAsStream())) {
-                            if (response.get(0).equals("S")) {
-                                int stateId = Integer.parseInt(response.get(1));
-                                int issueId = Integer.parseInt(response.get(2));
-                                long readId = Integer.parseInt(response.get(3));
-                                Issue issue = issues.get(issueId);
-                                if (issue != null) {
-                                    issue.setRead(readId != 0 && readId == issue.getStamp());
-                                }
-                            } else {
-                                Client.LOG.warn("Unexpected states response \"" + response + "\"");
-                            }
-                        }
-                    } finally {
-                        method.releaseConnection();
+                if (!grouped) {
+                    for (Issue issue : readIssues(stamp)) {
+                        readStates.apply(issue);
+                        collector.found(issue);
                     }
+                    return true;
+                }
+
+                // Whatever is left is complete now
+                if (current != null) {
+                    deliver(current, pending, delivered, readStates, collector);
+                }
+                for (Issue issue : new ArrayList<Issue>(pending.values())) {
+                    deliver(issue, pending, delivered, readStates, collector);
                 }
-                return issues.values();
+                return true;
             }
         }, operation);
     }
 
+    private static void deliver(Issue issue, Map<Integer, Issue> pending, Set<Integer> delivered, ReadStates states,
+                                ResultCollector collector) {
+        pending.remove(issue.getId());
+        delivered.add(issue.getId());
+        states.apply(issue);
+        collector.found(issue);
+    }
+
     public int getId() {
         return id;
     }
@@ -185,6 +310,10 @@ public class Folder implements Serializable, Entity, NamedEntity {
         return stamp;
     }
 
+    void setStamp(int stamp) {
+        this.stamp = stamp;
+    }
+
     @Override
     public boolean equals(Object obj) {
         if (this == obj)
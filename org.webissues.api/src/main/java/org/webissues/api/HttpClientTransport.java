@@ -0,0 +1,105 @@
+package org.webissues.api;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.HttpMethod;
+import org.apache.commons.httpclient.auth.CredentialsProvider;
+import org.apache.commons.httpclient.methods.PostMethod;
+import org.apache.commons.httpclient.methods.multipart.FilePart;
+import org.apache.commons.httpclient.methods.multipart.MultipartRequestEntity;
+import org.apache.commons.httpclient.methods.multipart.Part;
+import org.apache.commons.httpclient.methods.multipart.PartSource;
+import org.apache.commons.httpclient.methods.multipart.StringPart;
+
+/**
+ * The default {@link Transport}, which posts each command as a multipart form
+ * using the {@link org.apache.commons.httpclient.HttpClient} of the client.
+ */
+public class HttpClientTransport implements Transport {
+
+    private final Client client;
+
+    /**
+     * Constructor.
+     *
+     * @param client client whose HTTP client and credentials provider are used
+     */
+    public HttpClientTransport(Client client) {
+        this.client = client;
+    }
+
+    public Response execute(String url, Request request) throws IOException {
+        PostMethod post = new PostMethod(url);
+        post.getParams().setParameter(CredentialsProvider.PROVIDER, client.getCredentialsProvider());
+        for (Map.Entry<String, String> header : request.getHeaders().entrySet()) {
+            post.setRequestHeader(header.getKey(), header.getValue());
+        }
+        Part[] parts;
+        if (request.getFile() == null) {
+            parts = new Part[] { new StringPart("command", request.getCommand()) };
+        } else {
+            parts = new Part[] { new StringPart("command", request.getCommand()),
+                            new FilePart("file", new AttachmentPartSource(request.getFile(), request.getFileLength())) };
+        }
+        post.setRequestEntity(new MultipartRequestEntity(parts, post.getParams()));
+        try {
+            client.getHttpClient().executeMethod(post);
+        } catch (IOException ioe) {
+            post.releaseConnection();
+            throw ioe;
+        }
+        return new MethodResponse(post);
+    }
+
+    private static final class MethodResponse implements Response {
+        private final HttpMethod method;
+
+        MethodResponse(HttpMethod method) {
+            this.method = method;
+        }
+
+        public int getStatusCode() {
+            return method.getStatusCode();
+        }
+
+        public String getResponseHeader(String name) {
+            Header header = method.getResponseHeader(name);
+            return header == null ? null : header.getValue();
+        }
+
+        public InputStream getResponseBodyAsStream() throws IOException {
+            return method.getResponseBodyAsStream();
+        }
+
+        public void releaseConnection() {
+            method.releaseConnection();
+        }
+    }
+
+    private static final class AttachmentPartSource implements PartSource {
+
+        private final InputStream in;
+        private long length;
+
+        AttachmentPartSource(InputStream in, long length) {
+            this.in = in;
+            this.length = length;
+        }
+
+        public InputStream createInputStream() throws IOException {
+            return in;
+        }
+
+        public String getFileName() {
+            return "file";
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+    }
+}
@@ -131,6 +131,39 @@ public interface IEnvironment {
      */
     void goOnline(Client client, Operation operation) throws HttpException, IOException, ProtocolException;
 
+    /**
+     * Try to go online again using the session this environment had when it
+     * was last online, for example after being loaded back in from a
+     * serialized client. A single cheap command is sent to check the session
+     * is still valid, and if it is, the environment is used as it is, without
+     * saying hello, logging in or reloading.
+     * 
+     * @param client client
+     * @param operation operation callback
+     * @return <code>true</code> if the session was still valid and the
+     *         environment is now online, <code>false</code> if
+     *         {@link #goOnline(Client, Operation)} is needed
+     * @throws HttpException on any HTTP error
+     * @throws IOException on any I/O error
+     * @throws ProtocolException on any protocol error
+     */
+    boolean resume(Client client, Operation operation) throws HttpException, IOException, ProtocolException;
+
+    /**
+     * Log in again on a connection that is already online, for example
+     * because the session has expired. Only the <code>LOGIN</code> command is
+     * sent, the protocol version and all of the environment are kept. Changes
+     * to types, projects and users are picked up as usual by
+     * {@link #reload(Client, Operation)}.
+     * 
+     * @param client client
+     * @param operation operation callback
+     * @throws HttpException on any HTTP error
+     * @throws IOException on any I/O error
+     * @throws ProtocolException on any protocol error
+     */
+    void relogin(Client client, Operation operation) throws HttpException, IOException, ProtocolException;
+
     /**
      * Get a list of users that are a member of the provided project.
      * 
@@ -2,12 +2,18 @@ package org.webissues.api;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
 import java.util.Calendar;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
 
 import org.apache.commons.httpclient.HttpException;
-import org.apache.commons.httpclient.HttpMethod;
 
 /**
  * Represents the main body of an issue. This is made up of a small number of
@@ -16,19 +22,35 @@ import org.apache.commons.httpclient.HttpMethod;
  * 
  * For more issue details, such as changes and attachments, see
  * {@link IssueDetails}.
+ * <p>
+ * As many thousands of issues may be held at once, they are stored compactly.
+ * The values of the attributes of an issue type are held in an array indexed
+ * by a slot number the {@link IssueType} gives each attribute, and dates are
+ * held as milliseconds rather than {@link Calendar}s. The {@link Map} methods
+ * are a view of this. Unlike a {@link HashMap}, a <code>null</code> value is
+ * the same as no value.
  */
-public class Issue extends HashMap<Attribute, String> implements Entity, NamedEntity {
+public class Issue extends AbstractMap<Attribute, String> implements Entity, NamedEntity, Serializable {
 
     private static final long serialVersionUID = -7659698729892890054L;
 
+    private static final long NO_TIME = Long.MIN_VALUE;
+
     private int id;
     private String name;
-    private Calendar createdDate;
+    private long createdTime;
     private User createdUser;
-    private Calendar modifiedDate;
+    private long modifiedTime;
     private User modifiedUser;
     private Folder folder;
 
+    // The type whose slots are used for values, the values by slot, and the
+    // values of any other attributes
+    private IssueType valueType;
+    private String[] values;
+    private Map<Attribute, String> otherValues;
+    private transient Set<Map.Entry<Attribute, String>> entrySet;
+
     private long stamp;
 
     private boolean read;
@@ -43,7 +65,9 @@ public class Issue extends HashMap<Attribute, String> implements Entity, NamedEn
     public Issue(String name, User createdUser, Folder folder) {
         super();
         this.name = name;
+        this.createdTime = NO_TIME;
         this.createdUser = createdUser;
+        this.modifiedTime = NO_TIME;
         this.modifiedUser = createdUser;
         this.folder = folder;
     }
@@ -54,9 +78,9 @@ public class Issue extends HashMap<Attribute, String> implements Entity, NamedEn
         this.id = id;
         this.stamp = stamp;
         this.name = name;
-        this.createdDate = createdDate;
+        this.createdTime = toTime(createdDate);
         this.createdUser = createdUser;
-        this.modifiedDate = modifiedDate;
+        this.modifiedTime = toTime(modifiedDate);
         this.modifiedUser = modifiedUser;
         this.folder = folder;
     }
@@ -74,6 +98,19 @@ public class Issue extends HashMap<Attribute, String> implements Entity, NamedEn
             folderId));
     }
 
+    protected static Issue createFromResponse(ResponseReader response, IEnvironment environment) {
+        int issueId = response.intField(1);
+        int folderId = response.intField(2);
+        String issueName = response.stringField(3);
+        long stamp = response.longField(4);
+        Calendar created = Util.toCalendarFromSeconds(response.longField(5));
+        User createdBy = environment.getUsers().get(response.intField(6));
+        Calendar modified = Util.toCalendarFromSeconds(response.longField(7));
+        User modifiedBy = environment.getUsers().get(response.intField(8));
+        return new Issue(issueId, stamp, issueName, created, createdBy, modified, modifiedBy, environment.getProjects().getFolder(
+            folderId));
+    }
+
     /**
      * Store the content of an attachment.
      * 
@@ -102,7 +139,8 @@ public class Issue extends HashMap<Attribute, String> implements Entity, NamedEn
         final Client client = folder.getType().getTypes().getEnvironment().getClient();
         client.doCall(new Call<Object>() {
             public Object call() throws HttpException, IOException, ProtocolException {
-                HttpMethod method = client.doCommand("ADD COMMENT " + getId() + " '" + Util.escape(comment.getText()) + "'");
+                client.issueChanged(getId());
+                Transport.Response method = client.doCommand("ADD COMMENT " + getId() + " '" + Util.escape(comment.getText()) + "'");
                 try {
                     List<String> response = client.readResponse(method.getResponseBodyAsStream()).iterator().next();
                     comment.setId(Integer.parseInt(response.get(1)));
@@ -193,7 +231,7 @@ public class Issue extends HashMap<Attribute, String> implements Entity, NamedEn
      * @return date issue created
      */
     public Calendar getCreatedDate() {
-        return createdDate;
+        return toCalendar(createdTime);
     }
 
     /**
@@ -211,7 +249,7 @@ public class Issue extends HashMap<Attribute, String> implements Entity, NamedEn
      * @return date issue modified
      */
     public Calendar getModifiedDate() {
-        return modifiedDate;
+        return toCalendar(modifiedTime);
     }
 
     /**
@@ -225,8 +263,8 @@ public class Issue extends HashMap<Attribute, String> implements Entity, NamedEn
 
     @Override
     public String toString() {
-        return "Issue [id=" + id + ", name=" + name + ", stamp=" + stamp + ", folder=" + folder + ", createdDate=" + createdDate
-                        + ", createdUser=" + createdUser + ", modifiedDate=" + modifiedDate + ", modifiedUser=" + modifiedUser
+        return "Issue [id=" + id + ", name=" + name + ", stamp=" + stamp + ", folder=" + folder + ", createdDate=" + getCreatedDate()
+                        + ", createdUser=" + createdUser + ", modifiedDate=" + getModifiedDate() + ", modifiedUser=" + modifiedUser
                         + ", read=" + read + "]";
     }
 
@@ -288,4 +326,241 @@ public class Issue extends HashMap<Attribute, String> implements Entity, NamedEn
     protected void setId(int id) {
         this.id = id;        
     }
+
+    /**
+     * Get the time the issue was created without creating a calendar.
+     * 
+     * @return milliseconds since the epoch or {@link Long#MIN_VALUE} if not
+     *         known
+     */
+    long getCreatedTime() {
+        return createdTime;
+    }
+
+    /**
+     * Get the time the issue was modified without creating a calendar.
+     * 
+     * @return milliseconds since the epoch or {@link Long#MIN_VALUE} if not
+     *         known
+     */
+    long getModifiedTime() {
+        return modifiedTime;
+    }
+
+    @Override
+    public String get(Object key) {
+        int slot = getSlot(key);
+        if (slot >= 0) {
+            return values != null && slot < values.length ? values[slot] : null;
+        }
+        return otherValues == null ? null : otherValues.get(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return getSlot(key) >= 0 ? get(key) != null : otherValues != null && otherValues.containsKey(key);
+    }
+
+    @Override
+    public String put(Attribute attribute, String value) {
+        if (value == null) {
+            return remove(attribute);
+        }
+        if (valueType == null && attribute != null && attribute.getSlot() >= 0) {
+            valueType = attribute.getType();
+        }
+        int slot = getSlot(attribute);
+        if (slot < 0) {
+            if (otherValues == null) {
+                otherValues = new HashMap<Attribute, String>(4);
+            }
+            return otherValues.put(attribute, value);
+        }
+        if (values == null || slot >= values.length) {
+            String[] newValues = new String[Math.max(slot + 1, valueType.getSlotCount())];
+            if (values != null) {
+                System.arraycopy(values, 0, newValues, 0, values.length);
+            }
+            values = newValues;
+        }
+        String previous = values[slot];
+        values[slot] = value;
+        return previous;
+    }
+
+    @Override
+    public String remove(Object key) {
+        int slot = getSlot(key);
+        if (slot >= 0) {
+            if (values == null || slot >= values.length) {
+                return null;
+            }
+            String previous = values[slot];
+            values[slot] = null;
+            return previous;
+        }
+        return otherValues == null ? null : otherValues.remove(key);
+    }
+
+    @Override
+    public int size() {
+        int size = otherValues == null ? 0 : otherValues.size();
+        if (values != null) {
+            for (String value : values) {
+                if (value != null) {
+                    size++;
+                }
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public void clear() {
+        values = null;
+        otherValues = null;
+    }
+
+    @Override
+    public Set<Map.Entry<Attribute, String>> entrySet() {
+        if (entrySet == null) {
+            entrySet = new AbstractSet<Map.Entry<Attribute, String>>() {
+                @Override
+                public Iterator<Map.Entry<Attribute, String>> iterator() {
+                    return new EntryIterator();
+                }
+
+                @Override
+                public int size() {
+                    return Issue.this.size();
+                }
+            };
+        }
+        return entrySet;
+    }
+
+    private int getSlot(Object key) {
+        if (key instanceof Attribute) {
+            Attribute attribute = (Attribute) key;
+            if (attribute.getSlot() >= 0 && attribute.getType() == valueType) {
+                return attribute.getSlot();
+            }
+        }
+        return -1;
+    }
+
+    private static long toTime(Calendar calendar) {
+        return calendar == null ? NO_TIME : calendar.getTimeInMillis();
+    }
+
+    private static Calendar toCalendar(long time) {
+        if (time == NO_TIME) {
+            return null;
+        }
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(time);
+        return calendar;
+    }
+
+    /*
+     * Iterates over the slots that have values, then the other values
+     */
+    private class EntryIterator implements Iterator<Map.Entry<Attribute, String>> {
+        private int slot = -1;
+        private int lastSlot = -1;
+        private Iterator<Map.Entry<Attribute, String>> others;
+
+        EntryIterator() {
+            findNext();
+        }
+
+        public boolean hasNext() {
+            return hasNextSlot() || (otherValues != null && others().hasNext());
+        }
+
+        public Map.Entry<Attribute, String> next() {
+            if (hasNextSlot()) {
+                lastSlot = slot;
+                findNext();
+                return new SlotEntry(lastSlot);
+            }
+            if (otherValues == null) {
+                throw new NoSuchElementException();
+            }
+            lastSlot = -1;
+            return others().next();
+        }
+
+        public void remove() {
+            if (lastSlot >= 0) {
+                values[lastSlot] = null;
+                lastSlot = -1;
+            } else if (others != null) {
+                others.remove();
+            } else {
+                throw new IllegalStateException();
+            }
+        }
+
+        private boolean hasNextSlot() {
+            return values != null && slot < values.length;
+        }
+
+        private void findNext() {
+            do {
+                slot++;
+            } while (values != null && slot < values.length && values[slot] == null);
+        }
+
+        private Iterator<Map.Entry<Attribute, String>> others() {
+            if (others == null) {
+                others = otherValues.entrySet().iterator();
+            }
+            return others;
+        }
+    }
+
+    private class SlotEntry implements Map.Entry<Attribute, String> {
+        private final int slot;
+
+        SlotEntry(int slot) {
+            this.slot = slot;
+        }
+
+        public Attribute getKey() {
+            return valueType.getSlotAttribute(slot);
+        }
+
+        public String getValue() {
+            return values[slot];
+        }
+
+        public String setValue(String value) {
+            if (value == null) {
+                throw new IllegalArgumentException("Values may not be null");
+            }
+            String previous = values[slot];
+            values[slot] = value;
+            return previous;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Map.Entry<?, ?>)) {
+                return false;
+            }
+            Map.Entry<?, ?> other = (Map.Entry<?, ?>) obj;
+            return getKey().equals(other.getKey()) && getValue().equals(other.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return getKey().hashCode() ^ getValue().hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return getKey() + "=" + getValue();
+        }
+    }
 }
@@ -2,7 +2,10 @@ package org.webissues.api;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Contains all details about an issue including the {@link Issue} itself and
@@ -16,10 +19,15 @@ public class IssueDetails {
     private List<Attachment> attachments = new ArrayList<Attachment>();
     private Issue issue;
     private Client client;
+    // All history rows by ID (protocol 1.0+), that comments and attachments refer to
+    private Map<Integer, Change> changeMap;
+    // When the whole history was last retrieved, rather than the changes since
+    private long refreshed;
 
     IssueDetails(Client client, Issue issue) {
         this.issue = issue;
         this.client = client;
+        refreshed = System.currentTimeMillis();
     }
 
     /**
@@ -58,6 +66,68 @@ public class IssueDetails {
         return attachments;
     }
 
+    Map<Integer, Change> getChangeMap() {
+        return changeMap;
+    }
+
+    void setChangeMap(Map<Integer, Change> changeMap) {
+        this.changeMap = changeMap;
+    }
+
+    /**
+     * Get when the whole history of the issue was last retrieved. Details
+     * made by {@link #merge(IssueDetails)} keep the time of the details
+     * merged into.
+     * 
+     * @return time in milliseconds
+     */
+    long getRefreshed() {
+        return refreshed;
+    }
+
+    /**
+     * Combine these details with those retrieved for changes made since, to
+     * make new details. Comments, attachments and changes that appear in both
+     * (such as an edited comment) are taken from the newer details. Those only
+     * in these details are copied to belong to the newer issue, so neither
+     * object is modified.
+     * <p>
+     * The server only sends what has been added or changed since, so comments
+     * and attachments deleted since are still in the combined details.
+     * 
+     * @param newer details of changes made since
+     * @return combined details
+     */
+    IssueDetails merge(IssueDetails newer) {
+        IssueDetails merged = new IssueDetails(newer.client, newer.issue);
+        merged.refreshed = refreshed;
+        merged.comments.addAll(merge(comments, newer.comments, newer.issue));
+        merged.attachments.addAll(merge(attachments, newer.attachments, newer.issue));
+        merged.changes.addAll(merge(changes, newer.changes, newer.issue));
+        if (changeMap != null || newer.changeMap != null) {
+            merged.changeMap = new HashMap<Integer, Change>();
+            if (changeMap != null) {
+                merged.changeMap.putAll(changeMap);
+            }
+            if (newer.changeMap != null) {
+                merged.changeMap.putAll(newer.changeMap);
+            }
+        }
+        return merged;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T extends AbstractChange> Collection<T> merge(List<T> older, List<T> newer, Issue issue) {
+        Map<Integer, T> byId = new LinkedHashMap<Integer, T>();
+        for (T change : older) {
+            byId.put(change.getId(), (T) change.copy(issue));
+        }
+        for (T change : newer) {
+            byId.put(change.getId(), change);
+        }
+        return byId.values();
+    }
+
     @Override
     public String toString() {
         return "IssueDetails [attachments=" + attachments + ", changes=" + changes + ", comments=" + comments + ", issue=" + issue
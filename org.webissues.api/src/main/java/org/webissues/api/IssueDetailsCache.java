@@ -0,0 +1,223 @@
+package org.webissues.api;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the {@link IssueDetails} of recently used issues in memory, so that
+ * asking for the same issue again does not send <code>GET DETAILS</code> to
+ * the server. Set one on a client using
+ * {@link Client#setIssueDetailsCache(IssueDetailsCache)}.
+ * <p>
+ * Cached details are only used while they are up to date. Whenever issues are
+ * listed (for example by {@link Folder#getIssues(Operation, long, ReadStates)}
+ * ) the stamp of each is compared with that of its cached details, which are
+ * marked as out of date if the issue has changed since. Changes made through
+ * the client also mark the details of the issue changed as out of date. Out of
+ * date details are not returned by {@link #get(int)}, but are kept so that
+ * the client only needs to ask the server for the changes made since them.
+ * <p>
+ * The server does not report comments or attachments that have been deleted,
+ * so details brought up to date this way may still hold them. To limit how
+ * long they can do so, the whole history is asked for again once the details
+ * were last fully retrieved longer ago than the refresh interval (see
+ * {@link #setRefreshInterval(long)}).
+ * <p>
+ * The cache is bounded by the approximate memory used by the details rather
+ * than the number of issues, as an issue with a long history can be many times
+ * the size of a new one. When the limit is exceeded the least recently used
+ * details are discarded.
+ * <p>
+ * The same details object is returned to every caller, so it should be
+ * treated as read-only.
+ */
+public class IssueDetailsCache {
+
+    /**
+     * Default for {@link #setRefreshInterval(long)}, 30 minutes
+     */
+    public static final long DEFAULT_REFRESH_INTERVAL = 30 * 60 * 1000L;
+
+    private final long maxSize;
+    private long refreshInterval = DEFAULT_REFRESH_INTERVAL;
+    private final Map<Integer, Entry> entries = new HashMap<Integer, Entry>();
+    // The same entries in least recently used order
+    private final LinkedHashMap<Integer, Entry> lru = new LinkedHashMap<Integer, Entry>(16, 0.75f, true);
+    private long size;
+
+    /**
+     * Constructor.
+     *
+     * @param maxSize approximate maximum number of bytes of details to keep
+     */
+    public IssueDetailsCache(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Get the cached details of an issue.
+     *
+     * @param issueId issue ID
+     * @return details or <code>null</code> if not cached
+     */
+    public synchronized IssueDetails get(int issueId) {
+        Entry entry = lru.get(issueId);
+        return entry == null || entry.stale ? null : entry.details;
+    }
+
+    /**
+     * Set how long details may be brought up to date with only the changes
+     * made since them, before the whole history is retrieved again.
+     *
+     * @param refreshInterval interval in milliseconds
+     */
+    public synchronized void setRefreshInterval(long refreshInterval) {
+        this.refreshInterval = refreshInterval;
+    }
+
+    /**
+     * Get how long details may be brought up to date with only the changes
+     * made since them, before the whole history is retrieved again.
+     *
+     * @return interval in milliseconds
+     */
+    public synchronized long getRefreshInterval() {
+        return refreshInterval;
+    }
+
+    /*
+     * Get the cached details of an issue even if they are out of date, to
+     * bring up to date, unless they are due to be fully refreshed
+     */
+    synchronized IssueDetails getBase(int issueId) {
+        Entry entry = entries.get(issueId);
+        if (entry == null || System.currentTimeMillis() - entry.details.getRefreshed() >= refreshInterval) {
+            return null;
+        }
+        return entry.details;
+    }
+
+    /**
+     * Add the details of an issue, replacing any already cached.
+     *
+     * @param details details
+     */
+    public synchronized void put(IssueDetails details) {
+        int issueId = details.getIssue().getId();
+        remove(issueId);
+        Entry entry = new Entry(details, estimateSize(details));
+        if (entry.size > maxSize) {
+            return;
+        }
+        entries.put(issueId, entry);
+        lru.put(issueId, entry);
+        size += entry.size;
+        for (Iterator<Entry> it = lru.values().iterator(); size > maxSize && it.hasNext();) {
+            Entry eldest = it.next();
+            it.remove();
+            entries.remove(eldest.details.getIssue().getId());
+            size -= eldest.size;
+        }
+    }
+
+    /**
+     * Note the current stamp of an issue, as seen when listing issues. Any
+     * cached details older than this are marked as out of date.
+     *
+     * @param issue issue
+     */
+    public synchronized void noteStamp(Issue issue) {
+        Entry entry = entries.get(issue.getId());
+        if (entry != null && entry.details.getIssue().getStamp() < issue.getStamp()) {
+            entry.stale = true;
+        }
+    }
+
+    /**
+     * Mark the details of an issue as out of date, for example because it has
+     * been changed.
+     *
+     * @param issueId issue ID
+     */
+    public synchronized void invalidate(int issueId) {
+        Entry entry = entries.get(issueId);
+        if (entry != null) {
+            entry.stale = true;
+        }
+    }
+
+    /**
+     * Discard the details of an issue completely, for example because part of
+     * its history has been deleted, which cannot be seen by asking for the
+     * changes since.
+     *
+     * @param issueId issue ID
+     */
+    public synchronized void discard(int issueId) {
+        remove(issueId);
+    }
+
+    /**
+     * Discard all details.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        lru.clear();
+        size = 0;
+    }
+
+    /**
+     * Get the approximate number of bytes used by the cached details.
+     *
+     * @return size
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    private void remove(int issueId) {
+        Entry entry = entries.remove(issueId);
+        if (entry != null) {
+            lru.remove(issueId);
+            size -= entry.size;
+        }
+    }
+
+    /*
+     * A rough guess at the retained size, counting objects at a fixed size and
+     * strings at two bytes a character
+     */
+    static long estimateSize(IssueDetails details) {
+        long size = 256;
+        for (Map.Entry<Attribute, String> value : details.getIssue().entrySet()) {
+            size += 48 + sizeOf(value.getValue());
+        }
+        for (Comment comment : details.getComments()) {
+            size += 96 + sizeOf(comment.getText());
+        }
+        for (Attachment attachment : details.getAttachments()) {
+            size += 112 + sizeOf(attachment.getName()) + sizeOf(attachment.getDescription());
+        }
+        for (Change change : details.getChanges()) {
+            size += 96 + sizeOf(change.getOldValue()) + sizeOf(change.getNewValue());
+        }
+        return size;
+    }
+
+    private static long sizeOf(String text) {
+        return text == null ? 0 : 40 + 2 * text.length();
+    }
+
+    private static class Entry {
+        private final IssueDetails details;
+        private final long size;
+        private boolean stale;
+
+        Entry(IssueDetails details, long size) {
+            this.details = details;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package org.webissues.api;
+
+/**
+ * Receives the details of each issue as they are retrieved by
+ * {@link Client#getIssueDetails(java.util.Collection, IssueDetailsCollector, Operation)}
+ * . The methods are always invoked on the thread that made the call.
+ */
+public interface IssueDetailsCollector {
+
+    /**
+     * The details of an issue have been retrieved.
+     * 
+     * @param issueDetails issue details
+     */
+    void found(IssueDetails issueDetails);
+
+    /**
+     * The details of an issue could not be retrieved, for example because it
+     * has been deleted.
+     * 
+     * @param issueId issue ID
+     * @param exception error returned by the server
+     */
+    void failed(int issueId, ProtocolException exception);
+}
@@ -0,0 +1,365 @@
+package org.webissues.api;
+
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.webissues.api.Attribute.AttributeType;
+
+/**
+ * Filters issues client side using a list of {@link Condition}s, such as those
+ * of a {@link ViewDefinition}. All conditions must match for an issue to match.
+ * <p>
+ * The conditions are compiled once when the filter is constructed, so the
+ * condition values are lower-cased, split and parsed only once rather than for
+ * every issue tested. Date attributes are compared as the number of seconds
+ * since the epoch (the form used by {@link ViewDefinition}), and a value that
+ * cannot be compared as a number never matches a numeric condition.
+ */
+public class IssueFilter {
+
+    private final Predicate[] predicates;
+
+    /**
+     * Constructor.
+     *
+     * @param conditions conditions that must all match
+     */
+    public IssueFilter(Collection<Condition> conditions) {
+        List<Predicate> list = new ArrayList<Predicate>();
+        for (Condition condition : conditions) {
+            list.add(compile(condition));
+        }
+        predicates = list.toArray(new Predicate[list.size()]);
+    }
+
+    /**
+     * Get if an issue matches all of the conditions.
+     *
+     * @param issue issue
+     * @return matches
+     */
+    public boolean matches(Issue issue) {
+        for (Predicate predicate : predicates) {
+            if (!predicate.matches(issue)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Predicate compile(Condition condition) {
+        Value value = getValue(condition.getAttribute());
+        String conditionValue = Util.nonNull(condition.getValue());
+        switch (condition.getType()) {
+            case BEG:
+            case END:
+            case CON:
+            case EQ:
+            case NEQ:
+                return new TextPredicate(condition.getType(), value, conditionValue.toLowerCase());
+            case IN:
+                Set<String> values = new HashSet<String>();
+                for (String v : conditionValue.toLowerCase().split(":")) {
+                    values.add(v);
+                }
+                return new InPredicate(value, values);
+            default:
+                try {
+                    return new NumberPredicate(condition.getType(), value, value.toNumber(conditionValue));
+                } catch (NumberFormatException nfe) {
+                    Client.LOG.warn("Condition value \"" + conditionValue + "\" for " + condition.getAttribute()
+                                    + " is not a number, it will never match");
+                    return NEVER;
+                }
+        }
+    }
+
+    private static Value getValue(Attribute attribute) {
+        switch (attribute.getId()) {
+            case IssueType.PROJECT_ATTR_ID:
+                return new SharedValue() {
+                    String text(Issue issue) {
+                        return issue.getFolder().getProject().getName();
+                    }
+                };
+            case IssueType.FOLDER_ATTR_ID:
+                return new SharedValue() {
+                    String text(Issue issue) {
+                        return issue.getFolder().getName();
+                    }
+                };
+            case IssueType.NAME_ATTR_ID:
+                return new Value() {
+                    String text(Issue issue) {
+                        return issue.getName();
+                    }
+                };
+            case IssueType.CREATED_BY_ATTR_ID:
+                return new SharedValue() {
+                    String text(Issue issue) {
+                        return issue.getCreatedUser() == null ? null : issue.getCreatedUser().getLogin();
+                    }
+                };
+            case IssueType.MODIFIED_BY_ATTR_ID:
+                return new SharedValue() {
+                    String text(Issue issue) {
+                        return issue.getModifiedUser() == null ? null : issue.getModifiedUser().getLogin();
+                    }
+                };
+            case IssueType.CREATED_DATE_ATTR_ID:
+                return new TimeValue() {
+                    long time(Issue issue) {
+                        return issue.getCreatedTime();
+                    }
+                };
+            case IssueType.MODIFIED_DATE_ATTR_ID:
+                return new TimeValue() {
+                    long time(Issue issue) {
+                        return issue.getModifiedTime();
+                    }
+                };
+            default:
+                if (AttributeType.DATETIME.equals(attribute.getAttributeType())) {
+                    return new DateValue(attribute);
+                }
+                return new AttributeValue(attribute);
+        }
+    }
+
+    /*
+     * Extracts the value of one attribute from an issue
+     */
+    private static abstract class Value {
+        abstract String text(Issue issue);
+
+        double number(Issue issue) {
+            return toNumber(Util.nonNull(text(issue)));
+        }
+
+        double toNumber(String text) {
+            return Double.parseDouble(text);
+        }
+
+        /*
+         * Get if the same few strings are returned for many issues, rather
+         * than a different one for each
+         */
+        boolean isShared() {
+            return false;
+        }
+    }
+
+    /*
+     * Names of projects, folders and users, which are held once and shared by
+     * all their issues
+     */
+    private static abstract class SharedValue extends Value {
+        @Override
+        boolean isShared() {
+            return true;
+        }
+    }
+
+    private static class AttributeValue extends Value {
+        private final Attribute attribute;
+
+        AttributeValue(Attribute attribute) {
+            this.attribute = attribute;
+        }
+
+        String text(Issue issue) {
+            return issue.get(attribute);
+        }
+
+        /*
+         * Values of enumerations and users are always held in the attribute's
+         * dictionary. Others are only until it is full, and are often unique.
+         */
+        @Override
+        boolean isShared() {
+            return AttributeType.ENUM.equals(attribute.getAttributeType())
+                            || AttributeType.USER.equals(attribute.getAttributeType());
+        }
+    }
+
+    /*
+     * Custom date attributes are held as formatted strings, but compared as
+     * seconds
+     */
+    private static class DateValue extends AttributeValue {
+        private final DateFormat format;
+
+        DateValue(Attribute attribute) {
+            super(attribute);
+            format = new SimpleDateFormat(attribute.isDateOnly() ? Client.DATEONLY_FORMAT : Client.DATETIME_FORMAT);
+        }
+
+        @Override
+        double toNumber(String text) {
+            try {
+                return Double.parseDouble(text);
+            } catch (NumberFormatException nfe) {
+                try {
+                    synchronized (format) {
+                        return format.parse(text).getTime() / 1000;
+                    }
+                } catch (ParseException pe) {
+                    throw new NumberFormatException("Not a date \"" + text + "\"");
+                }
+            }
+        }
+    }
+
+    /*
+     * Built-in dates are compared without formatting them
+     */
+    private static abstract class TimeValue extends Value {
+        abstract long time(Issue issue);
+
+        String text(Issue issue) {
+            long time = time(issue);
+            return time == Long.MIN_VALUE ? null : String.valueOf(time / 1000);
+        }
+
+        @Override
+        double number(Issue issue) {
+            long time = time(issue);
+            if (time == Long.MIN_VALUE) {
+                throw new NumberFormatException("No date");
+            }
+            return time / 1000;
+        }
+    }
+
+    private static abstract class Predicate {
+        abstract boolean matches(Issue issue);
+    }
+
+    private static final Predicate NEVER = new Predicate() {
+        boolean matches(Issue issue) {
+            return false;
+        }
+    };
+
+    /*
+     * Some values are shared between issues (see ValueDictionary), so for
+     * those the results for recently seen values are remembered by identity,
+     * and reused without lower-casing or comparing the value again when the
+     * very same string turns up in another issue. Other values are tested
+     * every time, as remembering them would only add allocation. The results
+     * are immutable, so the cache needs no locking.
+     */
+    private static abstract class TextTest extends Predicate {
+        private static final int CACHE_SIZE = 32;
+
+        private final Value value;
+        private final Result[] cache;
+
+        TextTest(Value value) {
+            this.value = value;
+            cache = value.isShared() ? new Result[CACHE_SIZE] : null;
+        }
+
+        boolean matches(Issue issue) {
+            String text = value.text(issue);
+            if (cache == null) {
+                return test(Util.nonNull(text).toLowerCase());
+            }
+            int index = System.identityHashCode(text) & (CACHE_SIZE - 1);
+            Result result = cache[index];
+            if (result == null || result.text != text) {
+                result = new Result(text, test(Util.nonNull(text).toLowerCase()));
+                cache[index] = result;
+            }
+            return result.matches;
+        }
+
+        abstract boolean test(String text);
+    }
+
+    private static class Result {
+        private final String text;
+        private final boolean matches;
+
+        Result(String text, boolean matches) {
+            this.text = text;
+            this.matches = matches;
+        }
+    }
+
+    private static class TextPredicate extends TextTest {
+        private final ConditionType type;
+        private final String conditionValue;
+
+        TextPredicate(ConditionType type, Value value, String conditionValue) {
+            super(value);
+            this.type = type;
+            this.conditionValue = conditionValue;
+        }
+
+        boolean test(String text) {
+            switch (type) {
+                case BEG:
+                    return text.startsWith(conditionValue);
+                case END:
+                    return text.endsWith(conditionValue);
+                case CON:
+                    return text.contains(conditionValue);
+                case EQ:
+                    return text.equals(conditionValue);
+                default:
+                    return !text.equals(conditionValue);
+            }
+        }
+    }
+
+    private static class InPredicate extends TextTest {
+        private final Set<String> values;
+
+        InPredicate(Value value, Set<String> values) {
+            super(value);
+            this.values = values;
+        }
+
+        boolean test(String text) {
+            return values.contains(text);
+        }
+    }
+
+    private static class NumberPredicate extends Predicate {
+        private final ConditionType type;
+        private final Value value;
+        private final double conditionValue;
+
+        NumberPredicate(ConditionType type, Value value, double conditionValue) {
+            this.type = type;
+            this.value = value;
+            this.conditionValue = conditionValue;
+        }
+
+        boolean matches(Issue issue) {
+            double number;
+            try {
+                number = value.number(issue);
+            } catch (NumberFormatException nfe) {
+                return false;
+            }
+            switch (type) {
+                case GT:
+                    return number > conditionValue;
+                case GTE:
+                    return number >= conditionValue;
+                case LT:
+                    return number < conditionValue;
+                default:
+                    return number <= conditionValue;
+            }
+        }
+    }
+}
@@ -0,0 +1,432 @@
+package org.webissues.api;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.httpclient.HttpException;
+
+/**
+ * A local copy of the issues in some or all folders of a server, kept in a
+ * file so it survives restarts. Each folder is stored with the stamp it was
+ * last synchronized at, so {@link #synchronize(Folder, ReadStates, boolean, Operation)}
+ * only needs to ask the server for the issues that changed since then, and
+ * queries may then be answered using {@link #getIssues(Folder, ReadStates)}.
+ * <p>
+ * Issues are stored by the IDs of their folder, users and attributes rather
+ * than as objects, and are re-created against the current {@link IEnvironment}
+ * when they are retrieved. Values for attributes that no longer exist are
+ * dropped.
+ * <p>
+ * The server does not report issues that have been deleted, so a store should
+ * occasionally be fully refreshed (see
+ * {@link #synchronize(Folder, ReadStates, boolean, Operation)} and
+ * {@link #getRefreshed(Folder)}). Issues that
+ * have been moved are removed from their old folder as soon as they are seen
+ * in the new one.
+ */
+public class IssueStore {
+
+    private static final int VERSION = 1;
+
+    private final File file;
+    private final String key;
+    private final Map<Integer, FolderRecord> folders = new HashMap<Integer, FolderRecord>();
+    private final Map<Integer, Integer> folderByIssue = new HashMap<Integer, Integer>();
+    private boolean modified;
+
+    /**
+     * Constructor.
+     *
+     * @param file file to store issues in, or <code>null</code> to only keep
+     *        them in memory
+     * @param key identifies the server (e.g. its URL). If a stored file was
+     *        written for a different key it is ignored.
+     */
+    public IssueStore(File file, String key) {
+        this.file = file;
+        this.key = key;
+    }
+
+    /**
+     * Get the stamp a folder was last synchronized at.
+     *
+     * @param folder folder
+     * @return stamp or 0 if the folder has never been synchronized
+     */
+    public synchronized long getStamp(Folder folder) {
+        FolderRecord record = folders.get(folder.getId());
+        return record == null ? 0 : record.stamp;
+    }
+
+    /**
+     * Get when all issues of a folder were last retrieved (rather than just
+     * the changes).
+     *
+     * @param folder folder
+     * @return time in milliseconds or 0 if the folder has never been fully
+     *         retrieved
+     */
+    public synchronized long getRefreshed(Folder folder) {
+        FolderRecord record = folders.get(folder.getId());
+        return record == null ? 0 : record.refreshed;
+    }
+
+    /**
+     * Bring the local copy of a folder up to date. Only issues changed since
+     * the stored stamp are retrieved, unless <code>full</code> is set, in
+     * which case the whole folder is retrieved and replaces the stored copy
+     * (removing any issues that have been deleted on the server).
+     *
+     * @param folder folder
+     * @param states read states, or <code>null</code> to retrieve them
+     * @param full retrieve all issues rather than just the changes
+     * @param operation operation call-back
+     * @return number of issues retrieved
+     * @throws HttpException on any HTTP error
+     * @throws IOException on any I/O error
+     * @throws ProtocolException on any protocol error
+     */
+    public int synchronize(Folder folder, ReadStates states, boolean full, Operation operation) throws HttpException,
+                    IOException, ProtocolException {
+        long stamp = full ? 0 : getStamp(folder);
+        final List<Issue> changed = new ArrayList<Issue>();
+        folder.getIssues(operation, stamp, states, new ResultCollector() {
+            public void found(Issue issue) {
+                changed.add(issue);
+            }
+        });
+        update(folder, changed, stamp == 0);
+        return changed.size();
+    }
+
+    /**
+     * Merge issues retrieved from the server into the stored copy of a folder.
+     * The folder's stamp only moves on if the store held a complete copy of
+     * the folder (or <code>replace</code> is set).
+     *
+     * @param folder folder
+     * @param issues issues
+     * @param replace replace all stored issues of the folder rather than merge
+     */
+    public synchronized void update(Folder folder, Collection<? extends Issue> issues, boolean replace) {
+        FolderRecord record = folders.get(folder.getId());
+        // Changes alone do not make a complete copy of a folder not seen before
+        boolean complete = replace || record != null;
+        if (record == null) {
+            record = new FolderRecord(folder.getId());
+            folders.put(folder.getId(), record);
+        } else if (replace) {
+            for (Integer issueId : record.issues.keySet()) {
+                folderByIssue.remove(issueId);
+            }
+            record.issues.clear();
+            record.stamp = 0;
+        }
+        if (replace) {
+            record.refreshed = System.currentTimeMillis();
+        }
+        long stamp = Math.max(record.stamp, folder.getStamp());
+        for (Issue issue : issues) {
+            Integer previousFolder = folderByIssue.put(issue.getId(), folder.getId());
+            if (previousFolder != null && previousFolder.intValue() != folder.getId()) {
+                // Moved
+                FolderRecord previousRecord = folders.get(previousFolder);
+                if (previousRecord != null) {
+                    previousRecord.issues.remove(issue.getId());
+                }
+            }
+            record.issues.put(issue.getId(), new IssueRecord(issue));
+            stamp = Math.max(stamp, issue.getStamp());
+        }
+        if (complete) {
+            record.stamp = stamp;
+        }
+        modified = true;
+    }
+
+    /**
+     * Get the stored issues of a folder.
+     *
+     * @param folder folder
+     * @param states read states to apply, or <code>null</code>
+     * @return issues
+     */
+    public synchronized Collection<Issue> getIssues(Folder folder, ReadStates states) {
+        FolderRecord record = folders.get(folder.getId());
+        List<Issue> issues = new ArrayList<Issue>();
+        if (record != null) {
+            IEnvironment environment = folder.getProject().getProjects().getEnvironment();
+            for (IssueRecord issueRecord : record.issues.values()) {
+                Issue issue = issueRecord.toIssue(environment, folder);
+                if (states != null) {
+                    states.apply(issue);
+                }
+                issues.add(issue);
+            }
+        }
+        return issues;
+    }
+
+    /**
+     * Get some of the stored issues of a folder, for example those that were
+     * found to match a query last time. Issues that are no longer in the
+     * folder are ignored.
+     *
+     * @param folder folder
+     * @param issueIds IDs of issues to get
+     * @param states read states to apply, or <code>null</code>
+     * @return issues
+     */
+    public synchronized Collection<Issue> getIssues(Folder folder, int[] issueIds, ReadStates states) {
+        FolderRecord record = folders.get(folder.getId());
+        List<Issue> issues = new ArrayList<Issue>();
+        if (record != null) {
+            IEnvironment environment = folder.getProject().getProjects().getEnvironment();
+            for (int issueId : issueIds) {
+                IssueRecord issueRecord = record.issues.get(issueId);
+                if (issueRecord != null) {
+                    Issue issue = issueRecord.toIssue(environment, folder);
+                    if (states != null) {
+                        states.apply(issue);
+                    }
+                    issues.add(issue);
+                }
+            }
+        }
+        return issues;
+    }
+
+    /**
+     * Remove all stored issues.
+     */
+    public synchronized void clear() {
+        folders.clear();
+        folderByIssue.clear();
+        modified = true;
+    }
+
+    /**
+     * Get if the store has been changed since it was last loaded or saved.
+     *
+     * @return modified
+     */
+    public synchronized boolean isModified() {
+        return modified;
+    }
+
+    /**
+     * Load the stored issues from the file. If the file does not exist, was
+     * written by an incompatible version or for another server, the store
+     * will be empty.
+     *
+     * @throws IOException on any I/O error
+     */
+    public synchronized void load() throws IOException {
+        folders.clear();
+        folderByIssue.clear();
+        modified = false;
+        if (file == null || !file.exists()) {
+            return;
+        }
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != VERSION || !key.equals(readString(in))) {
+                Client.LOG.info("Ignoring issue store " + file + " as it is for another version or server");
+                return;
+            }
+            int folderCount = in.readInt();
+            for (int i = 0; i < folderCount; i++) {
+                FolderRecord record = new FolderRecord(in.readInt());
+                record.stamp = in.readLong();
+                record.refreshed = in.readLong();
+                int issueCount = in.readInt();
+                for (int j = 0; j < issueCount; j++) {
+                    IssueRecord issueRecord = new IssueRecord(in);
+                    record.issues.put(issueRecord.id, issueRecord);
+                    folderByIssue.put(issueRecord.id, record.folderId);
+                }
+                folders.put(record.folderId, record);
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Save the stored issues to the file. The file is replaced only once it
+     * has been completely written.
+     *
+     * @throws IOException on any I/O error
+     */
+    public synchronized void save() throws IOException {
+        if (file == null) {
+            modified = false;
+            return;
+        }
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (dir != null && !dir.exists() && !dir.mkdirs()) {
+            throw new IOException("Could not create directory " + dir);
+        }
+        File tmpFile = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+        try {
+            out.writeInt(VERSION);
+            writeString(out, key);
+            out.writeInt(folders.size());
+            for (FolderRecord record : folders.values()) {
+                out.writeInt(record.folderId);
+                out.writeLong(record.stamp);
+                out.writeLong(record.refreshed);
+                out.writeInt(record.issues.size());
+                for (IssueRecord issueRecord : record.issues.values()) {
+                    issueRecord.write(out);
+                }
+            }
+        } finally {
+            out.close();
+        }
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Could not replace " + file);
+        }
+        if (!tmpFile.renameTo(file)) {
+            throw new IOException("Could not rename " + tmpFile + " to " + file);
+        }
+        modified = false;
+    }
+
+    /**
+     * Delete the file the issues are stored in.
+     */
+    public synchronized void delete() {
+        clear();
+        if (file != null) {
+            file.delete();
+        }
+        modified = false;
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length == -1) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    private static void writeString(DataOutputStream out, String string) throws IOException {
+        // DataOutput.writeUTF() is limited to 64K, which text attributes may exceed
+        if (string == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] bytes = string.getBytes("UTF-8");
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static long toSeconds(Calendar calendar) {
+        return calendar == null ? 0 : calendar.getTimeInMillis() / 1000;
+    }
+
+    private static class FolderRecord {
+        private final int folderId;
+        private long stamp;
+        private long refreshed;
+        private final Map<Integer, IssueRecord> issues = new HashMap<Integer, IssueRecord>();
+
+        FolderRecord(int folderId) {
+            this.folderId = folderId;
+        }
+    }
+
+    private static class IssueRecord {
+        private final int id;
+        private final long stamp;
+        private final String name;
+        private final long created;
+        private final int createdBy;
+        private final long modified;
+        private final int modifiedBy;
+        private final int[] attributeIds;
+        private final String[] values;
+
+        IssueRecord(Issue issue) {
+            id = issue.getId();
+            stamp = issue.getStamp();
+            name = issue.getName();
+            created = toSeconds(issue.getCreatedDate());
+            createdBy = issue.getCreatedUser() == null ? -1 : issue.getCreatedUser().getId();
+            modified = toSeconds(issue.getModifiedDate());
+            modifiedBy = issue.getModifiedUser() == null ? -1 : issue.getModifiedUser().getId();
+            int count = issue.containsKey(null) ? issue.size() - 1 : issue.size();
+            attributeIds = new int[count];
+            values = new String[count];
+            int i = 0;
+            for (Map.Entry<Attribute, String> entry : issue.entrySet()) {
+                // Values of unknown attributes are stored against null
+                if (entry.getKey() != null) {
+                    attributeIds[i] = entry.getKey().getId();
+                    values[i++] = entry.getValue();
+                }
+            }
+        }
+
+        IssueRecord(DataInputStream in) throws IOException {
+            id = in.readInt();
+            stamp = in.readLong();
+            name = readString(in);
+            created = in.readLong();
+            createdBy = in.readInt();
+            modified = in.readLong();
+            modifiedBy = in.readInt();
+            int count = in.readInt();
+            attributeIds = new int[count];
+            values = new String[count];
+            for (int i = 0; i < count; i++) {
+                attributeIds[i] = in.readInt();
+                values[i] = readString(in);
+            }
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeInt(id);
+            out.writeLong(stamp);
+            writeString(out, name);
+            out.writeLong(created);
+            out.writeInt(createdBy);
+            out.writeLong(modified);
+            out.writeInt(modifiedBy);
+            out.writeInt(attributeIds.length);
+            for (int i = 0; i < attributeIds.length; i++) {
+                out.writeInt(attributeIds[i]);
+                writeString(out, values[i]);
+            }
+        }
+
+        Issue toIssue(IEnvironment environment, Folder folder) {
+            Issue issue = new Issue(id, stamp, name, Util.toCalendarFromSeconds(created), environment.getUsers().get(createdBy),
+                            Util.toCalendarFromSeconds(modified), environment.getUsers().get(modifiedBy), folder);
+            for (int i = 0; i < attributeIds.length; i++) {
+                Attribute attribute = environment.getTypes().getAttribute(attributeIds[i]);
+                if (attribute != null) {
+                    issue.put(attribute, attribute.getValueDictionary().intern(values[i]));
+                }
+            }
+            return issue;
+        }
+    }
+}
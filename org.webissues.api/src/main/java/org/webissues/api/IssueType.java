@@ -9,7 +9,6 @@ import java.util.List;
 
 
 import org.apache.commons.httpclient.HttpException;
-import org.apache.commons.httpclient.HttpMethod;
 import org.webissues.api.Attribute.AttributeType;
 
 public class IssueType extends HashMap<Integer, Attribute> implements Serializable, NamedEntity {
@@ -20,6 +19,9 @@ public class IssueType extends HashMap<Integer, Attribute> implements Serializab
     private final IssueTypes types;
     private Views views;
     private ViewDefinition defaultViewDefinition;
+    // Attributes that have a slot in the values of an issue, by slot. Not
+    // saved, as slots are given out again when first needed after loading
+    private transient List<Attribute> slots = new ArrayList<Attribute>();
 
     public final static int PROJECT_ATTR_ID = 2147482645;
     public final static int FOLDER_ATTR_ID = 2147482646; 
@@ -58,8 +60,76 @@ public class IssueType extends HashMap<Integer, Attribute> implements Serializab
         addAttribute(new Attribute(this, MODIFIED_BY_ATTR_ID, "Modified By", AttributeType.USER, true));
     }
     
+    /**
+     * Add an attribute without notifying {@link IssueTypes}. Attributes of
+     * this type that are not built in are also given a slot, so that issues
+     * can hold their values in an array rather than a map.
+     */
+    @Override
+    public Attribute put(Integer attributeId, Attribute attr) {
+        Attribute previous = super.put(attributeId, attr);
+        synchronized (this) {
+            if (slots != null) {
+                giveSlot(attr);
+            }
+        }
+        return previous;
+    }
+
     public void addAttribute(Attribute attr) {
         put(attr.getId(), attr);
+        types.attributeAdded(attr);
+    }
+
+    /**
+     * Remove an attribute from this type.
+     * 
+     * @param attr attribute to remove
+     */
+    public void removeAttribute(Attribute attr) {
+        if (remove(attr.getId()) != null) {
+            types.attributeRemoved(attr);
+        }
+    }
+
+    /**
+     * Get the number of slots given out by {@link #put(Integer, Attribute)}.
+     * 
+     * @return slots
+     */
+    synchronized int getSlotCount() {
+        return getSlots().size();
+    }
+
+    /**
+     * Get the attribute that was given a slot.
+     * 
+     * @param slot slot
+     * @return attribute
+     */
+    synchronized Attribute getSlotAttribute(int slot) {
+        return getSlots().get(slot);
+    }
+
+    /*
+     * Slots are not saved, so after being loaded back in they are given out
+     * again to the attributes this type has
+     */
+    private List<Attribute> getSlots() {
+        if (slots == null) {
+            slots = new ArrayList<Attribute>();
+            for (Attribute attr : values()) {
+                giveSlot(attr);
+            }
+        }
+        return slots;
+    }
+
+    private void giveSlot(Attribute attr) {
+        if (attr != null && attr.getType() == this && !attr.isBuiltIn() && !attr.hasSlot()) {
+            attr.setSlot(slots.size());
+            slots.add(attr);
+        }
     }
 
     @Override
@@ -96,12 +166,12 @@ public class IssueType extends HashMap<Integer, Attribute> implements Serializab
      */
     public Attribute createAttribute(String name, String definition) throws HttpException, IOException, ProtocolException {
         final Client client = getViews().getEnvironment().getClient();
-        HttpMethod method = client.doCommand("ADD ATTRIBUTE " + getId() + " '" + Util.escape(name) + "' '" + Util.escape(definition) + "'");
+        Transport.Response method = client.doCommand("ADD ATTRIBUTE " + getId() + " '" + Util.escape(name) + "' '" + Util.escape(definition) + "'");
         try {
             List<List<String>> response = client.readResponse(method.getResponseBodyAsStream());
             int id = Integer.parseInt(response.get(0).get(1));
             Attribute attr = new Attribute(this, id, name, definition, false);
-            put(id, attr);
+            addAttribute(attr);
             return attr;
         } finally {
             method.releaseConnection();
@@ -149,15 +219,7 @@ public class IssueType extends HashMap<Integer, Attribute> implements Serializab
      * @return list of folders that are of this type
      */
     public Collection<Folder> getFolders() {
-        List<Folder> l = new ArrayList<Folder>();
-        for(Project project : types.getEnvironment().getProjects().values()) {
-            for(Folder folder : project.values()) {
-                if(folder.getType().equals(this)) {
-                    l.add(folder);
-                }
-            }
-        }
-        return l;
+        return types.getEnvironment().getProjects().getFolders(this);
     }
     
     /**
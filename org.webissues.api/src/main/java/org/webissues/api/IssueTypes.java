@@ -10,12 +10,16 @@ import java.util.Map;
 import java.util.StringTokenizer;
 
 import org.apache.commons.httpclient.HttpException;
-import org.apache.commons.httpclient.HttpMethod;
 
 public class IssueTypes extends HashMap<Integer, IssueType> implements Serializable {
 
     private static final long serialVersionUID = 156091835846857151L;
     private final IEnvironment environment;
+    // Attributes of all types by ID. Replaced (never modified) on change, so it
+    // may be read without locking while issues are being parsed
+    private transient volatile Map<Integer, Attribute> attributeIndex;
+    // Digest of the last LIST TYPES response loaded
+    private byte[] listDigest;
 
     protected IssueTypes(IEnvironment environment) {
         super();
@@ -54,91 +58,163 @@ public class IssueTypes extends HashMap<Integer, IssueType> implements Serializa
     }
 
     protected void doReload(final Operation operation) throws HttpException, IOException, ProtocolException {
+        load(ListResponse.read(environment.getClient().doCommand("LIST TYPES")), operation);
+    }
+
+    /**
+     * Load the types from a <code>LIST TYPES</code> response, unless it is the
+     * same as the last one loaded.
+     * 
+     * @param list response
+     * @param operation operation call back
+     * @throws IOException on any I/O error
+     * @throws ProtocolException on any protocol error
+     */
+    void load(ListResponse list, Operation operation) throws IOException, ProtocolException {
         Client client = environment.getClient();
+        if (list.isUnchanged(listDigest)) {
+            return;
+        }
+
         Map<Integer, IssueType> typeMap = new HashMap<Integer, IssueType>();
-        for (int i = 0; i < 2; i++) {
-            HttpMethod method = client.doCommand("LIST TYPES");
-            try {
-                for (List<String> response : client.readResponse(method.getResponseBodyAsStream())) {
-                    if (operation.isCanceled()) {
-                        throw new ProtocolException(ProtocolException.CANCELLED);
+        // Settings and views refer to attributes, so are only read once all
+        // types and attributes are known
+        List<List<String>> typeRows = new ArrayList<List<String>>();
+        ResponseReader response = new ResponseReader(list.getBody());
+        while (response.nextRow()) {
+            if (operation.isCanceled()) {
+                throw new ProtocolException(ProtocolException.CANCELLED);
+            }
+            if (response.isRow("A")) {
+                int attributeId = response.intField(1);
+                int typeId = response.intField(2);
+                IssueType type = typeMap.get(typeId);
+                if (type == null) {
+                    throw new Error("Expected type before attribute");
+                }
+                type.put(attributeId, new Attribute(type, attributeId, response.stringField(3), response.stringField(4), false));
+            } else if (response.isRow("T")) {
+                int typeId = response.intField(1);
+                IssueType type = new IssueType(this, typeId, response.stringField(2));
+                typeMap.put(typeId, type);
+            } else if (response.isRow("S") || response.isRow("V")) {
+                typeRows.add(response.toList());
+            } else {
+                Client.LOG.warn("Unexpected LIST TYPES response \"" + response + "\"");
+            }
+        }
+        for (List<String> row : typeRows) {
+            if (row.get(0).equals("S")) {
+                IssueType type = typeMap.get(Integer.parseInt(row.get(1)));
+                if (row.get(2).equals("attribute_order")) {
+                    StringTokenizer t = new StringTokenizer(row.get(3), ",");
+                    int orderIndex = 1;
+                    while (t.hasMoreTokens()) {
+                        type.get(Integer.parseInt(t.nextToken())).setOrder(orderIndex++);
                     }
-                    if (response.get(0).equals("A")) {
-                        int attributeId = Integer.parseInt(response.get(1));
-                        int typeId = Integer.parseInt(response.get(2));
-                        IssueType type = typeMap.get(typeId);
-                        if (type == null) {
-                            throw new Error("Expected type before attribute");
-                        }
-                        type.put(attributeId, new Attribute(type, attributeId, response.get(3), response.get(4), false));
-                    } else if (response.get(0).equals("T")) {
-                        int typeId = Integer.parseInt(response.get(1));
-                        IssueType type = new IssueType(this, typeId, response.get(2));
-                        typeMap.put(typeId, type);
-                    } else if (response.get(0).equals("S")) {
-                        int typeId = Integer.parseInt(response.get(1));
-                        IssueType type = typeMap.get(typeId);
-                        String op = response.get(2);
-                        if(op.equals("attribute_order")) {
-                            StringTokenizer t = new StringTokenizer(response.get(3),",");
-                            int orderIndex = 1;
-                            while(t.hasMoreTokens()) {
-                                type.get(Integer.parseInt(t.nextToken())).setOrder(orderIndex++);
-                            }
-                        }
-                        else if(op.equals("default_view")) {
-                            try {
-                                type.setDefaultViewDefinition(new ViewDefinition(null, response.get(3), type));
-                            } catch (ParseException e) {
-                                throw new IOException("Failed to parse view definition. " + e.getMessage());
-                            }
-                        }
-                    } else if (response.get(0).equals("V")) {
-                        int viewId = Integer.parseInt(response.get(1));
-                        int typeId = Integer.parseInt(response.get(2));
-                        String viewName = response.get(3);
-                        String definition = response.get(4);
-                        boolean publicView = response.get(5).equals("1");
-                        IssueType type = typeMap.get(typeId);
-                        View view = new View(type, viewId, viewName);
-                        ViewDefinition def;
-                        try {
-                            def = new ViewDefinition(view, definition, type);
-                            view.setDefinition(def);
-                            view.setPublicView(publicView);
-                            type.getViews().add(view);
-                        } catch (ParseException e) {
-                            Client.LOG.error("Could not parse view definition '" + definition + "'.", e);
-                        }
-                    } else {
-                        Client.LOG.warn("Unexpected LIST TYPES response \"" + response + "\"");
+                } else if (row.get(2).equals("default_view")) {
+                    try {
+                        type.setDefaultViewDefinition(new ViewDefinition(null, row.get(3), type));
+                    } catch (ParseException e) {
+                        throw new IOException("Failed to parse view definition. " + e.getMessage());
                     }
                 }
-                clear();
-                for (IssueType type : typeMap.values()) {
-                    put(type.getId(), type);
+            } else {
+                int viewId = Integer.parseInt(row.get(1));
+                IssueType type = typeMap.get(Integer.parseInt(row.get(2)));
+                String definition = row.get(4);
+                View view = new View(type, viewId, row.get(3));
+                try {
+                    view.setDefinition(new ViewDefinition(view, definition, type));
+                    view.setPublicView(row.size() > 5 && row.get(5).equals("1"));
+                    type.getViews().add(view);
+                } catch (ParseException e) {
+                    Client.LOG.error("Could not parse view definition '" + definition + "'.", e);
                 }
-            } finally {
-                method.releaseConnection();
             }
         }
+        clear();
+        for (IssueType type : typeMap.values()) {
+            put(type.getId(), type);
+        }
+        reindex();
+        listDigest = list.getDigest();
+    }
 
+    @Override
+    public void clear() {
+        super.clear();
+        listDigest = null;
+        attributeIndex = null;
     }
 
     /**
      * Convenience to get an {@link Attribute} given its ID. All {@link IssueType}s
-     * contained in this list will be searched.
+     * contained in this list will be searched. This uses an index, so is cheap
+     * enough to call for every attribute value in a response.
      * 
      * @param attributeId attribute ID
      * @return attribute or <code>null</code> if no such attribute exists
      */
     public Attribute getAttribute(int attributeId) {
-        for (IssueType type : this.values()) {
-            if (type.containsKey(attributeId)) {
-                return type.get(attributeId);
+        Map<Integer, Attribute> index = attributeIndex;
+        if (index == null) {
+            index = reindex();
+        }
+        return index.get(attributeId);
+    }
+
+    @Override
+    public IssueType remove(Object key) {
+        IssueType type = super.remove(key);
+        if (type != null) {
+            reindex();
+        }
+        return type;
+    }
+
+    /**
+     * Rebuild the attribute index from all types in this list.
+     * 
+     * @return new index
+     */
+    synchronized Map<Integer, Attribute> reindex() {
+        Map<Integer, Attribute> index = new HashMap<Integer, Attribute>();
+        for (IssueType type : values()) {
+            for (Attribute attribute : type.values()) {
+                if (!index.containsKey(attribute.getId())) {
+                    index.put(attribute.getId(), attribute);
+                }
             }
         }
-        return null;
+        attributeIndex = index;
+        return index;
+    }
+
+    /**
+     * Called by {@link IssueType} when an attribute has been added to it.
+     * 
+     * @param attribute attribute added
+     */
+    synchronized void attributeAdded(Attribute attribute) {
+        Map<Integer, Attribute> index = attributeIndex;
+        if (index != null && get(attribute.getType().getId()) == attribute.getType() && !index.containsKey(attribute.getId())) {
+            index = new HashMap<Integer, Attribute>(index);
+            index.put(attribute.getId(), attribute);
+            attributeIndex = index;
+        }
+    }
+
+    /**
+     * Called by {@link IssueType} when an attribute has been removed from it.
+     * 
+     * @param attribute attribute removed
+     */
+    synchronized void attributeRemoved(Attribute attribute) {
+        if (attributeIndex != null && attributeIndex.get(attribute.getId()) == attribute) {
+            // Another type may have an attribute with the same ID (the built-in ones)
+            reindex();
+        }
     }
 
     @Override
@@ -0,0 +1,118 @@
+package org.webissues.api;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The whole of the response to one of the commands that list part of the
+ * environment (<code>LIST TYPES</code>, <code>LIST PROJECTS</code> and
+ * <code>LIST USERS</code>), read into memory along with a digest of it. The
+ * protocol has no stamps for these lists, so comparing the digest with that
+ * of the last response is how a reload tells if anything has changed, without
+ * parsing the response or replacing objects others hold references to.
+ */
+final class ListResponse {
+
+    private final byte[] data;
+    private final byte[] digest;
+
+    private ListResponse(byte[] data) {
+        this.data = data;
+        digest = newDigest().digest(data);
+    }
+
+    /**
+     * Read all of a response, which is released.
+     *
+     * @param response response
+     * @return list response
+     * @throws IOException on any I/O error
+     */
+    static ListResponse read(Transport.Response response) throws IOException {
+        try {
+            InputStream in = response.getResponseBodyAsStream();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            if (in != null) {
+                byte[] buf = new byte[8192];
+                int read;
+                while ((read = in.read(buf)) != -1) {
+                    out.write(buf, 0, read);
+                }
+            }
+            return new ListResponse(out.toByteArray());
+        } finally {
+            response.releaseConnection();
+        }
+    }
+
+    /**
+     * Get if this response is the same as a previous one.
+     *
+     * @param previousDigest digest of previous response, or <code>null</code>
+     *        if there is none
+     * @return unchanged
+     */
+    boolean isUnchanged(byte[] previousDigest) {
+        return previousDigest != null && Arrays.equals(digest, previousDigest);
+    }
+
+    /**
+     * Get the digest of this response, to compare the next one with.
+     *
+     * @return digest
+     */
+    byte[] getDigest() {
+        return digest;
+    }
+
+    /**
+     * Get a digest of this response that leaves out one field of one kind of
+     * row, for a field that changes far more often than the rest of the list
+     * (such as the stamps of folders).
+     *
+     * @param rowType type of row
+     * @param ignoredField index of field to leave out of rows of that type
+     * @return digest
+     * @throws IOException on any I/O error
+     * @throws ProtocolException on any protocol error
+     */
+    byte[] getDigest(String rowType, int ignoredField) throws IOException, ProtocolException {
+        MessageDigest digest = newDigest();
+        ResponseReader response = new ResponseReader(getBody());
+        while (response.nextRow()) {
+            boolean ignoring = response.isRow(rowType);
+            List<String> fields = response.toList();
+            for (int i = 0; i < fields.size(); i++) {
+                if (!ignoring || i != ignoredField) {
+                    digest.update(fields.get(i).getBytes("UTF-8"));
+                }
+                digest.update((byte) 0);
+            }
+            digest.update((byte) '\n');
+        }
+        return digest.digest();
+    }
+
+    /**
+     * Get a new stream over the body of this response.
+     *
+     * @return body
+     */
+    InputStream getBody() {
+        return new ByteArrayInputStream(data);
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException nsae) {
+            throw new Error(nsae);
+        }
+    }
+}
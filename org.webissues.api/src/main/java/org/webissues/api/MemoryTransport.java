@@ -0,0 +1,225 @@
+package org.webissues.api;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A {@link Transport} that answers commands from a script held in memory,
+ * acting as a fake WebIssues server. This allows the parsing and
+ * synchronization code to be tested, benchmarked or load tested without a
+ * network or a real server.
+ * <p>
+ * Responses are registered against a command, or the start of a command. For
+ * example a response for <code>LIST ISSUES</code> answers any
+ * <code>LIST ISSUES</code> command, but one for <code>LIST ISSUES 100</code>
+ * takes precedence for folder 100. Out of the box, enough is scripted for a
+ * client to log in (as user 1 with administrator access) to an empty server.
+ * A command with no response fails with an {@link IOException}.
+ * <p>
+ * Typical use is :-
+ *
+ * <pre>
+ * MemoryTransport server = new MemoryTransport();
+ * server.respond(&quot;LIST PROJECTS&quot;, &quot;P 1 'Project'\nF 100 1 'Bugs' 1 20&quot;);
+ * Client client = new Client(null);
+ * client.setTransport(server);
+ * client.setUrl(new URL(&quot;http://localhost/webissues&quot;));
+ * client.setAuthenticator(authenticator);
+ * client.connect(operation);
+ * </pre>
+ */
+public class MemoryTransport implements Transport {
+
+    /**
+     * Produces the response to a command, for responses that depend on more
+     * than the command text.
+     */
+    public interface Handler {
+
+        /**
+         * Respond to a command.
+         *
+         * @param request request
+         * @return response text, in the same format a server would send
+         * @throws IOException to simulate a failure
+         */
+        String respond(Request request) throws IOException;
+    }
+
+    private final String version;
+    private final Map<String, Handler> handlers = new HashMap<String, Handler>();
+    private final Map<String, Integer> statusCodes = new HashMap<String, Integer>();
+    private final List<String> commands = new ArrayList<String>();
+    private volatile boolean compression;
+
+    /**
+     * Constructor for a server using protocol version 1.0.
+     */
+    public MemoryTransport() {
+        this("1.0");
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param version protocol version to report
+     */
+    public MemoryTransport(String version) {
+        this.version = version;
+        respond("HELLO", "S 'Memory' '00000000-0000-0000-0000-000000000000'");
+        respond("LOGIN", version.startsWith("0.") ? "U 1 2" : "U 1 'admin' 2");
+        respond("LIST FEATURES", "NULL");
+        respond("LIST TYPES", "NULL");
+        respond("LIST PROJECTS", "NULL");
+        respond("LIST USERS", "NULL");
+        respond("LIST STATES", "NULL");
+        respond("LIST PREFERENCES", "NULL");
+    }
+
+    /**
+     * Set the response to a command, or to all commands starting with the
+     * supplied text.
+     *
+     * @param command command or start of command
+     * @param response response text, rows separated by new lines
+     */
+    public void respond(String command, final String response) {
+        respond(command, new Handler() {
+            public String respond(Request request) {
+                return response;
+            }
+        });
+    }
+
+    /**
+     * Set the handler for a command, or for all commands starting with the
+     * supplied text.
+     *
+     * @param command command or start of command
+     * @param handler handler
+     */
+    public void respond(String command, Handler handler) {
+        synchronized (handlers) {
+            handlers.put(command, handler);
+        }
+    }
+
+    /**
+     * Make a command, or all commands starting with the supplied text, fail
+     * with an HTTP status code, as an overloaded or misconfigured server
+     * would. The body is still produced by the command's response.
+     *
+     * @param command command or start of command
+     * @param statusCode HTTP status code
+     */
+    public void setStatusCode(String command, int statusCode) {
+        synchronized (handlers) {
+            statusCodes.put(command, statusCode);
+        }
+    }
+
+    /**
+     * Set whether responses are compressed when the client asks for
+     * compression, as a server configured to compress its output would.
+     *
+     * @param compression compress responses
+     */
+    public void setCompression(boolean compression) {
+        this.compression = compression;
+    }
+
+    /**
+     * Get all commands received so far, in the order received.
+     *
+     * @return commands
+     */
+    public List<String> getCommands() {
+        synchronized (commands) {
+            return new ArrayList<String>(commands);
+        }
+    }
+
+    /**
+     * Forget the commands received so far.
+     */
+    public void clearCommands() {
+        synchronized (commands) {
+            commands.clear();
+        }
+    }
+
+    public Response execute(String url, Request request) throws IOException {
+        String command = request.getCommand();
+        synchronized (commands) {
+            commands.add(command);
+        }
+        Handler handler;
+        Integer statusCode;
+        synchronized (handlers) {
+            handler = lookup(handlers, command);
+            statusCode = lookup(statusCodes, command);
+        }
+        final int status = statusCode == null ? 200 : statusCode.intValue();
+        if (handler == null) {
+            throw new IOException("No response scripted for \"" + command + "\"");
+        }
+        byte[] text = handler.respond(request).getBytes("UTF-8");
+        final boolean gzip = compression && Util.nonNull(request.getHeaders().get("Accept-Encoding")).contains("gzip");
+        if (gzip) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            GZIPOutputStream gout = new GZIPOutputStream(out);
+            gout.write(text);
+            gout.close();
+            text = out.toByteArray();
+        }
+        final byte[] body = text;
+        return new Response() {
+            public int getStatusCode() {
+                return status;
+            }
+
+            public String getResponseHeader(String name) {
+                if (name.equals("X-WebIssues-Version")) {
+                    return version;
+                } else if (name.equals(version.startsWith("0.") ? "X-WebIssues-Server" : "Server")) {
+                    return "WebIssues Memory";
+                } else if (name.equals("Content-Encoding") && gzip) {
+                    return "gzip";
+                }
+                return null;
+            }
+
+            public InputStream getResponseBodyAsStream() {
+                return new ByteArrayInputStream(body);
+            }
+
+            public void releaseConnection() {
+            }
+        };
+    }
+
+    /*
+     * The value for the longest matching command, matching only whole words
+     */
+    private static <T> T lookup(Map<String, T> map, String command) {
+        String match = command;
+        while (true) {
+            T value = map.get(match);
+            if (value != null) {
+                return value;
+            }
+            int idx = match.lastIndexOf(' ');
+            if (idx == -1) {
+                return null;
+            }
+            match = match.substring(0, idx);
+        }
+    }
+}
@@ -4,7 +4,7 @@ package org.webissues.api;
  * Adapter implementation of an {@link Operation}. Sub classes can
  * override the bits they need (if any).
  */
-public class OperationAdapter implements Operation {
+public class OperationAdapter implements TimedOperation {
 
     private boolean cancelled;
 
@@ -28,4 +28,7 @@ public class OperationAdapter implements Operation {
     public void setName(String name) {
     }
 
+    public void timed(String phase, long millis) {
+    }
+
 }
@@ -0,0 +1,92 @@
+package org.webissues.api;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+
+/**
+ * Reports each kilobyte read through it to an {@link Operation}, and stops
+ * with a {@link CancelledException} if the operation is cancelled.
+ */
+class ProgressInputStream extends FilterInputStream {
+
+    private final Operation operation;
+    private long count;
+
+    ProgressInputStream(InputStream in, Operation operation) {
+        super(in);
+        this.operation = operation;
+    }
+
+    @Override
+    public int read() throws IOException {
+        checkCancelled();
+        int b = super.read();
+        if (b != -1) {
+            progressed(1);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        checkCancelled();
+        int read = super.read(b, off, len);
+        if (read > 0) {
+            progressed(read);
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = super.skip(n);
+        if (skipped > 0) {
+            progressed(skipped);
+        }
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    private void checkCancelled() throws CancelledException {
+        if (operation.isCanceled()) {
+            throw new CancelledException();
+        }
+    }
+
+    /**
+     * Get the number of bytes read through this stream.
+     *
+     * @return bytes read
+     */
+    long getCount() {
+        return count;
+    }
+
+    private void progressed(long read) {
+        long before = count / 1024;
+        count += read;
+        int kilobytes = (int) (count / 1024 - before);
+        if (kilobytes > 0) {
+            operation.progressed(kilobytes);
+        }
+    }
+
+    /**
+     * Thrown when the operation is cancelled while the stream is being read.
+     * This is not a failure of the connection, so does not take the client
+     * offline.
+     */
+    static class CancelledException extends InterruptedIOException {
+        private static final long serialVersionUID = 1L;
+
+        CancelledException() {
+            super("Cancelled");
+        }
+    }
+}
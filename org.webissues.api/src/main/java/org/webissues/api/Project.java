@@ -64,6 +64,22 @@ public class Project extends NamedEntityMap<Folder> implements Serializable, Nam
         }, operation);
     }
 
+    @Override
+    public void add(Folder folder) {
+        super.add(folder);
+        if (projects != null) {
+            projects.foldersChanged();
+        }
+    }
+
+    @Override
+    public void remove(Folder folder) {
+        super.remove(folder);
+        if (projects != null) {
+            projects.foldersChanged();
+        }
+    }
+
     /**
      * Get the parent projects list.
      * 
@@ -2,12 +2,14 @@ package org.webissues.api;
 
 import java.io.IOException;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import org.apache.commons.httpclient.HttpException;
-import org.apache.commons.httpclient.HttpMethod;
 
 /**
  * Map of {@link Projects}s.
@@ -16,6 +18,12 @@ public class Projects extends NamedEntityMap<Project> implements Serializable {
 
     private static final long serialVersionUID = 1062522167070931646L;
     private final IEnvironment environment;
+    // Folders of all projects. Discarded whenever a project or folder is added
+    // or removed and rebuilt on next use, so it may be read without locking
+    private transient volatile FolderIndex folderIndex;
+    // Digest of the last LIST PROJECTS response loaded, without the folder
+    // stamps
+    private byte[] listDigest;
 
     protected Projects(IEnvironment environment) {
         super();
@@ -42,7 +50,7 @@ public class Projects extends NamedEntityMap<Project> implements Serializable {
      */
     public Project createProject(String name) throws HttpException, IOException, ProtocolException {
         final Client client = environment.getClient();
-        HttpMethod method = client.doCommand("ADD PROJECT '" + Util.escape(name) + "'");
+        Transport.Response method = client.doCommand("ADD PROJECT '" + Util.escape(name) + "'");
         try {
             List<List<String>> response = client.readResponse(method.getResponseBodyAsStream());
             int id = Integer.parseInt(response.get(0).get(1));
@@ -62,13 +70,93 @@ public class Projects extends NamedEntityMap<Project> implements Serializable {
      * @return folder or <code>null</code> if no such folder exists
      */
     public Folder getFolder(int folderId) {
+        return getFolderIndex().byId.get(folderId);
+    }
+
+    /**
+     * Get all folders across all projects that are of the given type.
+     * 
+     * @param type type
+     * @return list of folders that are of this type
+     */
+    public Collection<Folder> getFolders(IssueType type) {
+        List<Folder> folders = getFolderIndex().byType.get(type.getId());
+        return folders == null ? new ArrayList<Folder>() : new ArrayList<Folder>(folders);
+    }
+
+    /**
+     * Get the folders across all projects that may have changed since the
+     * supplied stamps were recorded. A folder is included if it has no stamp
+     * in the map (i.e. it is new), or if its current stamp is higher than the
+     * recorded one. An empty map means nothing is known, so all folders are
+     * returned.
+     * <p>
+     * The result is only as accurate as the folder stamps, which are updated
+     * when the projects are reloaded (see {@link #reload(Operation)}).
+     * 
+     * @param stamps the stamp of each folder when it was last queried
+     * @return folders that need to be queried
+     */
+    public List<Folder> getChangedFolders(Map<Folder, Long> stamps) {
+        List<Folder> folders = new ArrayList<Folder>();
         for (Project project : values()) {
-            Folder folder = project.get(folderId);
-            if (folder != null) {
-                return folder;
+            for (Folder folder : project.values()) {
+                Long stamp = stamps.get(folder);
+                if (stamp == null || folder.getStamp() > stamp.longValue()) {
+                    folders.add(folder);
+                }
             }
         }
-        return null;
+        return folders;
+    }
+
+    @Override
+    public void add(Project project) {
+        super.add(project);
+        foldersChanged();
+    }
+
+    @Override
+    public void remove(Project project) {
+        super.remove(project);
+        foldersChanged();
+    }
+
+    /**
+     * Get a digest of the <code>LIST PROJECTS</code> response the projects were
+     * last loaded from, leaving out the folder stamps. It changes whenever a
+     * project, folder or alert is added, removed or renamed on the server, so
+     * it may be used to tell if anything worked out from the projects is still
+     * current.
+     * 
+     * @return digest as hexadecimal or <code>null</code> if not loaded
+     */
+    public String getListDigest() {
+        byte[] digest = listDigest;
+        return digest == null ? null : Util.toHex(digest);
+    }
+
+    @Override
+    public void clear() {
+        super.clear();
+        listDigest = null;
+        foldersChanged();
+    }
+
+    /**
+     * Called by {@link Project} when a folder has been added or removed.
+     */
+    void foldersChanged() {
+        folderIndex = null;
+    }
+
+    private FolderIndex getFolderIndex() {
+        FolderIndex index = folderIndex;
+        if (index == null) {
+            index = new FolderIndex(values());
+            folderIndex = index;
+        }
+        return index;
     }
 
     /**
@@ -97,53 +185,128 @@ public class Projects extends NamedEntityMap<Project> implements Serializable {
     }
 
     protected void doReload(Operation operation) throws HttpException, IOException, ProtocolException {
+        load(ListResponse.read(environment.getClient().doCommand("LIST PROJECTS")), operation);
+    }
+
+    /**
+     * Load the projects from a <code>LIST PROJECTS</code> response, unless it is the
+     * same as the last one loaded. The folder stamps change whenever an issue
+     * does, so if nothing else has changed the stamps of the existing folders
+     * are updated instead.
+     * 
+     * @param list response
+     * @param operation operation call back
+     * @throws IOException on any I/O error
+     * @throws ProtocolException on any protocol error
+     */
+    void load(ListResponse list, Operation operation) throws IOException, ProtocolException {
         Client client = environment.getClient();
-        HttpMethod method = client.doCommand("LIST PROJECTS");
-        try {
-            Map<Integer, Project> projects = new HashMap<Integer, Project>();
-            Map<Integer, Folder> folders = new HashMap<Integer, Folder>();
-            for (List<String> response : client.readResponse(method.getResponseBodyAsStream())) {
-                if (response.get(0).equals("F")) {
-                    int projectId = Integer.parseInt(response.get(2));
-                    Project project = projects.get(projectId);
-                    if (project == null) {
-                        throw new Error("Expected project before folder");
-                    }
-                    int folderId = Integer.parseInt(response.get(1));
-                    IssueType type = client.getEnvironment().getTypes().get(Integer.parseInt(response.get(4)));
-                    Folder folder = new Folder(client, project, folderId, response.get(3), type, Integer.parseInt(response.get(5)));
-                    project.add(folder);
-                    folders.put(folderId, folder);
-                } else if (response.get(0).equals("P")) {
-                    int projectId = Integer.parseInt(response.get(1));
-                    projects.put(projectId, new Project(this, projectId, response.get(2)));
-                } else if (response.get(0).equals("A")) {
-                    int alertId = Integer.parseInt(response.get(1));
-                    int folderId = Integer.parseInt(response.get(2));
-                    int viewId = Integer.parseInt(response.get(3));
-                    boolean email= response.get(4).equals("1");
-                    Folder folder = folders.get(folderId);
-                    View view = folder.getType().getViews().get(viewId);
-                    Alert alert = new Alert(alertId, view, folder, email);
-                    view.add(alert);
-                } else {
-                    /*
-                     * 
+        byte[] digest = list.getDigest("F", 5);
+        if (listDigest != null && Arrays.equals(digest, listDigest) && isTypesCurrent()) {
+            updateStamps(list);
+            return;
+        }
+        Map<Integer, Project> projects = new HashMap<Integer, Project>();
+        Map<Integer, Folder> folders = new HashMap<Integer, Folder>();
+        List<Alert> alerts = new ArrayList<Alert>();
+        ResponseReader response = new ResponseReader(list.getBody());
+        while (response.nextRow()) {
+            if (response.isRow("F")) {
+                int projectId = response.intField(2);
+                Project project = projects.get(projectId);
+                if (project == null) {
+                    throw new Error("Expected project before folder");
+                }
+                int folderId = response.intField(1);
+                IssueType type = client.getEnvironment().getTypes().get(response.intField(4));
+                Folder folder = new Folder(client, project, folderId, response.stringField(3), type, response.intField(5));
+                project.add(folder);
+                folders.put(folderId, folder);
+            } else if (response.isRow("P")) {
+                int projectId = response.intField(1);
+                projects.put(projectId, new Project(this, projectId, response.stringField(2)));
+            } else if (response.isRow("A")) {
+                int alertId = response.intField(1);
+                int folderId = response.intField(2);
+                int viewId = response.intField(3);
+                boolean email = response.fieldEquals(4, "1");
+                Folder folder = folders.get(folderId);
+                View view = folder.getType().getViews().get(viewId);
+                alerts.add(new Alert(alertId, view, folder, email));
+            } else {
+                /*
+                 * 
         $query = 'SELECT alert_id, folder_id, view_id, alert_email'
             . ' FROM {alerts}'
             . ' WHERE user_id = %d';
 
-                     */
-                    Client.LOG.warn("Unexpected project list response \"" + response + "\"");
+                 */
+                Client.LOG.warn("Unexpected project list response \"" + response + "\"");
+            }
+        }
+        clear();
+        for (Project project : projects.values()) {
+            add(project);
+        }
+        // The types may have been kept, in which case their views still hold
+        // the alerts for the folders just replaced
+        for (IssueType type : client.getEnvironment().getTypes().values()) {
+            for (View view : type.getViews().values()) {
+                view.clear();
+            }
+        }
+        for (Alert alert : alerts) {
+            alert.getView().add(alert);
+        }
+        folderIndex = new FolderIndex(values());
+        listDigest = digest;
+    }
+
+    private void updateStamps(ListResponse list) throws IOException, ProtocolException {
+        ResponseReader response = new ResponseReader(list.getBody());
+        while (response.nextRow()) {
+            if (response.isRow("F")) {
+                Folder folder = getFolder(response.intField(1));
+                if (folder != null) {
+                    folder.setStamp(response.intField(5));
                 }
             }
-            clear();
-            for (Project project : projects.values()) {
-                add(project);
+        }
+    }
+
+    /*
+     * Get if the folders are of the types currently loaded, rather than ones
+     * since replaced by reloading the types
+     */
+    private boolean isTypesCurrent() {
+        IssueTypes types = environment.getTypes();
+        for (Folder folder : getFolderIndex().byId.values()) {
+            IssueType type = folder.getType();
+            if (type != null && types.get(type.getId()) != type) {
+                return false;
             }
-        } finally {
-            method.releaseConnection();
         }
+        return true;
+    }
 
+    private static class FolderIndex {
+        private final Map<Integer, Folder> byId = new HashMap<Integer, Folder>();
+        private final Map<Integer, List<Folder>> byType = new HashMap<Integer, List<Folder>>();
+
+        FolderIndex(Collection<Project> projects) {
+            for (Project project : projects) {
+                for (Folder folder : project.values()) {
+                    byId.put(folder.getId(), folder);
+                    if (folder.getType() != null) {
+                        List<Folder> folders = byType.get(folder.getType().getId());
+                        if (folders == null) {
+                            folders = new ArrayList<Folder>();
+                            byType.put(folder.getType().getId(), folders);
+                        }
+                        folders.add(folder);
+                    }
+                }
+            }
+        }
     }
 }
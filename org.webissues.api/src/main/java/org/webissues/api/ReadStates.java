@@ -0,0 +1,110 @@
+package org.webissues.api;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.httpclient.HttpException;
+
+/**
+ * The 'read' state of issues, as returned by the <code>LIST STATES</code>
+ * command (protocol version 1.0+). The command is not specific to a folder, so
+ * when querying many folders the states should be retrieved once using
+ * {@link Client#getReadStates(long, Operation)} and then passed to
+ * {@link Folder#getIssues(Operation, long, ReadStates)} for each folder.
+ * <p>
+ * Each state has a stamp that moves whenever it changes, so states already
+ * retrieved can be brought up to date by asking for only those changed since
+ * (see {@link Client#getReadStates(ReadStates, Operation)}).
+ * <p>
+ * Servers using protocol version 0.x do not support read states, in which case
+ * this object will be empty.
+ */
+public class ReadStates {
+
+    private final Map<Integer, Long> readIds;
+    private final long stamp;
+
+    private ReadStates(Map<Integer, Long> readIds, long stamp) {
+        this.readIds = readIds;
+        this.stamp = stamp;
+    }
+
+    /**
+     * Get the number of issues a read state is known for.
+     *
+     * @return number of issues
+     */
+    public int size() {
+        return readIds.size();
+    }
+
+    /**
+     * Get the highest stamp of the states, to ask for those changed since.
+     *
+     * @return stamp
+     */
+    public long getStamp() {
+        return stamp;
+    }
+
+    /**
+     * Set the 'read' state of an issue. The issue is read if the last stamp
+     * the user has seen is the current stamp of the issue.
+     *
+     * @param issue issue
+     */
+    public void apply(Issue issue) {
+        Long readId = readIds.get(issue.getId());
+        if (readId != null) {
+            issue.setRead(readId.longValue() != 0 && readId.longValue() == issue.getStamp());
+        }
+    }
+
+    /**
+     * Set the 'read' state of all the supplied issues.
+     *
+     * @param issues issues
+     */
+    public void apply(Collection<? extends Issue> issues) {
+        if (readIds.isEmpty()) {
+            return;
+        }
+        for (Issue issue : issues) {
+            apply(issue);
+        }
+    }
+
+    static ReadStates retrieve(Client client, long stamp) throws HttpException, IOException, ProtocolException {
+        return retrieve(client, stamp, new HashMap<Integer, Long>());
+    }
+
+    /*
+     * Add the states changed since these were retrieved to a copy of them
+     */
+    static ReadStates update(Client client, ReadStates previous) throws HttpException, IOException, ProtocolException {
+        return retrieve(client, previous.stamp, new HashMap<Integer, Long>(previous.readIds));
+    }
+
+    private static ReadStates retrieve(Client client, long stamp, Map<Integer, Long> readIds) throws HttpException,
+                    IOException, ProtocolException {
+        if (!client.getEnvironment().getVersion().startsWith("0.")) {
+            Transport.Response method = client.doCommand("LIST STATES " + stamp);
+            try {
+                ResponseReader response = new ResponseReader(method.getResponseBodyAsStream());
+                while (response.nextRow()) {
+                    if (response.isRow("S")) {
+                        stamp = Math.max(stamp, response.longField(1));
+                        readIds.put(response.intField(2), response.longField(3));
+                    } else {
+                        Client.LOG.warn("Unexpected states response \"" + response + "\"");
+                    }
+                }
+            } finally {
+                method.releaseConnection();
+            }
+        }
+        return new ReadStates(readIds, stamp);
+    }
+}
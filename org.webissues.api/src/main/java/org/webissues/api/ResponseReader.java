@@ -0,0 +1,371 @@
+package org.webissues.api;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the rows of a response from the WebIssues server one at a time,
+ * straight from the response stream. This is an alternative to
+ * {@link Client#readResponse(InputStream)} that does not keep the whole
+ * response in memory, and does not create any objects for fields that are not
+ * asked for. Numeric fields are parsed directly from the decoded characters.
+ * <p>
+ * Fields are split in exactly the same way as {@link Util#parseLine(String)}.
+ * Typical use is :-
+ *
+ * <pre>
+ * ResponseReader reader = new ResponseReader(method.getResponseBodyAsStream());
+ * while (reader.nextRow()) {
+ *     if (reader.isRow(&quot;V&quot;)) {
+ *         int attributeId = reader.intField(1);
+ *         String value = reader.stringField(3);
+ *     }
+ * }
+ * </pre>
+ *
+ * The values returned by the field methods are only valid until the next call
+ * to {@link #nextRow()}.
+ */
+public class ResponseReader {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final Reader reader;
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private int position;
+    private int limit;
+    private boolean endOfStream;
+    private boolean skipLineFeed;
+    private int rows;
+
+    private char[] line = new char[256];
+    private int lineLength;
+
+    private char[] fields = new char[256];
+    private int[] fieldStart = new int[16];
+    private int[] fieldEnd = new int[16];
+    private int fieldCount;
+
+    /**
+     * Constructor.
+     *
+     * @param in response stream. The response is expected to be UTF-8
+     *        encoded.
+     * @throws IOException if the stream cannot be read
+     */
+    public ResponseReader(InputStream in) throws IOException {
+        this.reader = new InputStreamReader(in, "UTF-8");
+    }
+
+    /**
+     * Move to the next row of the response. If the first row is an
+     * <code>ERROR</code> row, a {@link ProtocolException} will be thrown. A
+     * first row of just <code>NULL</code> is skipped.
+     *
+     * @return <code>false</code> if there are no more rows
+     * @throws IOException on any I/O error
+     * @throws ProtocolException if the server returned an error
+     */
+    public boolean nextRow() throws IOException, ProtocolException {
+        while (readLine()) {
+            split();
+            if (Client.LOG.isDebugEnabled()) {
+                Client.LOG.debug(">" + new String(line, 0, lineLength));
+            }
+            if (fieldCount == 0) {
+                continue;
+            }
+            if (rows == 0) {
+                if (isRow("ERROR")) {
+                    throw new ProtocolException(intField(1), fieldCount > 2 ? stringField(2) : null);
+                }
+                if (fieldCount == 1 && isRow("NULL")) {
+                    continue;
+                }
+            }
+            rows++;
+            return true;
+        }
+        fieldCount = 0;
+        return false;
+    }
+
+    /**
+     * Get the number of fields in the current row.
+     *
+     * @return number of fields
+     */
+    public int size() {
+        return fieldCount;
+    }
+
+    /**
+     * Get if the first field of the current row (the row type) is the
+     * supplied value.
+     *
+     * @param type row type
+     * @return row is of type
+     */
+    public boolean isRow(String type) {
+        return fieldEquals(0, type);
+    }
+
+    /**
+     * Get if a field of the current row is equal to the supplied value,
+     * without creating a string for the field.
+     *
+     * @param index field index
+     * @param value value to compare
+     * @return field is equal to value
+     */
+    public boolean fieldEquals(int index, String value) {
+        checkIndex(index);
+        int start = fieldStart[index];
+        int length = fieldEnd[index] - start;
+        if (length != value.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (fields[start + i] != value.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get a field of the current row as a string.
+     *
+     * @param index field index
+     * @return field value
+     */
+    public String stringField(int index) {
+        checkIndex(index);
+        return new String(fields, fieldStart[index], fieldEnd[index] - fieldStart[index]);
+    }
+
+    /**
+     * Get a field of the current row as the value of an attribute. Values
+     * that have been seen before are shared rather than creating a new string
+     * (see {@link Attribute#getValueDictionary()}).
+     *
+     * @param index field index
+     * @param attribute attribute, or <code>null</code> if it is not known
+     * @return field value
+     */
+    String valueField(int index, Attribute attribute) {
+        if (attribute == null) {
+            return stringField(index);
+        }
+        checkIndex(index);
+        return attribute.getValueDictionary().intern(fields, fieldStart[index], fieldEnd[index] - fieldStart[index]);
+    }
+
+    /**
+     * Get a field of the current row as an integer.
+     *
+     * @param index field index
+     * @return field value
+     * @throws NumberFormatException if the field is not an integer
+     */
+    public int intField(int index) {
+        long value = longField(index);
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            throw new NumberFormatException("For input string: \"" + stringField(index) + "\"");
+        }
+        return (int) value;
+    }
+
+    /**
+     * Get a field of the current row as a long.
+     *
+     * @param index field index
+     * @return field value
+     * @throws NumberFormatException if the field is not an integer
+     */
+    public long longField(int index) {
+        checkIndex(index);
+        int start = fieldStart[index];
+        int end = fieldEnd[index];
+        boolean negative = start < end && fields[start] == '-';
+        int i = negative ? start + 1 : start;
+        if (i == end || end - i > 18) {
+            // Empty, or possibly too big to accumulate safely
+            return Long.parseLong(stringField(index));
+        }
+        long value = 0;
+        for (; i < end; i++) {
+            int digit = fields[i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException("For input string: \"" + stringField(index) + "\"");
+            }
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Get all fields of the current row as a list of strings, in the same
+     * format as returned by {@link Client#readResponse(InputStream)}.
+     *
+     * @return fields
+     */
+    public List<String> toList() {
+        List<String> list = new ArrayList<String>(fieldCount);
+        for (int i = 0; i < fieldCount; i++) {
+            list.add(stringField(i));
+        }
+        return list;
+    }
+
+    /**
+     * Close the underlying stream.
+     *
+     * @throws IOException on any I/O error
+     */
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    @Override
+    public String toString() {
+        return toList().toString();
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= fieldCount) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + fieldCount);
+        }
+    }
+
+    /*
+     * Read the next line into the line buffer, treating \n, \r and \r\n as
+     * line terminators (as BufferedReader does).
+     */
+    private boolean readLine() throws IOException {
+        lineLength = 0;
+        boolean read = false;
+        while (true) {
+            if (position == limit) {
+                if (endOfStream || !fill()) {
+                    return read;
+                }
+            }
+            char ch = buffer[position++];
+            if (skipLineFeed) {
+                skipLineFeed = false;
+                if (ch == '\n') {
+                    continue;
+                }
+            }
+            read = true;
+            if (ch == '\n') {
+                return true;
+            } else if (ch == '\r') {
+                skipLineFeed = true;
+                return true;
+            }
+            if (lineLength == line.length) {
+                line = grow(line);
+            }
+            line[lineLength++] = ch;
+        }
+    }
+
+    private boolean fill() throws IOException {
+        int read;
+        do {
+            read = reader.read(buffer, 0, buffer.length);
+        } while (read == 0);
+        if (read == -1) {
+            endOfStream = true;
+            return false;
+        }
+        position = 0;
+        limit = read;
+        return true;
+    }
+
+    /*
+     * Split the current line into fields. This is the same state machine as
+     * Util.parseLine(), but writes the decoded fields into a reusable buffer.
+     */
+    private void split() {
+        if (fields.length < lineLength) {
+            fields = new char[Math.max(lineLength, fields.length * 2)];
+        }
+        fieldCount = 0;
+        int length = 0;
+        int start = 0;
+        boolean inQuote = false;
+        boolean escaped = false;
+        boolean inGroup = false;
+        boolean argExists = false;
+        for (int i = 0; i < lineLength; i++) {
+            char ch = line[i];
+            if (ch == ' ' && !inQuote && !escaped && !inGroup) {
+                addField(start, length);
+                start = length;
+            } else if (ch == '\\' && !escaped && !inGroup) {
+                escaped = true;
+            } else if (ch == '\'' && !escaped && !inGroup) {
+                inQuote = !inQuote;
+                argExists = true;
+            } else if (ch == 'n' && escaped) {
+                fields[length++] = '\n';
+                argExists = true;
+                escaped = false;
+            } else if (ch == '{' && !escaped && !inQuote && !inGroup) {
+                fields[length++] = ch;
+                argExists = true;
+                inGroup = true;
+            } else if (ch == '}' && !escaped && !inQuote && inGroup) {
+                fields[length++] = ch;
+                argExists = true;
+                inGroup = false;
+            } else {
+                fields[length++] = ch;
+                argExists = true;
+                escaped = false;
+            }
+        }
+        if (inQuote) {
+            throw new IllegalArgumentException("Unbalanced quotes in '" + new String(line, 0, lineLength) + "'");
+        }
+        if (inGroup) {
+            throw new IllegalArgumentException("Unbalanced braces in '" + new String(line, 0, lineLength) + "'");
+        }
+        if (escaped) {
+            throw new IllegalArgumentException("Incomplete escape sequence.");
+        }
+        if (argExists) {
+            addField(start, length);
+        }
+    }
+
+    private void addField(int start, int end) {
+        if (fieldCount == fieldStart.length) {
+            fieldStart = grow(fieldStart);
+            fieldEnd = grow(fieldEnd);
+        }
+        fieldStart[fieldCount] = start;
+        fieldEnd[fieldCount] = end;
+        fieldCount++;
+    }
+
+    private static char[] grow(char[] array) {
+        char[] newArray = new char[array.length * 2];
+        System.arraycopy(array, 0, newArray, 0, array.length);
+        return newArray;
+    }
+
+    private static int[] grow(int[] array) {
+        int[] newArray = new int[array.length * 2];
+        System.arraycopy(array, 0, newArray, 0, array.length);
+        return newArray;
+    }
+}
@@ -0,0 +1,19 @@
+package org.webissues.api;
+
+/**
+ * An {@link Operation} that also wants to know how long each phase of the
+ * operation took, for example each of the commands sent when connecting. This
+ * is for diagnosing where time is spent. Operations that do not implement
+ * this interface are not told.
+ */
+public interface TimedOperation extends Operation {
+
+    /**
+     * Report how long a phase of the operation took. It is called on the
+     * same thread as the other methods.
+     * 
+     * @param phase name of phase
+     * @param millis time taken in milliseconds
+     */
+    void timed(String phase, long millis);
+}
@@ -0,0 +1,148 @@
+package org.webissues.api;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Carries commands to a WebIssues server and brings back the responses. The
+ * default is {@link HttpClientTransport}, which posts the command using
+ * commons-httpclient. Another may be set using
+ * {@link Client#setTransport(Transport)}, for example
+ * {@link MemoryTransport} to run against a scripted server with no network.
+ * <p>
+ * Implementations must be thread safe if the client is used from more than
+ * one thread.
+ */
+public interface Transport {
+
+    /**
+     * Send a command to the server. The response status and headers must be
+     * available when this returns, but the body may be streamed.
+     *
+     * @param url URL of the server's command handler
+     * @param request request
+     * @return response, which must be released when done with
+     * @throws IOException on any error sending the command
+     */
+    Response execute(String url, Request request) throws IOException;
+
+    /**
+     * A command, and for commands that upload a file, the file content.
+     */
+    public static class Request {
+        private final String command;
+        private final InputStream file;
+        private final long fileLength;
+        private final Map<String, String> headers = new LinkedHashMap<String, String>();
+
+        /**
+         * Constructor.
+         *
+         * @param command command
+         */
+        public Request(String command) {
+            this(command, null, -1);
+        }
+
+        /**
+         * Constructor.
+         *
+         * @param command command
+         * @param file file content
+         * @param fileLength length of file content
+         */
+        public Request(String command, InputStream file, long fileLength) {
+            this.command = command;
+            this.file = file;
+            this.fileLength = fileLength;
+        }
+
+        /**
+         * Get the command.
+         *
+         * @return command
+         */
+        public String getCommand() {
+            return command;
+        }
+
+        /**
+         * Get the file content to upload with the command.
+         *
+         * @return file content or <code>null</code> if there is no file
+         */
+        public InputStream getFile() {
+            return file;
+        }
+
+        /**
+         * Get the length of the file content.
+         *
+         * @return file length
+         */
+        public long getFileLength() {
+            return fileLength;
+        }
+
+        /**
+         * Set an HTTP header to send with the command.
+         *
+         * @param name header name
+         * @param value header value
+         */
+        public void setHeader(String name, String value) {
+            headers.put(name, value);
+        }
+
+        /**
+         * Get the HTTP headers to send with the command.
+         *
+         * @return headers
+         */
+        public Map<String, String> getHeaders() {
+            return headers;
+        }
+
+        @Override
+        public String toString() {
+            return "Request [command=" + command + ", fileLength=" + fileLength + "]";
+        }
+    }
+
+    /**
+     * The response to a command.
+     */
+    public interface Response {
+
+        /**
+         * Get the HTTP status code.
+         *
+         * @return status code
+         */
+        int getStatusCode();
+
+        /**
+         * Get the value of a response header.
+         *
+         * @param name header name
+         * @return value or <code>null</code> if there is no such header
+         */
+        String getResponseHeader(String name);
+
+        /**
+         * Get the response body.
+         *
+         * @return body
+         * @throws IOException on any error
+         */
+        InputStream getResponseBodyAsStream() throws IOException;
+
+        /**
+         * Release any resources (such as the connection) held by the
+         * response.
+         */
+        void releaseConnection();
+    }
+}
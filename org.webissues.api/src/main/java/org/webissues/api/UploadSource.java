@@ -0,0 +1,118 @@
+package org.webissues.api;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Content to upload that can be read as many times as needed, so that a
+ * command can be sent again after logging in again or after the connection
+ * failed part way through. Small content read from a stream is held in
+ * memory, anything larger is spooled to a temporary file first.
+ */
+class UploadSource {
+
+    /**
+     * Content up to this size is held in memory rather than spooled.
+     */
+    static final int MAX_MEMORY_SIZE = 256 * 1024;
+
+    private final File file;
+    private final byte[] data;
+    private final long length;
+    private final boolean temporary;
+
+    private UploadSource(File file, byte[] data, long length, boolean temporary) {
+        this.file = file;
+        this.data = data;
+        this.length = length;
+        this.temporary = temporary;
+    }
+
+    /**
+     * Create a source that reads a file.
+     *
+     * @param file file
+     * @return source
+     */
+    static UploadSource fromFile(File file) {
+        return new UploadSource(file, null, file.length(), false);
+    }
+
+    /**
+     * Create a source by reading all of a stream, which is closed.
+     *
+     * @param in stream
+     * @return source
+     * @throws IOException on any I/O error
+     */
+    static UploadSource spool(InputStream in) throws IOException {
+        try {
+            byte[] buf = new byte[MAX_MEMORY_SIZE];
+            int length = 0;
+            int read = 0;
+            while (length < buf.length && (read = in.read(buf, length, buf.length - length)) != -1) {
+                length += read;
+            }
+            if (length < buf.length || (read = in.read()) == -1) {
+                byte[] data = new byte[length];
+                System.arraycopy(buf, 0, data, 0, length);
+                return new UploadSource(null, data, length, false);
+            }
+
+            File file = File.createTempFile("webissues", ".upload");
+            try {
+                OutputStream out = new FileOutputStream(file);
+                try {
+                    out.write(buf);
+                    out.write(read);
+                    long total = buf.length + 1;
+                    while ((read = in.read(buf)) != -1) {
+                        out.write(buf, 0, read);
+                        total += read;
+                    }
+                    return new UploadSource(file, null, total, true);
+                } finally {
+                    out.close();
+                }
+            } catch (IOException ioe) {
+                file.delete();
+                throw ioe;
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Open a new stream over the content.
+     *
+     * @return stream
+     * @throws IOException on any I/O error
+     */
+    InputStream open() throws IOException {
+        return file == null ? new ByteArrayInputStream(data) : new FileInputStream(file);
+    }
+
+    /**
+     * Get the length of the content.
+     *
+     * @return length
+     */
+    long getLength() {
+        return length;
+    }
+
+    /**
+     * Delete any temporary file the content was spooled to.
+     */
+    void dispose() {
+        if (temporary) {
+            file.delete();
+        }
+    }
+}
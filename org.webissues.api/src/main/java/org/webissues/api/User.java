@@ -7,7 +7,6 @@ import java.util.List;
 import java.util.Map;
 
 import org.apache.commons.httpclient.HttpException;
-import org.apache.commons.httpclient.HttpMethod;
 
 /**
  * Map of {@link User}s.
@@ -113,7 +112,7 @@ public class User extends HashMap<Integer, ProjectMembership> implements NamedEn
                         String v = preferences.get(k);
                         if (!v.equals(currentPreferences.get(k))) {
                             Client client = environment.getClient();
-                            HttpMethod method = client.doCommand("SET PREFERENCE " + getId() + " '" + Util.escape(k) + "' '"
+                            Transport.Response method = client.doCommand("SET PREFERENCE " + getId() + " '" + Util.escape(k) + "' '"
                                             + Util.escape(v) + "'");
                             try {
                                 for (List<String> response : client.readResponse(method.getResponseBodyAsStream())) {
@@ -145,7 +144,7 @@ public class User extends HashMap<Integer, ProjectMembership> implements NamedEn
 
     private void doReload(Operation operation) throws HttpException, IOException, ProtocolException {
         Client client = environment.getClient();
-        HttpMethod method = client.doCommand("LIST PREFERENCES " + getId());
+        Transport.Response method = client.doCommand("LIST PREFERENCES " + getId());
         currentPreferences.clear();
         preferences.clear();
         try {
@@ -182,6 +181,7 @@ public class User extends HashMap<Integer, ProjectMembership> implements NamedEn
             public Boolean call() throws HttpException, IOException, ProtocolException {
                 client.doCommand("RENAME USER " + id + " '" + Util.escape(newName) + "'");
                 User.this.name = newName;
+                environment.getUsers().usersChanged();
                 return true;
             }
         }, operation);
@@ -227,6 +227,7 @@ public class User extends HashMap<Integer, ProjectMembership> implements NamedEn
                 client.doCommand("GRANT MEMBER " + id + " " + project.getId() + " " + access);
                 ProjectMembership pmb = new ProjectMembership(User.this, project, access);
                 User.this.put(project.getId(), pmb);
+                environment.getUsers().usersChanged();
                 return true;
             }
         }, operation);
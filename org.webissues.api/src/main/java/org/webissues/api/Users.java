@@ -2,12 +2,13 @@ package org.webissues.api;
 
 import java.io.IOException;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import org.apache.commons.httpclient.HttpException;
-import org.apache.commons.httpclient.HttpMethod;
 
 /**
  * Map of {@link User}s.
@@ -16,6 +17,12 @@ public class Users extends NamedEntityMap<User> implements Serializable {
 
     private static final long serialVersionUID = -45193382221486291L;
     private IEnvironment environment;
+    // Users by login, name and project membership. Discarded whenever a user
+    // is added, removed, renamed or granted membership and rebuilt on next
+    // use, so it may be read without locking
+    private transient volatile UserIndex userIndex;
+    // Digest of the last LIST USERS response loaded
+    private byte[] listDigest;
 
     protected Users(IEnvironment environment) {
         this.environment = environment;
@@ -47,7 +54,7 @@ public class Users extends NamedEntityMap<User> implements Serializable {
                 operation.beginJob("Creating user", 1);
                 try {
                     Client client = environment.getClient();
-                    HttpMethod method = client.doCommand("ADD USER '" + Util.escape(loginId) + "' '" + Util.escape(name) + "' '"
+                    Transport.Response method = client.doCommand("ADD USER '" + Util.escape(loginId) + "' '" + Util.escape(name) + "' '"
                                     + Util.escape(new String(password)));
                     try {
                         List<List<String>> response = client.readResponse(method.getResponseBodyAsStream());
@@ -95,49 +102,167 @@ public class Users extends NamedEntityMap<User> implements Serializable {
      * @return user or <code>null</code> if
      */
     public User getByLogin(String login) {
-        for (User user : values()) {
-            if (user.getLogin().equals(login)) {
-                return user;
-            }
+        return getUserIndex().byLogin.get(login);
+    }
+
+    /**
+     * Get a user given it's name. If more than one user has the same name,
+     * the one with the lowest ID is returned.
+     * 
+     * @param name user's name
+     * @return user or <code>null</code> if no such user exists
+     */
+    @Override
+    public User getByName(String name) {
+        return getUserIndex().byName.get(name);
+    }
+
+    /**
+     * Get all users that are members of a project.
+     * 
+     * @param project project
+     * @return members
+     */
+    public Collection<User> getMembersOf(Project project) {
+        List<User> members = getUserIndex().byProject.get(project.getId());
+        return members == null ? new ArrayList<User>() : new ArrayList<User>(members);
+    }
+
+    @Override
+    public void add(User user) {
+        super.add(user);
+        usersChanged();
+    }
+
+    @Override
+    public void remove(User user) {
+        super.remove(user);
+        usersChanged();
+    }
+
+    /**
+     * Get a digest of the <code>LIST USERS</code> response the users were last
+     * loaded from. It changes whenever a user or membership is added, removed
+     * or changed on the server, so it may be used to tell if anything worked
+     * out from the users is still current.
+     * 
+     * @return digest as hexadecimal or <code>null</code> if not loaded
+     */
+    public String getListDigest() {
+        byte[] digest = listDigest;
+        return digest == null ? null : Util.toHex(digest);
+    }
+
+    @Override
+    public void clear() {
+        super.clear();
+        listDigest = null;
+        usersChanged();
+    }
+
+    /**
+     * Called by {@link User} when its name or project memberships change.
+     */
+    void usersChanged() {
+        userIndex = null;
+    }
+
+    private UserIndex getUserIndex() {
+        UserIndex index = userIndex;
+        if (index == null) {
+            index = new UserIndex(values());
+            userIndex = index;
         }
-        return null;
+        return index;
     }
 
     protected void doReload(Operation operation) throws HttpException, IOException, ProtocolException {
+        load(ListResponse.read(environment.getClient().doCommand("LIST USERS")), operation);
+    }
+
+    /**
+     * Load the users from a <code>LIST USERS</code> response, unless it is the
+     * same as the last one loaded.
+     * 
+     * @param list response
+     * @param operation operation call back
+     * @throws IOException on any I/O error
+     * @throws ProtocolException on any protocol error
+     */
+    void load(ListResponse list, Operation operation) throws IOException, ProtocolException {
         Client client = environment.getClient();
-        HttpMethod method = client.doCommand("LIST USERS");
-        try {
-            Map<Integer, User> users = new HashMap<Integer, User>();
-            for (List<String> response : client.readResponse(method.getResponseBodyAsStream())) {
-                if (response.get(0).equals("M")) {
-                    int userId = Integer.parseInt(response.get(1));
-                    int projectId = Integer.parseInt(response.get(2));
-                    Project project = client.getEnvironment().getProjects().get(projectId);
-                    if (project == null) {
-                        throw new Error("Project " + projectId + " for member " + userId + " is not known");
-                    }
-                    User user = users.get(userId);
-                    if (user == null) {
-                        throw new Error("Expected project before folder");
-                    }
-                    user.put(project.getId(),
-                        new ProjectMembership(user, project, Access.fromValue(Integer.parseInt(response.get(3)))));
-                } else if (response.get(0).equals("U")) {
-                    int userId = Integer.parseInt(response.get(1));
-                    users.put(
-                        userId,
-                        new User(environment, userId, response.get(2), response.get(3), Access.fromValue(Integer.parseInt(response
-                                        .get(4)))));
-                } else {
-                    Client.LOG.warn("Unexpected LIST USERS response \"" + response + "\"");
+        if (list.isUnchanged(listDigest) && isProjectsCurrent()) {
+            return;
+        }
+        Map<Integer, User> users = new HashMap<Integer, User>();
+        for (List<String> response : client.readResponse(list.getBody())) {
+            if (response.get(0).equals("M")) {
+                int userId = Integer.parseInt(response.get(1));
+                int projectId = Integer.parseInt(response.get(2));
+                Project project = client.getEnvironment().getProjects().get(projectId);
+                if (project == null) {
+                    throw new Error("Project " + projectId + " for member " + userId + " is not known");
+                }
+                User user = users.get(userId);
+                if (user == null) {
+                    throw new Error("Expected project before folder");
+                }
+                user.put(project.getId(),
+                    new ProjectMembership(user, project, Access.fromValue(Integer.parseInt(response.get(3)))));
+            } else if (response.get(0).equals("U")) {
+                int userId = Integer.parseInt(response.get(1));
+                users.put(
+                    userId,
+                    new User(environment, userId, response.get(2), response.get(3), Access.fromValue(Integer.parseInt(response
+                                    .get(4)))));
+            } else {
+                Client.LOG.warn("Unexpected LIST USERS response \"" + response + "\"");
+            }
+        }
+        clear();
+        for (User user : users.values()) {
+            add(user);
+        }
+        userIndex = new UserIndex(values());
+        listDigest = list.getDigest();
+    }
+
+    /*
+     * Get if the memberships are of the projects currently loaded, rather than
+     * ones since replaced by reloading the projects
+     */
+    private boolean isProjectsCurrent() {
+        Projects projects = environment.getProjects();
+        for (User user : values()) {
+            for (ProjectMembership membership : user.values()) {
+                if (projects.get(membership.getProject().getId()) != membership.getProject()) {
+                    return false;
                 }
             }
-            clear();
-            for (User user : users.values()) {
-                add(user);
+        }
+        return true;
+    }
+
+    private static class UserIndex {
+        private final Map<String, User> byLogin = new HashMap<String, User>();
+        private final Map<String, User> byName = new HashMap<String, User>();
+        private final Map<Integer, List<User>> byProject = new HashMap<Integer, List<User>>();
+
+        UserIndex(Collection<User> users) {
+            for (User user : users) {
+                byLogin.put(user.getLogin(), user);
+                if (!byName.containsKey(user.getName())) {
+                    byName.put(user.getName(), user);
+                }
+                for (Integer projectId : user.keySet()) {
+                    List<User> members = byProject.get(projectId);
+                    if (members == null) {
+                        members = new ArrayList<User>();
+                        byProject.put(projectId, members);
+                    }
+                    members.add(user);
+                }
             }
-        } finally {
-            method.releaseConnection();
         }
     }
 }
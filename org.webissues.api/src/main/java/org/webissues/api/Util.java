@@ -31,6 +31,18 @@ public class Util {
         return now;
     }
 
+    /**
+     * Convert seconds since the Unix epoch to a calendar.
+     * 
+     * @param timestamp timestamp as seconds since unix epoch
+     * @return date
+     */
+    public static Calendar toCalendarFromSeconds(long timestamp) {
+        Calendar now = Calendar.getInstance();
+        now.setTimeInMillis(timestamp * 1000);
+        return now;
+    }
+
     /**
      * Parse a string as milliseconds since the Unix epoch. <code>null</code>
      * will be returned if the string is <code>null</code>
@@ -371,4 +383,13 @@ public class Util {
     public static int compareVersions(String version1, String version2) {
         return new Float(version1).compareTo(new Float(version2));
     }
+
+    static String toHex(byte[] bytes) {
+        StringBuilder buf = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            buf.append(Character.forDigit((b >> 4) & 0xf, 16));
+            buf.append(Character.forDigit(b & 0xf, 16));
+        }
+        return buf.toString();
+    }
 }
@@ -0,0 +1,122 @@
+package org.webissues.api;
+
+/**
+ * The distinct values seen for one {@link Attribute}, so that every issue
+ * holding the same value shares one {@link String}. Values can be looked up
+ * straight from the characters of a response, so a value that has been seen
+ * before costs no allocation at all.
+ * <p>
+ * The dictionary stops growing once it holds its maximum number of values.
+ * Further new values are returned as new strings, so free text attributes
+ * cannot fill the heap with values that are never repeated.
+ */
+class ValueDictionary {
+
+    private final int maxSize;
+    private String[] table;
+    private int size;
+
+    /**
+     * Constructor.
+     * 
+     * @param maxSize maximum number of distinct values to hold
+     */
+    ValueDictionary(int maxSize) {
+        this.maxSize = maxSize;
+        table = new String[16];
+    }
+
+    /**
+     * Get the shared string for a value.
+     * 
+     * @param value value
+     * @return shared value, or the supplied value if it is not held
+     */
+    synchronized String intern(String value) {
+        if (value == null) {
+            return null;
+        }
+        int hash = value.hashCode();
+        int mask = table.length - 1;
+        for (int i = hash & mask;; i = (i + 1) & mask) {
+            String entry = table[i];
+            if (entry == null) {
+                return add(i, value);
+            }
+            if (entry.hashCode() == hash && entry.equals(value)) {
+                return entry;
+            }
+        }
+    }
+
+    /**
+     * Get the shared string for a value held as characters.
+     * 
+     * @param chars characters
+     * @param offset offset of value
+     * @param length length of value
+     * @return shared value
+     */
+    synchronized String intern(char[] chars, int offset, int length) {
+        // Same as String.hashCode(), so values can be found either way
+        int hash = 0;
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + chars[offset + i];
+        }
+        int mask = table.length - 1;
+        for (int i = hash & mask;; i = (i + 1) & mask) {
+            String entry = table[i];
+            if (entry == null) {
+                return add(i, new String(chars, offset, length));
+            }
+            if (entry.hashCode() == hash && matches(entry, chars, offset, length)) {
+                return entry;
+            }
+        }
+    }
+
+    /**
+     * Get the number of values held.
+     * 
+     * @return size
+     */
+    synchronized int size() {
+        return size;
+    }
+
+    private String add(int index, String value) {
+        if (size >= maxSize) {
+            return value;
+        }
+        table[index] = value;
+        size++;
+        // Keep the table at most half full
+        if (size * 2 > table.length) {
+            String[] old = table;
+            table = new String[old.length * 2];
+            int mask = table.length - 1;
+            for (String entry : old) {
+                if (entry != null) {
+                    int i = entry.hashCode() & mask;
+                    while (table[i] != null) {
+                        i = (i + 1) & mask;
+                    }
+                    table[i] = entry;
+                }
+            }
+        }
+        return value;
+    }
+
+    private static boolean matches(String entry, char[] chars, int offset, int length) {
+        if (entry.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (entry.charAt(i) != chars[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
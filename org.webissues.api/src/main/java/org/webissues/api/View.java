@@ -2,7 +2,6 @@ package org.webissues.api;
 
 import java.io.IOException;
 import java.io.Serializable;
-import java.util.Arrays;
 import java.util.Collection;
 
 import org.apache.commons.httpclient.HttpException;
@@ -104,7 +103,7 @@ public class View extends EntityMap<Alert> implements Serializable {
     /**
      * Query all supplied folders for issues last modified since the provided stamp and filter them
      * according to this view. The filtering happens client side. The {@link ResultCollector#found(Issue)}
-     * method will be invoked for each issue found.
+     * method will be invoked for each issue found, as soon as it has been downloaded.
      * 
      * @param folders folders to query
      * @param operation operation
@@ -113,57 +112,21 @@ public class View extends EntityMap<Alert> implements Serializable {
      * @throws IOException
      * @throws ProtocolException
      */
-    public void query(Collection<Folder> folders, Operation operation, long stamp, ResultCollector collector) throws IOException, ProtocolException {
-        for(Folder folder : folders) {
-            Collection<? extends Issue> folderIssues = folder.getIssues(operation, stamp);
-            for (Issue issue : folderIssues) {
-                boolean matches = true;
-                for (Condition condition : definition) {
-                    String val = condition.getValue();
-                    Attribute attr = condition.getAttribute();
-                    try {
-                        String issueAttributeValue = null;
-                        switch (attr.getId()) {
-                            case IssueType.PROJECT_ATTR_ID:
-                                issueAttributeValue = issue.getFolder().getProject().getName();
-                                break;
-                            case IssueType.FOLDER_ATTR_ID:
-                                issueAttributeValue = issue.getFolder().getName();
-                                break;
-                            case IssueType.NAME_ATTR_ID:
-                                issueAttributeValue = issue.getName();
-                                break;
-                            case IssueType.CREATED_DATE_ATTR_ID:
-                                issueAttributeValue = String.valueOf((issue.getCreatedDate().getTimeInMillis() / 1000));
-                                break;
-                            case IssueType.MODIFIED_DATE_ATTR_ID:
-                                issueAttributeValue = String.valueOf((issue.getModifiedDate().getTimeInMillis() / 1000));
-                                break;
-                            case IssueType.CREATED_BY_ATTR_ID:
-                                issueAttributeValue = issue.getCreatedUser().getLogin();
-                                break;
-                            case IssueType.MODIFIED_BY_ATTR_ID:
-                                issueAttributeValue = issue.getCreatedUser().getLogin();
-                                break;
-                            default:
-                                issueAttributeValue = issue.get(attr);
-                        }
-                        if (issueAttributeValue == null) {
-                            issueAttributeValue = "";
-                        }
-                        matches = match(issue, matches, condition, val, issueAttributeValue);
-                    } catch (NumberFormatException nfe) {
-                        nfe.printStackTrace(System.out);
-                        matches = false;
-                    }
-                    if (!matches) {
-                        break;
-                    }
-                }
-                if(matches) {
+    public void query(Collection<Folder> folders, Operation operation, long stamp, final ResultCollector collector) throws IOException, ProtocolException {
+        if (folders.isEmpty()) {
+            return;
+        }
+        ReadStates states = type.getViews().getEnvironment().getClient().getReadStates(stamp, operation);
+        final IssueFilter filter = new IssueFilter(definition);
+        ResultCollector matcher = new ResultCollector() {
+            public void found(Issue issue) {
+                if (filter.matches(issue)) {
                     collector.found(issue);
                 }
             }
+        };
+        for(Folder folder : folders) {
+            folder.getIssues(operation, stamp, states, matcher);
         }
     }
 
@@ -184,46 +147,4 @@ public class View extends EntityMap<Alert> implements Serializable {
         }, operation);
 
     }
-
-    private boolean match(Issue issue, boolean matches, Condition condition, String val, String issueAttributeValue) {
-        val = val.toLowerCase();
-        issueAttributeValue = issueAttributeValue.toLowerCase();
-        switch (condition.getType()) {
-            case BEG:
-                matches = issueAttributeValue.startsWith(val);
-                break;
-            case END:
-                matches = issueAttributeValue.endsWith(val);
-                break;
-            case CON:
-                matches = issueAttributeValue.contains(val);
-                break;
-            case EQ:
-                matches = issueAttributeValue.equals(val);
-                break;
-            case NEQ:
-                matches = !issueAttributeValue.equals(val);
-                break;
-            case GT:
-                matches = parseDouble(issueAttributeValue, condition) > parseDouble(val, condition);
-                break;
-            case GTE:
-                matches = parseDouble(issueAttributeValue, condition) >= parseDouble(val, condition);
-                break;
-            case LT:
-                matches = parseDouble(issueAttributeValue, condition) > parseDouble(val, condition);
-                break;
-            case LTE:
-                matches = parseDouble(issueAttributeValue, condition) >= parseDouble(val, condition);
-                break;
-            case IN:
-                matches = Arrays.asList(val.split(":")).contains(issueAttributeValue);
-                break;
-        }
-        return matches;
-    }
-
-    private double parseDouble(String val, Condition condition) {
-        return Double.parseDouble(val);
-    }
 }
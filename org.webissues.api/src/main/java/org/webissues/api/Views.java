@@ -6,7 +6,6 @@ import java.util.HashMap;
 import java.util.List;
 
 import org.apache.commons.httpclient.HttpException;
-import org.apache.commons.httpclient.HttpMethod;
 
 public class Views extends HashMap<Integer, View> implements Serializable {
 
@@ -72,7 +71,7 @@ public class Views extends HashMap<Integer, View> implements Serializable {
 
                     Client client = environment.getClient();
 //                    public function addView( $typeId, $name, $definition, $isPublic )
-                    HttpMethod method = client.doCommand("ADD VIEW " + getType().getId() + " '" +  Util.escape(viewName) + "' '" + Util.escape(definition.toDefinitionString()) + "' " + ( publicView ? 1 : 0));
+                    Transport.Response method = client.doCommand("ADD VIEW " + getType().getId() + " '" +  Util.escape(viewName) + "' '" + Util.escape(definition.toDefinitionString()) + "' " + ( publicView ? 1 : 0));
                     try {
                         List<List<String>> response = client.readResponse(method.getResponseBodyAsStream());
                         View u  = new View(getType(), Integer.parseInt(response.get(0).get(1)), viewName);
@@ -0,0 +1,56 @@
+package org.webissues.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import org.apache.commons.httpclient.HttpException;
+import org.junit.Test;
+
+public class AsyncClientTest {
+
+    /**
+     * Test the details of many issues are combined into one future, and that a
+     * failure of one request fails the whole future
+     */
+    @Test
+    public void testBatchIssueDetails() throws Exception {
+        final Environment environment = new Environment(null);
+        final Folder folder = new Folder(null, new Project(environment.getProjects(), 1, "Project"), 1, "Folder",
+                        new IssueType(environment.getTypes(), 1, "Bugs"), 0);
+        Client client = new Client(null) {
+            @Override
+            public IssueDetails getIssueDetails(int issueId, Operation operation) throws HttpException, IOException,
+                            ProtocolException {
+                if (issueId == 13) {
+                    throw new ProtocolException(ProtocolException.ACCESS_DENIED);
+                }
+                return new IssueDetails(this, new Issue(issueId, 1, "Issue " + issueId, null, null, null, null, folder));
+            }
+        };
+        client.setMaxConcurrentRequests(3);
+        AsyncClient async = new AsyncClient(client);
+        try {
+            Map<Integer, IssueDetails> details = async.getIssueDetails(Arrays.asList(5, 1, 9, 1), null).get();
+            assertEquals(Arrays.asList(5, 1, 9), Arrays.asList(details.keySet().toArray()));
+            assertEquals("Issue 9", details.get(9).getIssue().getName());
+
+            Future<Map<Integer, IssueDetails>> failing = async.getIssueDetails(Arrays.asList(1, 13, 2), null);
+            try {
+                failing.get();
+                fail("Expected failure");
+            } catch (ExecutionException ee) {
+                assertTrue(ee.getCause() instanceof ProtocolException);
+            }
+            assertTrue(failing.isDone());
+        } finally {
+            async.shutdown();
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package org.webissues.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+
+import org.junit.Test;
+
+public class AttachmentCacheTest {
+
+    /**
+     * Test content is only downloaded once, is shared between attachments with
+     * the same content, survives a restart and is evicted least recently used
+     * first
+     */
+    @Test
+    public void testCache() throws Exception {
+        MemoryTransport server = new MemoryTransport();
+        server.respond("GET ATTACHMENT 1", "first");
+        server.respond("GET ATTACHMENT 2", "first");
+        server.respond("GET ATTACHMENT 3", "third");
+        Client client = MemoryTransportTest.connect(server);
+
+        File directory = File.createTempFile("attachments", "");
+        directory.delete();
+        try {
+            AttachmentCache cache = new AttachmentCache(directory, 10);
+            assertEquals("first", read(cache.getAttachmentData(client, 1, new OperationAdapter())));
+            assertEquals("first", read(cache.getAttachmentData(client, 1, new OperationAdapter())));
+            assertEquals(1, count(server, "GET ATTACHMENT 1"));
+            assertNotNull(cache.getHash(1));
+
+            cache.getAttachmentData(client, 2, new OperationAdapter()).close();
+            assertEquals(cache.getHash(1), cache.getHash(2));
+            assertEquals(5, cache.getSize());
+
+            assertEquals("first", read(cache.getAttachmentData(client, 1, new OperationAdapter())));
+            assertEquals(1, count(server, "GET ATTACHMENT 1"));
+
+            AttachmentCache reloaded = new AttachmentCache(directory, 10);
+            assertTrue(reloaded.isCached(2));
+            reloaded.getAttachmentData(client, 3, new OperationAdapter()).close();
+            assertEquals(10, reloaded.getSize());
+
+            // Over the limit, so the least recently used content goes
+            reloaded.getAttachmentData(client, 1, new OperationAdapter()).close();
+            server.respond("GET ATTACHMENT 4", "other");
+            reloaded.getAttachmentData(client, 4, new OperationAdapter()).close();
+            assertFalse(reloaded.isCached(3));
+            assertTrue(reloaded.isCached(1));
+            assertEquals(2, directory.listFiles().length - 1);
+
+            // Too big to cache at all, so only kept until read
+            server.respond("GET ATTACHMENT 5", "much too big");
+            InputStream in = reloaded.getAttachmentData(client, 5, new OperationAdapter());
+            assertFalse(reloaded.isCached(5));
+            assertEquals("much too big", read(in));
+            assertEquals(2, directory.listFiles().length - 1);
+        } finally {
+            new AttachmentCache(directory, 0).clear();
+            directory.delete();
+        }
+    }
+
+    /**
+     * Test a stream over cached content can still be read after the content
+     * has been evicted
+     */
+    @Test
+    public void testEvictWhileOpen() throws Exception {
+        MemoryTransport server = new MemoryTransport();
+        server.respond("GET ATTACHMENT 1", "first");
+        server.respond("GET ATTACHMENT 2", "other");
+        Client client = MemoryTransportTest.connect(server);
+
+        File directory = File.createTempFile("attachments", "");
+        directory.delete();
+        try {
+            AttachmentCache cache = new AttachmentCache(directory, 5);
+            cache.getAttachmentData(client, 1, new OperationAdapter()).close();
+            InputStream in = cache.getAttachmentData(client, 1, new OperationAdapter());
+            cache.getAttachmentData(client, 2, new OperationAdapter()).close();
+            assertFalse(cache.isCached(1));
+            assertEquals("first", read(in));
+        } finally {
+            new AttachmentCache(directory, 0).clear();
+            directory.delete();
+        }
+    }
+
+    /**
+     * Test the temporary file is removed when a download fails with an
+     * unexpected exception
+     */
+    @Test
+    public void testFailedDownload() throws Exception {
+        MemoryTransport server = new MemoryTransport();
+        server.respond("GET ATTACHMENT 1", new MemoryTransport.Handler() {
+            public String respond(Transport.Request request) throws IOException {
+                throw new IllegalStateException("Broken");
+            }
+        });
+        Client client = MemoryTransportTest.connect(server);
+
+        File directory = File.createTempFile("attachments", "");
+        directory.delete();
+        try {
+            AttachmentCache cache = new AttachmentCache(directory, 5);
+            try {
+                cache.getAttachmentData(client, 1, new OperationAdapter());
+                throw new AssertionError("Expected download to fail");
+            } catch (IllegalStateException ise) {
+                assertEquals("Broken", ise.getMessage());
+            }
+            assertEquals(0, directory.listFiles().length);
+        } finally {
+            new AttachmentCache(directory, 0).clear();
+            directory.delete();
+        }
+    }
+
+    private static int count(MemoryTransport server, String command) {
+        int count = 0;
+        for (String c : server.getCommands()) {
+            if (c.equals(command)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static String read(InputStream in) throws Exception {
+        try {
+            return new BufferedReader(new InputStreamReader(in, "UTF-8")).readLine();
+        } finally {
+            in.close();
+        }
+    }
+}
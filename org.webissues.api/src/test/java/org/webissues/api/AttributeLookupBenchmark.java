@@ -0,0 +1,62 @@
+package org.webissues.api;
+
+import org.webissues.api.Attribute.AttributeType;
+
+/**
+ * Compares looking up attributes by ID the way every <code>V</code> row is
+ * handled ({@link IssueTypes#getAttribute(int)}) with the linear scan over all
+ * types that was used before the index. Run as a Java application.
+ */
+public class AttributeLookupBenchmark {
+
+    private static final int TYPES = 20;
+    private static final int ATTRIBUTES_PER_TYPE = 20;
+    // 50000 issues with 20 values each
+    private static final int LOOKUPS = 1000000;
+    private static final int RUNS = 5;
+
+    public static void main(String[] args) {
+        IssueTypes types = new IssueTypes(null);
+        int attributeId = 1;
+        for (int i = 1; i <= TYPES; i++) {
+            IssueType type = new IssueType(types, i, "Type " + i);
+            for (int j = 0; j < ATTRIBUTES_PER_TYPE; j++) {
+                type.put(attributeId, new Attribute(type, attributeId, "Attribute " + attributeId, AttributeType.TEXT, false));
+                attributeId++;
+            }
+            types.put(type.getId(), type);
+        }
+        types.reindex();
+        int attributes = attributeId - 1;
+
+        for (int run = 1; run <= RUNS; run++) {
+            long found = 0;
+            long started = System.nanoTime();
+            for (int i = 0; i < LOOKUPS; i++) {
+                if (linearScan(types, 1 + (i % attributes)) != null) {
+                    found++;
+                }
+            }
+            long linear = System.nanoTime() - started;
+
+            started = System.nanoTime();
+            for (int i = 0; i < LOOKUPS; i++) {
+                if (types.getAttribute(1 + (i % attributes)) != null) {
+                    found++;
+                }
+            }
+            long indexed = System.nanoTime() - started;
+            System.out.println("Run " + run + ": linear " + (linear / 1000000) + "ms, indexed " + (indexed / 1000000) + "ms ("
+                            + found + " found)");
+        }
+    }
+
+    private static Attribute linearScan(IssueTypes types, int attributeId) {
+        for (IssueType type : types.values()) {
+            if (type.containsKey(attributeId)) {
+                return type.get(attributeId);
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,316 @@
+package org.webissues.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.httpclient.Cookie;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpException;
+import org.junit.Test;
+
+public class ClientTest {
+
+    /**
+     * Test a large upload from a one-shot stream is sent again in full after
+     * the connection fails part way through, and progress is reported
+     */
+    @Test
+    public void testUploadRetry() throws Exception {
+        final byte[] content = new byte[UploadSource.MAX_MEMORY_SIZE * 2 + 10];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) i;
+        }
+        final List<byte[]> received = new ArrayList<byte[]>();
+        MemoryTransport server = new MemoryTransport();
+        server.respond("ADD ATTACHMENT", new MemoryTransport.Handler() {
+            public String respond(Transport.Request request) throws IOException {
+                InputStream in = request.getFile();
+                if (received.isEmpty()) {
+                    in.read(new byte[1000]);
+                    received.add(null);
+                    throw new IOException("Connection reset");
+                }
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] buf = new byte[4096];
+                int read;
+                while ((read = in.read(buf)) != -1) {
+                    out.write(buf, 0, read);
+                }
+                received.add(out.toByteArray());
+                return "ID 42";
+            }
+        });
+        Client client = MemoryTransportTest.connect(server);
+
+        final int[] progress = new int[2];
+        int id = client.putAttachmentData(1, "data.bin", "Some data", new ByteArrayInputStream(content), -1,
+            "application/octet-stream", new OperationAdapter() {
+                @Override
+                public void beginJob(String name, int size) {
+                    if (name.equals("Uploading attachment")) {
+                        progress[0] = size;
+                    }
+                }
+
+                @Override
+                public void progressed(int value) {
+                    progress[1] += value;
+                }
+            });
+        assertEquals(42, id);
+        assertEquals(2, received.size());
+        assertTrue(Arrays.equals(content, received.get(1)));
+        assertEquals((content.length + 1023) / 1024, progress[0]);
+        assertTrue(progress[1] >= content.length / 1024);
+        assertEquals(2, count(server, "ADD ATTACHMENT 1 'data.bin' 'Some data'"));
+    }
+
+    /**
+     * Test an upload is not sent again once all of it has reached the server,
+     * or if the server answered with an HTTP error, as the attachment may
+     * have been added already or the error would just happen again
+     */
+    @Test
+    public void testUploadNotRetried() throws Exception {
+        MemoryTransport server = new MemoryTransport();
+        server.respond("ADD ATTACHMENT", new MemoryTransport.Handler() {
+            public String respond(Transport.Request request) throws IOException {
+                InputStream in = request.getFile();
+                while (in.read(new byte[4096]) != -1) {
+                }
+                throw new IOException("Connection reset");
+            }
+        });
+        Client client = MemoryTransportTest.connect(server);
+        try {
+            client.putAttachmentData(1, "data.bin", "Some data", new ByteArrayInputStream(new byte[5000]), -1,
+                "application/octet-stream", new OperationAdapter());
+            throw new AssertionError("Expected upload to fail");
+        } catch (IOException ioe) {
+            assertEquals("Connection reset", ioe.getMessage());
+        }
+        assertEquals(1, count(server, "ADD ATTACHMENT 1 'data.bin' 'Some data'"));
+
+        server.clearCommands();
+        server.respond("ADD ATTACHMENT", "ID 42");
+        server.setStatusCode("ADD ATTACHMENT", 413);
+        try {
+            client.putAttachmentData(1, "data.bin", "Some data", new ByteArrayInputStream(new byte[5000]), -1,
+                "application/octet-stream", new OperationAdapter());
+            throw new AssertionError("Expected upload to fail");
+        } catch (HttpException he) {
+            assertEquals("HTTP error 413", he.getMessage());
+        }
+        assertEquals(1, count(server, "ADD ATTACHMENT 1 'data.bin' 'Some data'"));
+    }
+
+    /**
+     * Test cancelling an upload part way through reports it as cancelled, and
+     * leaves the client online
+     */
+    @Test
+    public void testUploadCancelled() throws Exception {
+        MemoryTransport server = new MemoryTransport();
+        server.respond("ADD ATTACHMENT", new MemoryTransport.Handler() {
+            public String respond(Transport.Request request) throws IOException {
+                InputStream in = request.getFile();
+                while (in.read(new byte[1024]) != -1) {
+                }
+                return "ID 42";
+            }
+        });
+        Client client = MemoryTransportTest.connect(server);
+        server.clearCommands();
+        try {
+            client.putAttachmentData(1, "data.bin", "Some data", new ByteArrayInputStream(new byte[UploadSource.MAX_MEMORY_SIZE]),
+                -1, "application/octet-stream", new OperationAdapter() {
+                    @Override
+                    public void progressed(int value) {
+                        setCanceled(true);
+                    }
+                });
+            throw new AssertionError("Expected upload to be cancelled");
+        } catch (ProtocolException pe) {
+            assertEquals(ProtocolException.CANCELLED, pe.getCode());
+        }
+        assertTrue(client.getEnvironment().isOnline());
+        assertEquals(Arrays.asList("ADD ATTACHMENT 1 'data.bin' 'Some data'"), server.getCommands());
+    }
+
+    /**
+     * Test read states are brought up to date by asking only for those
+     * changed since, without changing the states they were brought up from
+     */
+    @Test
+    public void testReadStatesUpdate() throws Exception {
+        MemoryTransport server = new MemoryTransport();
+        server.respond("LIST STATES", "S 5 7 20\nS 6 8 0");
+        Client client = MemoryTransportTest.connect(server);
+        ReadStates states = client.getReadStates(0, new OperationAdapter());
+        assertEquals(6, states.getStamp());
+
+        server.respond("LIST STATES", "S 9 8 30");
+        ReadStates updated = client.getReadStates(states, new OperationAdapter());
+        assertEquals(1, count(server, "LIST STATES 6"));
+        assertEquals(9, updated.getStamp());
+        assertEquals(2, updated.size());
+        assertEquals(6, states.getStamp());
+    }
+
+    private static int count(MemoryTransport server, String command) {
+        int count = 0;
+        for (String sent : server.getCommands()) {
+            if (sent.equals(command)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Test the details of many issues are all delivered on the calling thread,
+     * with an issue that cannot be retrieved reported without stopping the
+     * others
+     */
+    @Test
+    public void testBatchIssueDetails() throws Exception {
+        MemoryTransport server = new MemoryTransport();
+        server.respond("LIST TYPES", "T 1 'Bugs'");
+        server.respond("LIST PROJECTS", "P 1 'Project'\nF 100 1 'Open' 1 20");
+        server.respond("LIST USERS", "U 1 'admin' 'Administrator' 2");
+        server.respond("GET DETAILS", new MemoryTransport.Handler() {
+            public String respond(Transport.Request request) {
+                String issueId = request.getCommand().split(" ")[2];
+                if (issueId.equals("4")) {
+                    return "ERROR 301 'Access denied'";
+                }
+                return "I " + issueId + " 100 'Issue " + issueId + "' 20 1000 1 2000 1";
+            }
+        });
+        Client client = MemoryTransportTest.connect(server);
+        client.setMaxConcurrentRequests(3);
+
+        final Thread caller = Thread.currentThread();
+        final List<Integer> found = new ArrayList<Integer>();
+        final List<Integer> failed = new ArrayList<Integer>();
+        client.getIssueDetails(Arrays.asList(1, 2, 3, 4, 5), new IssueDetailsCollector() {
+            public void found(IssueDetails issueDetails) {
+                assertSame(caller, Thread.currentThread());
+                found.add(issueDetails.getIssue().getId());
+            }
+
+            public void failed(int issueId, ProtocolException exception) {
+                assertEquals(ProtocolException.ACCESS_DENIED, exception.getCode());
+                failed.add(issueId);
+            }
+        }, new OperationAdapter());
+        Collections.sort(found);
+        assertEquals(Arrays.asList(1, 2, 3, 5), found);
+        assertEquals(Arrays.asList(4), failed);
+    }
+
+    /**
+     * Test an expired session is recovered by logging in again, without
+     * saying hello or reloading the environment
+     */
+    @Test
+    public void testRelogin() throws Exception {
+        MemoryTransport server = new MemoryTransport();
+        server.respond("LIST TYPES", "T 1 'Bugs'");
+        server.respond("LIST PROJECTS", "P 1 'Project'\nF 100 1 'Open' 1 20");
+        server.respond("LIST USERS", "U 1 'admin' 'Administrator' 2");
+        final boolean[] expired = { true };
+        server.respond("GET DETAILS", new MemoryTransport.Handler() {
+            public String respond(Transport.Request request) {
+                if (expired[0]) {
+                    expired[0] = false;
+                    return "ERROR 300 'Login required'";
+                }
+                return "I 1 100 'Issue 1' 20 1000 1 2000 1";
+            }
+        });
+        Client client = MemoryTransportTest.connect(server);
+        server.clearCommands();
+
+        IssueDetails details = client.getIssueDetails(1, new OperationAdapter());
+        assertEquals(1, details.getIssue().getId());
+        assertTrue(client.getEnvironment().isOnline());
+        assertEquals(Arrays.asList("GET DETAILS 1 0 0", "LOGIN 'admin' 'secret'", "GET DETAILS 1 0 0"), server.getCommands());
+    }
+
+    /**
+     * Test a client loaded back in uses the session it was saved with after
+     * checking it with a single command, and connects again in full if the
+     * session has expired
+     */
+    @Test
+    public void testResumeSession() throws Exception {
+        MemoryTransport server = new MemoryTransport();
+        server.respond("GET DETAILS", "I 1 100 'Issue 1' 20 1000 1 2000 1");
+        Client client = MemoryTransportTest.connect(server);
+        client.setHttpClient(new HttpClient());
+        client.getHttpClient().getState().addCookie(new Cookie("localhost", "PHPSESSID", "abc", "/", null, false));
+
+        Client loaded = saveAndLoad(client, server);
+        assertFalse(loaded.getEnvironment().isOnline());
+        Cookie[] cookies = loaded.getHttpClient().getState().getCookies();
+        assertEquals(1, cookies.length);
+        assertEquals("abc", cookies[0].getValue());
+        server.clearCommands();
+        loaded.getIssueDetails(1, new OperationAdapter());
+        assertTrue(loaded.getEnvironment().isOnline());
+        assertEquals(Arrays.asList("LIST PREFERENCES 1", "GET DETAILS 1 0 0"), server.getCommands());
+
+        server.respond("LIST PREFERENCES", "ERROR 300 'Login required'");
+        loaded = saveAndLoad(client, server);
+        server.clearCommands();
+        loaded.getIssueDetails(1, new OperationAdapter());
+        assertTrue(loaded.getEnvironment().isOnline());
+        List<String> commands = server.getCommands();
+        assertEquals("LIST PREFERENCES 1", commands.get(0));
+        assertEquals("HELLO", commands.get(1));
+        assertEquals("GET DETAILS 1 0 0", commands.get(commands.size() - 1));
+    }
+
+    /**
+     * Test the response counters start again from zero, and keep counting,
+     * in a client loaded back in
+     */
+    @Test
+    public void testCountersAfterLoad() throws Exception {
+        MemoryTransport server = new MemoryTransport();
+        server.respond("GET DETAILS", "I 1 100 'Issue 1' 20 1000 1 2000 1");
+        Client client = MemoryTransportTest.connect(server);
+        assertTrue(client.getResponseBytes() > 0);
+
+        Client loaded = saveAndLoad(client, server);
+        assertEquals(0, loaded.getResponseBytes());
+        loaded.getIssueDetails(1, new OperationAdapter());
+        assertTrue(loaded.getResponseBytes() > 0);
+        assertEquals(loaded.getResponseBytes(), loaded.getDecodedResponseBytes());
+    }
+
+    private static Client saveAndLoad(Client client, MemoryTransport server) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ObjectOutputStream oout = new ObjectOutputStream(out);
+        oout.writeObject(client);
+        oout.close();
+        Client loaded = (Client) new ObjectInputStream(new ByteArrayInputStream(out.toByteArray())).readObject();
+        loaded.setTransport(server);
+        loaded.setAuthenticator(client.getAuthenticator());
+        return loaded;
+    }
+}
@@ -0,0 +1,122 @@
+package org.webissues.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.httpclient.HttpException;
+import org.junit.Test;
+
+public class EnvironmentTest {
+
+    /**
+     * Test the lists are all requested at the same time when connecting, are
+     * still loaded in dependency order, and each phase is timed
+     */
+    @Test
+    public void testConcurrentConnect() throws Exception {
+        MemoryTransport server = new MemoryTransport();
+        final CountDownLatch requested = new CountDownLatch(3);
+        respondTogether(server, requested, "LIST TYPES", "T 1 'Bugs'\nA 10 1 'Severity' 'TEXT'");
+        respondTogether(server, requested, "LIST PROJECTS", "P 1 'Project'\nF 100 1 'Open' 1 20");
+        respondTogether(server, requested, "LIST USERS", "U 1 'admin' 'Administrator' 2\nM 1 1 2");
+
+        Client client = newClient(server);
+        client.setMaxConcurrentRequests(3);
+        final List<String> phases = new ArrayList<String>();
+        client.connect(new OperationAdapter() {
+            @Override
+            public void timed(String phase, long millis) {
+                assertTrue(millis >= 0);
+                phases.add(phase);
+            }
+        });
+
+        IEnvironment environment = client.getEnvironment();
+        assertTrue(environment.isOnline());
+        Folder folder = environment.getProjects().getFolder(100);
+        assertNotNull(folder);
+        assertSame(environment.getTypes().get(1), folder.getType());
+        assertSame(environment.getProjects().get(1), environment.getUsers().get(1).get(1).getProject());
+        assertEquals(8, phases.size());
+        assertEquals("HELLO", phases.get(0));
+        assertEquals("LOGIN", phases.get(1));
+        assertTrue(phases.indexOf("Loading types") < phases.indexOf("Loading projects"));
+        assertTrue(phases.indexOf("Loading projects") < phases.indexOf("Loading users"));
+        assertTrue(phases.contains("LIST USERS"));
+    }
+
+    /*
+     * Respond to a command only once all the commands sharing the latch have
+     * been received, which fails unless they are sent concurrently
+     */
+    private static void respondTogether(MemoryTransport server, final CountDownLatch requested, String command,
+                                        final String response) {
+        server.respond(command, new MemoryTransport.Handler() {
+            public String respond(Transport.Request request) throws IOException {
+                requested.countDown();
+                try {
+                    if (!requested.await(10, TimeUnit.SECONDS)) {
+                        throw new IOException("Lists were not requested concurrently");
+                    }
+                } catch (InterruptedException ie) {
+                    throw new IOException("Interrupted");
+                }
+                return response;
+            }
+        });
+    }
+
+    /**
+     * Test a list command failing while the others are being sent fails the
+     * connection, rather than leaving it waiting for ever
+     */
+    @Test(timeout = 10000)
+    public void testFailedListDuringConnect() throws Exception {
+        MemoryTransport server = new MemoryTransport();
+        server.respond("LIST TYPES", "T 1 'Bugs'");
+        server.setStatusCode("LIST PROJECTS", 500);
+        Client client = newClient(server);
+        client.setMaxConcurrentRequests(3);
+        try {
+            client.connect(new OperationAdapter());
+            throw new AssertionError("Expected connect to fail");
+        } catch (HttpException he) {
+            assertEquals("HTTP error 500", he.getMessage());
+        }
+        assertFalse(client.getEnvironment().isOnline());
+
+        server.setStatusCode("LIST PROJECTS", 200);
+        client.getEnvironment().goOnline(client, new OperationAdapter());
+        assertTrue(client.getEnvironment().isOnline());
+    }
+
+    private static Client newClient(MemoryTransport server) throws Exception {
+        Client client = new Client(null);
+        client.setTransport(server);
+        client.setUrl(new URL("http://localhost/webissues"));
+        client.setAuthenticator(new Authenticator() {
+            public Credentials getCredentials(URL url) {
+                return new Credentials() {
+                    public String getUsername() {
+                        return "admin";
+                    }
+
+                    public char[] getPassword() {
+                        return "secret".toCharArray();
+                    }
+                };
+            }
+        });
+        return client;
+    }
+}
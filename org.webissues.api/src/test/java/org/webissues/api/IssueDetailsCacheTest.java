@@ -0,0 +1,169 @@
+package org.webissues.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Calendar;
+
+import org.junit.Test;
+
+public class IssueDetailsCacheTest {
+
+    /**
+     * Test details are reused until a newer stamp is listed or the issue is
+     * changed through the client
+     */
+    @Test
+    public void testStampValidation() throws Exception {
+        MemoryTransport server = new MemoryTransport();
+        server.respond("LIST TYPES", "T 1 'Bugs'");
+        server.respond("LIST PROJECTS", "P 1 'Project'\nF 100 1 'Open' 1 20");
+        server.respond("LIST USERS", "U 1 'admin' 'Administrator' 2");
+        server.respond("GET DETAILS 7", "I 7 100 'Crash' 20 1000 1 2000 1");
+        server.respond("LIST ISSUES 100", "I 7 100 'Crash' 20 1000 1 2000 1");
+        server.respond("RENAME ISSUE", "ID 21");
+        Client client = MemoryTransportTest.connect(server);
+        client.setIssueDetailsCache(new IssueDetailsCache(1024 * 1024));
+
+        IssueDetails details = client.getIssueDetails(7, new OperationAdapter());
+        assertSame(details, client.getIssueDetails(7, new OperationAdapter()));
+        assertEquals(1, count(server, "GET DETAILS 7 "));
+
+        // Same stamp listed, so still valid
+        Folder folder = client.getEnvironment().getProjects().getFolder(100);
+        folder.getIssues(new OperationAdapter(), 0, null);
+        assertSame(details, client.getIssueDetails(7, new OperationAdapter()));
+
+        // Changed by someone else
+        server.respond("LIST ISSUES 100", "I 7 100 'Crashes' 21 1000 1 2000 1");
+        server.respond("GET DETAILS 7", "I 7 100 'Crashes' 21 1000 1 2000 1");
+        folder.getIssues(new OperationAdapter(), 0, null);
+        assertEquals("Crashes", client.getIssueDetails(7, new OperationAdapter()).getIssue().getName());
+        assertEquals(2, count(server, "GET DETAILS 7 "));
+
+        // Changed through the client
+        client.renameIssue(7, "Crashed", new OperationAdapter());
+        client.getIssueDetails(7, new OperationAdapter());
+        assertEquals(3, count(server, "GET DETAILS 7 "));
+    }
+
+    /**
+     * Test only the history since cached details is asked for, and merged with
+     * the cached history
+     */
+    @Test
+    public void testIncremental() throws Exception {
+        MemoryTransport server = new MemoryTransport();
+        server.respond("LIST TYPES", "T 1 'Bugs'\nA 10 1 'Severity' 'TEXT'");
+        server.respond("LIST PROJECTS", "P 1 'Project'\nF 100 1 'Open' 1 30");
+        server.respond("LIST USERS", "U 1 'admin' 'Administrator' 2");
+        server.respond("GET DETAILS 7 0", "I 7 100 'Crash' 22 1000 1 2000 1\nV 10 7 'High'\n"
+                        + "H 20 7 4 20 1000 1 1000 1 0 '' '' 0 0\nC 20 'First'\n"
+                        + "H 22 7 2 22 2000 1 2000 1 10 'Low' 'High' 0 0");
+        server.respond("GET DETAILS 7 22", "I 7 100 'Crash' 23 1000 1 3000 1\nV 10 7 'High'\n"
+                        + "H 23 7 4 23 3000 1 3000 1 0 '' '' 0 0\nC 23 'Second'");
+        server.respond("LIST ISSUES 100", "I 7 100 'Crash' 23 1000 1 3000 1");
+        Client client = MemoryTransportTest.connect(server);
+        client.setIssueDetailsCache(new IssueDetailsCache(1024 * 1024));
+
+        IssueDetails details = client.getIssueDetails(7, new OperationAdapter());
+        assertEquals(1, details.getComments().size());
+        assertEquals(1, details.getChanges().size());
+
+        client.getEnvironment().getProjects().getFolder(100).getIssues(new OperationAdapter(), 0, null);
+        IssueDetails updated = client.getIssueDetails(7, new OperationAdapter());
+        assertEquals(1, count(server, "GET DETAILS 7 22 "));
+        assertEquals(23, updated.getIssue().getStamp());
+        assertEquals(2, updated.getComments().size());
+        assertEquals(1, updated.getChanges().size());
+        for (Comment comment : updated.getComments()) {
+            assertSame(updated.getIssue(), comment.getIssue());
+        }
+        // The cached details the merge started from are left alone
+        assertEquals(1, details.getComments().size());
+        assertSame(details.getIssue(), details.getComments().iterator().next().getIssue());
+        assertEquals("Second", updated.getComments().toArray(new Comment[0])[1].getText());
+        assertEquals("High", updated.getIssue().getAttributeValueByName("Severity"));
+    }
+
+    /**
+     * Test details last fully retrieved longer ago than the refresh interval
+     * are retrieved in full again, dropping a comment deleted since
+     */
+    @Test
+    public void testRefreshInterval() throws Exception {
+        MemoryTransport server = new MemoryTransport();
+        server.respond("LIST TYPES", "T 1 'Bugs'");
+        server.respond("LIST PROJECTS", "P 1 'Project'\nF 100 1 'Open' 1 30");
+        server.respond("LIST USERS", "U 1 'admin' 'Administrator' 2");
+        server.respond("GET DETAILS 7 0", "I 7 100 'Crash' 20 1000 1 2000 1\n"
+                        + "H 20 7 4 20 1000 1 1000 1 0 '' '' 0 0\nC 20 'First'");
+        server.respond("LIST ISSUES 100", "I 7 100 'Crash' 23 1000 1 3000 1");
+        Client client = MemoryTransportTest.connect(server);
+        IssueDetailsCache cache = new IssueDetailsCache(1024 * 1024);
+        assertEquals(IssueDetailsCache.DEFAULT_REFRESH_INTERVAL, cache.getRefreshInterval());
+        cache.setRefreshInterval(0);
+        client.setIssueDetailsCache(cache);
+        assertEquals(1, client.getIssueDetails(7, new OperationAdapter()).getComments().size());
+
+        // First comment deleted and another added by someone else
+        server.respond("GET DETAILS 7 0", "I 7 100 'Crash' 23 1000 1 3000 1\n"
+                        + "H 23 7 4 23 3000 1 3000 1 0 '' '' 0 0\nC 23 'Second'");
+        client.getEnvironment().getProjects().getFolder(100).getIssues(new OperationAdapter(), 0, null);
+        IssueDetails updated = client.getIssueDetails(7, new OperationAdapter());
+        assertEquals(0, count(server, "GET DETAILS 7 20 "));
+        assertEquals(2, count(server, "GET DETAILS 7 0 "));
+        assertEquals(1, updated.getComments().size());
+        assertEquals("Second", updated.getComments().iterator().next().getText());
+    }
+
+    /**
+     * Test the least recently used details are evicted when the size limit is
+     * reached
+     */
+    @Test
+    public void testEviction() throws Exception {
+        Environment environment = new Environment(null);
+        IssueType type = new IssueType(environment.getTypes(), 1, "Bugs");
+        Folder folder = new Folder(null, new Project(environment.getProjects(), 1, "Project"), 100, "Open", type, 20);
+        IssueDetails small1 = details(1, folder, 0);
+        IssueDetails small2 = details(2, folder, 0);
+        IssueDetails large = details(3, folder, 20);
+        long smallSize = IssueDetailsCache.estimateSize(small1);
+        long largeSize = IssueDetailsCache.estimateSize(large);
+        assertTrue(largeSize > smallSize * 2);
+
+        IssueDetailsCache cache = new IssueDetailsCache(largeSize + smallSize);
+        cache.put(small1);
+        cache.put(small2);
+        assertNotNull(cache.get(1));
+        cache.put(large);
+        assertNull(cache.get(2));
+        assertNotNull(cache.get(1));
+        assertNotNull(cache.get(3));
+        assertEquals(largeSize + smallSize, cache.getSize());
+    }
+
+    private static IssueDetails details(int issueId, Folder folder, int comments) {
+        Calendar now = Calendar.getInstance();
+        Issue issue = new Issue(issueId, 1, "Issue " + issueId, now, null, now, null, folder);
+        IssueDetails details = new IssueDetails(null, issue);
+        for (int i = 0; i < comments; i++) {
+            details.getComments().add(new Comment(issue, "A fairly long comment about what went wrong, number " + i, null));
+        }
+        return details;
+    }
+
+    private static int count(MemoryTransport server, String prefix) {
+        int count = 0;
+        for (String c : server.getCommands()) {
+            if (c.startsWith(prefix)) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
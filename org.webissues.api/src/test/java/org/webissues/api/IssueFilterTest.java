@@ -0,0 +1,96 @@
+package org.webissues.api;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Calendar;
+
+import org.junit.Test;
+import org.webissues.api.Attribute.AttributeType;
+
+public class IssueFilterTest {
+
+    private final Environment environment = new Environment(null);
+    private final IssueType type = new IssueType(environment.getTypes(), 1, "Bugs");
+    private final Attribute severity = new Attribute(type, 10, "Severity", AttributeType.TEXT, false);
+    private final Attribute estimate = new Attribute(type, 11, "Estimate", AttributeType.NUMERIC, false);
+    private final User joe = new User(environment, 1, "joe", "Joe", Access.NORMAL);
+    private final User fred = new User(environment, 2, "fred", "Fred", Access.NORMAL);
+    private final Project project = new Project(environment.getProjects(), 1, "Project");
+    private final Folder folder = new Folder(null, project, 100, "Open", type, 20);
+
+    /**
+     * Test less than conditions compare in the right direction
+     */
+    @Test
+    public void testNumeric() throws Exception {
+        Issue issue = issue("Crash", "High", "5");
+        assertTrue(matches(issue, ConditionType.LT, estimate, "10"));
+        assertTrue(matches(issue, ConditionType.LTE, estimate, "5"));
+        assertFalse(matches(issue, ConditionType.LT, estimate, "5"));
+        assertFalse(matches(issue, ConditionType.LTE, estimate, "4"));
+        assertTrue(matches(issue, ConditionType.GT, estimate, "4.5"));
+        assertTrue(matches(issue, ConditionType.GTE, estimate, "5"));
+        assertFalse(matches(issue, ConditionType.GT, estimate, "5"));
+        assertFalse(matches(issue, ConditionType.GT, estimate, "not a number"));
+        assertFalse(matches(issue("Crash", "High", null), ConditionType.LT, estimate, "10"));
+
+        Attribute created = type.get(IssueType.CREATED_DATE_ATTR_ID);
+        long seconds = issue.getCreatedDate().getTimeInMillis() / 1000;
+        assertTrue(matches(issue, ConditionType.GTE, created, String.valueOf(seconds)));
+        assertFalse(matches(issue, ConditionType.LT, created, String.valueOf(seconds)));
+    }
+
+    /**
+     * Test the text conditions ignore case
+     */
+    @Test
+    public void testText() throws Exception {
+        Issue issue = issue("Crash on startup", "High", "5");
+        Attribute name = type.get(IssueType.NAME_ATTR_ID);
+        assertTrue(matches(issue, ConditionType.BEG, name, "crash"));
+        assertTrue(matches(issue, ConditionType.END, name, "STARTUP"));
+        assertTrue(matches(issue, ConditionType.CON, name, "on"));
+        assertTrue(matches(issue, ConditionType.EQ, severity, "high"));
+        assertFalse(matches(issue, ConditionType.NEQ, severity, "high"));
+        assertTrue(matches(issue, ConditionType.IN, severity, "Low:High"));
+        assertFalse(matches(issue, ConditionType.IN, severity, "Low:Medium"));
+        assertTrue(matches(issue, ConditionType.EQ, type.get(IssueType.MODIFIED_BY_ATTR_ID), "fred"));
+        assertTrue(matches(issue, ConditionType.EQ, type.get(IssueType.CREATED_BY_ATTR_ID), "joe"));
+        assertTrue(new IssueFilter(Arrays.asList(new Condition(ConditionType.EQ, severity, "High"), new Condition(
+                        ConditionType.CON, name, "start"))).matches(issue));
+        assertFalse(new IssueFilter(Arrays.asList(new Condition(ConditionType.EQ, severity, "High"), new Condition(
+                        ConditionType.CON, name, "stop"))).matches(issue));
+    }
+
+    /**
+     * Test one filter gives the right answers for many issues, whether their
+     * values are shared (enumerations, folders) or not (issue names)
+     */
+    @Test
+    public void testReusedFilter() throws Exception {
+        Attribute status = new Attribute(type, 12, "Status", AttributeType.ENUM, false);
+        Attribute name = type.get(IssueType.NAME_ATTR_ID);
+        IssueFilter filter = new IssueFilter(Arrays.asList(new Condition(ConditionType.EQ, status, "open"), new Condition(
+                        ConditionType.EQ, type.get(IssueType.FOLDER_ATTR_ID), "open"), new Condition(ConditionType.NEQ, name,
+                        "ignored")));
+        for (int i = 0; i < 100; i++) {
+            Issue issue = issue(i == 50 ? "Ignored" : "Issue " + i, "High", "5");
+            issue.put(status, status.getValueDictionary().intern(i % 2 == 0 ? "Open" : "Closed"));
+            assertTrue(filter.matches(issue) == (i % 2 == 0 && i != 50));
+        }
+    }
+
+    private boolean matches(Issue issue, ConditionType conditionType, Attribute attribute, String value) {
+        return new IssueFilter(Arrays.asList(new Condition(conditionType, attribute, value))).matches(issue);
+    }
+
+    private Issue issue(String name, String severityValue, String estimateValue) {
+        Calendar now = Calendar.getInstance();
+        Issue issue = new Issue(1, 10, name, now, joe, now, fred, folder);
+        issue.put(severity, severityValue);
+        issue.put(estimate, estimateValue);
+        return issue;
+    }
+}
@@ -0,0 +1,72 @@
+package org.webissues.api;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.webissues.api.Attribute.AttributeType;
+
+/**
+ * Measures the heap used by a large number of issues, compared with the same
+ * values held the way issues were before, in a {@link HashMap} of values plus
+ * two {@link Calendar}s each. Run as a Java application, ideally with a fixed
+ * heap (e.g. <code>-Xms1g -Xmx1g</code>) so the figures are stable.
+ */
+public class IssueFootprintBenchmark {
+
+    private static final int ISSUES = 100000;
+    private static final int ATTRIBUTES = 12;
+    private static final int RUNS = 3;
+
+    public static void main(String[] args) {
+        Environment environment = new Environment(null);
+        IssueType type = new IssueType(environment.getTypes(), 1, "Bugs");
+        Attribute[] attributes = new Attribute[ATTRIBUTES];
+        for (int i = 0; i < ATTRIBUTES; i++) {
+            attributes[i] = new Attribute(type, i + 1, "Attribute " + (i + 1), AttributeType.TEXT, false);
+            type.addAttribute(attributes[i]);
+        }
+        User user = new User(environment, 1, "joe", "Joe", Access.NORMAL);
+        Folder folder = new Folder(null, new Project(environment.getProjects(), 1, "Project"), 1, "Folder", type, 0);
+        // Values are shared, as they would be for enumerations
+        String[] values = new String[] { "Low", "Medium", "High", "Open", "Closed", "1.0", "2.0" };
+
+        for (int run = 1; run <= RUNS; run++) {
+            long before = used();
+            List<Issue> issues = new ArrayList<Issue>(ISSUES);
+            for (int i = 0; i < ISSUES; i++) {
+                Calendar now = Calendar.getInstance();
+                Issue issue = new Issue(i, i, "Issue " + i, now, user, now, user, folder);
+                for (int j = 0; j < ATTRIBUTES; j++) {
+                    issue.put(attributes[j], values[(i + j) % values.length]);
+                }
+                issues.add(issue);
+            }
+            long compact = used() - before;
+
+            before = used();
+            List<Object[]> maps = new ArrayList<Object[]>(ISSUES);
+            for (int i = 0; i < ISSUES; i++) {
+                Map<Attribute, String> map = new HashMap<Attribute, String>();
+                for (int j = 0; j < ATTRIBUTES; j++) {
+                    map.put(attributes[j], values[(i + j) % values.length]);
+                }
+                maps.add(new Object[] { "Issue " + i, Calendar.getInstance(), Calendar.getInstance(), map });
+            }
+            long hashed = used() - before;
+
+            System.out.println("Run " + run + ": compact " + (compact / ISSUES) + " bytes/issue, map "
+                            + (hashed / ISSUES) + " bytes/issue (" + issues.size() + ", " + maps.size() + ")");
+        }
+    }
+
+    private static long used() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,88 @@
+package org.webissues.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+
+import org.junit.Test;
+import org.webissues.api.Attribute.AttributeType;
+
+public class IssueStoreTest {
+
+    /**
+     * Test deltas are merged, moved issues leave their old folder and the
+     * store survives being saved and loaded
+     */
+    @Test
+    public void testMergeAndReload() throws Exception {
+        Environment environment = new Environment(null);
+        IssueType type = new IssueType(environment.getTypes(), 1, "Bugs");
+        Attribute severity = new Attribute(type, 10, "Severity", AttributeType.TEXT, false);
+        type.addAttribute(severity);
+        environment.getTypes().put(type.getId(), type);
+        User joe = new User(environment, 1, "joe", "Joe", Access.NORMAL);
+        environment.getUsers().add(joe);
+        Project project = new Project(environment.getProjects(), 1, "Project");
+        Folder open = new Folder(null, project, 100, "Open", type, 20);
+        Folder closed = new Folder(null, project, 101, "Closed", type, 30);
+        project.add(open);
+        project.add(closed);
+        environment.getProjects().add(project);
+
+        File file = File.createTempFile("issues", ".dat");
+        file.delete();
+        try {
+            IssueStore store = new IssueStore(file, "http://localhost/webissues");
+            store.update(open, Arrays.asList(issue(1, 10, "First", joe, open, severity, "High"), issue(2, 15, "Second", joe,
+                open, severity, "Low")), true);
+            assertEquals(20, store.getStamp(open));
+            assertEquals(0, store.getStamp(closed));
+            assertTrue(store.getRefreshed(open) > 0);
+            store.update(closed, new ArrayList<Issue>(), true);
+            assertEquals(30, store.getStamp(closed));
+
+            // Second issue changed and moved
+            store.update(closed, Arrays.asList(issue(2, 35, "Second (closed)", joe, closed, severity, "Low")), false);
+            assertEquals(35, store.getStamp(closed));
+            assertEquals(1, store.getIssues(open, null).size());
+            assertTrue(store.isModified());
+            store.save();
+            assertFalse(store.isModified());
+
+            IssueStore loaded = new IssueStore(file, "http://localhost/webissues");
+            loaded.load();
+            assertEquals(20, loaded.getStamp(open));
+            assertEquals(35, loaded.getStamp(closed));
+            assertEquals(store.getRefreshed(open), loaded.getRefreshed(open));
+            Collection<Issue> issues = loaded.getIssues(closed, null);
+            assertEquals(1, issues.size());
+            Issue issue = issues.iterator().next();
+            assertEquals(2, issue.getId());
+            assertEquals("Second (closed)", issue.getName());
+            assertSame(joe, issue.getCreatedUser());
+            assertSame(closed, issue.getFolder());
+            assertEquals("Low", issue.get(severity));
+            assertEquals(1, loaded.getIssues(closed, new int[] { 1, 2 }, null).size());
+
+            // Another server's store is ignored
+            IssueStore other = new IssueStore(file, "http://otherhost/webissues");
+            other.load();
+            assertEquals(0, other.getStamp(open));
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static Issue issue(int id, long stamp, String name, User user, Folder folder, Attribute attribute, String value) {
+        Issue issue = new Issue(id, stamp, name, Util.toCalendarFromSeconds(1268680663), user, Util
+                        .toCalendarFromSeconds(1268680663 + stamp), user, folder);
+        issue.put(attribute, value);
+        return issue;
+    }
+}
@@ -0,0 +1,110 @@
+package org.webissues.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ObjectInputStream;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.junit.Test;
+import org.webissues.api.Attribute.AttributeType;
+
+public class IssueTest {
+
+    /**
+     * Test the compact values behave as a map, including values of attributes
+     * that have no slot in the issue's type
+     */
+    @Test
+    public void testValues() {
+        Environment environment = new Environment(null);
+        IssueType bugs = new IssueType(environment.getTypes(), 1, "Bugs");
+        Attribute severity = new Attribute(bugs, 10, "Severity", AttributeType.TEXT, false);
+        bugs.addAttribute(severity);
+        Attribute version = new Attribute(bugs, 11, "Version", AttributeType.TEXT, false);
+        bugs.addAttribute(version);
+        IssueType tasks = new IssueType(environment.getTypes(), 2, "Tasks");
+        Attribute owner = new Attribute(tasks, 20, "Owner", AttributeType.TEXT, false);
+        tasks.addAttribute(owner);
+        User joe = new User(environment, 1, "joe", "Joe", Access.NORMAL);
+        Folder folder = new Folder(null, new Project(environment.getProjects(), 1, "Project"), 100, "Open", bugs, 20);
+
+        Issue issue = new Issue(1, 10, "Crash", Util.toCalendarFromSeconds(1268680663), joe, null, joe, folder);
+        assertEquals(1268680663000L, issue.getCreatedDate().getTimeInMillis());
+        assertNull(issue.getModifiedDate());
+        assertTrue(issue.isEmpty());
+
+        issue.put(version, "1.0");
+        issue.put(owner, "joe");
+        issue.put(null, "unknown");
+        assertEquals(3, issue.size());
+        assertEquals("1.0", issue.get(version));
+        assertEquals("joe", issue.get(owner));
+        assertNull(issue.get(severity));
+        assertFalse(issue.containsKey(severity));
+        assertTrue(issue.containsKey(null));
+        assertEquals("1.0", issue.getAttributeValueByName("Version"));
+
+        // An attribute added after the issue was created
+        Attribute due = new Attribute(bugs, 12, "Due", AttributeType.TEXT, false);
+        bugs.addAttribute(due);
+        issue.put(due, "Friday");
+        assertEquals("Friday", issue.get(due));
+
+        Map<Attribute, String> copy = new HashMap<Attribute, String>(issue);
+        assertEquals(4, copy.size());
+        assertEquals(copy, issue);
+
+        for (Iterator<Map.Entry<Attribute, String>> it = issue.entrySet().iterator(); it.hasNext();) {
+            Map.Entry<Attribute, String> entry = it.next();
+            if (entry.getKey() == version || entry.getKey() == owner) {
+                it.remove();
+            }
+        }
+        assertEquals(2, issue.size());
+        assertNull(issue.get(version));
+        assertNull(issue.get(owner));
+        issue.put(due, null);
+        assertFalse(issue.containsKey(due));
+        assertEquals(1, issue.size());
+    }
+
+    /**
+     * Test types saved before attributes had slots can be loaded back in,
+     * and their attributes are given slots when first needed
+     */
+    @Test
+    public void testLoadTypesWithoutSlots() throws Exception {
+        // Written by the 1.0 classes, with attributes 10 and 11 of type 1
+        ObjectInputStream in = new ObjectInputStream(getClass().getResourceAsStream("types-1.0.ser"));
+        IssueTypes types;
+        try {
+            types = (IssueTypes) in.readObject();
+        } finally {
+            in.close();
+        }
+        IssueType bugs = types.get(1);
+        Attribute severity = bugs.get(10);
+        Attribute owner = bugs.get(11);
+        Issue issue = new Issue(1, 10, "Crash", null, null, null, null, null);
+        issue.put(severity, "High");
+        issue.put(owner, "joe");
+        assertEquals("High", issue.get(severity));
+        assertEquals("joe", issue.get(owner));
+        assertEquals(2, bugs.getSlotCount());
+        assertNotSame(bugs.getSlotAttribute(0), bugs.getSlotAttribute(1));
+
+        Attribute version = new Attribute(bugs, 12, "Version", AttributeType.TEXT, false);
+        bugs.addAttribute(version);
+        issue.put(version, "1.0");
+        assertEquals(3, bugs.getSlotCount());
+        assertEquals("1.0", issue.get(version));
+        assertEquals("High", issue.get(severity));
+        assertEquals(3, issue.size());
+    }
+}
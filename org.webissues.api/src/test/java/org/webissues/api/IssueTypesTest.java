@@ -0,0 +1,84 @@
+package org.webissues.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+import org.webissues.api.Attribute.AttributeType;
+
+public class IssueTypesTest {
+
+    /**
+     * Test the attribute index follows attributes being added and removed
+     */
+    @Test
+    public void testAttributeIndex() {
+        IssueTypes types = new IssueTypes(null);
+        IssueType bugs = new IssueType(types, 1, "Bugs");
+        Attribute severity = new Attribute(bugs, 10, "Severity", AttributeType.ENUM, false);
+        bugs.put(severity.getId(), severity);
+        types.put(bugs.getId(), bugs);
+        types.reindex();
+        assertSame(severity, types.getAttribute(10));
+        assertNull(types.getAttribute(11));
+
+        IssueType tasks = new IssueType(types, 2, "Tasks");
+        types.put(tasks.getId(), tasks);
+        Attribute owner = new Attribute(tasks, 11, "Owner", AttributeType.USER, false);
+        tasks.addAttribute(owner);
+        assertSame(owner, types.getAttribute(11));
+
+        bugs.removeAttribute(severity);
+        assertNull(types.getAttribute(10));
+        assertSame(owner, types.getAttribute(11));
+
+        types.remove(tasks.getId());
+        assertNull(types.getAttribute(11));
+        assertSame(bugs.get(IssueType.NAME_ATTR_ID), types.getAttribute(IssueType.NAME_ATTR_ID));
+    }
+
+    /**
+     * Test types are only listed once, and reloading the environment keeps the
+     * same objects unless the server's lists have changed, when everything
+     * that refers to the changed objects is replaced too
+     */
+    @Test
+    public void testReloadDetectsChanges() throws Exception {
+        MemoryTransport server = new MemoryTransport();
+        server.respond("LIST TYPES", "T 1 'Bugs'\nA 10 1 'Severity' 'TEXT'");
+        server.respond("LIST PROJECTS", "P 1 'Project'\nF 100 1 'Open' 1 20");
+        server.respond("LIST USERS", "U 1 'admin' 'Administrator' 2\nM 1 1 2");
+        Client client = MemoryTransportTest.connect(server);
+        assertEquals(1, count(server, "LIST TYPES"));
+
+        IEnvironment environment = client.getEnvironment();
+        IssueType type = environment.getTypes().get(1);
+        Folder folder = environment.getProjects().getFolder(100);
+        User user = environment.getUsers().get(1);
+        environment.reload(client, new OperationAdapter());
+        assertEquals(2, count(server, "LIST TYPES"));
+        assertSame(type, environment.getTypes().get(1));
+        assertSame(folder, environment.getProjects().getFolder(100));
+        assertSame(user, environment.getUsers().get(1));
+
+        server.respond("LIST TYPES", "T 1 'Bugs'\nA 10 1 'Severity' 'TEXT'\nA 11 1 'Owner' 'USER'");
+        environment.reload(client, new OperationAdapter());
+        IssueType newType = environment.getTypes().get(1);
+        assertNotSame(type, newType);
+        assertEquals("Owner", environment.getTypes().getAttribute(11).getName());
+        assertSame(newType, environment.getProjects().getFolder(100).getType());
+        assertSame(environment.getProjects().get(1), environment.getUsers().get(1).get(1).getProject());
+    }
+
+    private static int count(MemoryTransport server, String command) {
+        int count = 0;
+        for (String sent : server.getCommands()) {
+            if (sent.equals(command)) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,130 @@
+package org.webissues.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class MemoryTransportTest {
+
+    /**
+     * Test a client can log in to, and read issues from, a scripted server
+     */
+    @Test
+    public void testConnectAndListIssues() throws Exception {
+        MemoryTransport server = new MemoryTransport();
+        server.respond("LIST TYPES", "T 1 'Bugs'\nA 10 1 'Severity' 'TEXT'");
+        server.respond("LIST PROJECTS", "P 1 'Project'\nF 100 1 'Open' 1 20");
+        server.respond("LIST USERS", "U 1 'admin' 'Administrator' 2");
+        server.respond("LIST ISSUES 100", "I 7 100 'Crash' 20 1000 1 2000 1\nV 10 7 'High'");
+
+        Client client = connect(server);
+        assertEquals("1.0", client.getEnvironment().getVersion());
+        assertEquals(Access.ADMIN, client.getEnvironment().getOwnerUser().getAccess());
+
+        Folder folder = client.getEnvironment().getProjects().getFolder(100);
+        Collection<Issue> issues = folder.getIssues(new OperationAdapter(), 0, null);
+        assertEquals(1, issues.size());
+        Issue issue = issues.iterator().next();
+        assertEquals("Crash", issue.getName());
+        assertEquals("High", issue.getAttributeValueByName("Severity"));
+        assertTrue(server.getCommands().containsAll(Arrays.asList("HELLO", "LIST ISSUES 100 0", "LIST STATES 0")));
+    }
+
+    /**
+     * Test streamed issues are collected in order once their values are read,
+     * and a value for an issue already collected fails the call
+     */
+    @Test
+    public void testCollectIssues() throws Exception {
+        MemoryTransport server = new MemoryTransport();
+        server.respond("LIST TYPES", "T 1 'Bugs'\nA 10 1 'Severity' 'TEXT'");
+        server.respond("LIST PROJECTS", "P 1 'Project'\nF 100 1 'Open' 1 20");
+        server.respond("LIST ISSUES 100", "I 7 100 'Crash' 20 1000 1 2000 1\nI 8 100 'Hang' 20 1000 1 2000 1\n"
+                        + "V 10 7 'High'\nV 10 8 'Low'");
+        Client client = connect(server);
+        Folder folder = client.getEnvironment().getProjects().getFolder(100);
+        final List<Issue> collected = new ArrayList<Issue>();
+        ResultCollector collector = new ResultCollector() {
+            public void found(Issue issue) {
+                collected.add(issue);
+            }
+        };
+        folder.getIssues(new OperationAdapter(), 0, null, collector);
+        assertEquals(2, collected.size());
+        assertEquals("High", collected.get(0).getAttributeValueByName("Severity"));
+        assertEquals("Low", collected.get(1).getAttributeValueByName("Severity"));
+
+        collected.clear();
+        server.respond("LIST ISSUES 100", "I 7 100 'Crash' 20 1000 1 2000 1\nI 8 100 'Hang' 20 1000 1 2000 1\n"
+                        + "V 10 7 'High'\nV 10 8 'Low'\nV 10 7 'Medium'");
+        folder.getIssues(new OperationAdapter(), 0, null, collector);
+
+        // The late value makes the folder be listed again, passing every issue again
+        assertEquals(4, collected.size());
+        assertEquals("High", collected.get(0).getAttributeValueByName("Severity"));
+        Map<Integer, Issue> latest = new HashMap<Integer, Issue>();
+        for (Issue issue : collected) {
+            latest.put(issue.getId(), issue);
+        }
+        assertEquals("Medium", latest.get(7).getAttributeValueByName("Severity"));
+        assertEquals("Low", latest.get(8).getAttributeValueByName("Severity"));
+    }
+
+    /**
+     * Test compressed responses are decoded, and the byte counters show the
+     * saving
+     */
+    @Test
+    public void testCompression() throws Exception {
+        StringBuilder rows = new StringBuilder();
+        for (int i = 1; i <= 200; i++) {
+            rows.append("I " + i + " 100 'Issue " + i + "' " + i + " 1000 1 2000 1\nV 10 " + i + " 'High'\n");
+        }
+        MemoryTransport server = new MemoryTransport();
+        server.respond("LIST TYPES", "T 1 'Bugs'\nA 10 1 'Severity' 'TEXT'");
+        server.respond("LIST PROJECTS", "P 1 'Project'\nF 100 1 'Open' 1 200");
+        server.respond("LIST ISSUES 100", rows.toString());
+        server.setCompression(true);
+
+        Client client = connect(server);
+        Folder folder = client.getEnvironment().getProjects().getFolder(100);
+        long before = client.getResponseBytes();
+        assertEquals(before, client.getDecodedResponseBytes());
+        client.setCompression(true);
+        assertEquals(200, folder.getIssues(new OperationAdapter(), 0, null).size());
+        long transferred = client.getResponseBytes() - before;
+        long decoded = client.getDecodedResponseBytes() - before;
+        assertTrue(decoded >= rows.length());
+        assertTrue(transferred * 5 < decoded);
+    }
+
+    static Client connect(MemoryTransport server) throws Exception {
+        Client client = new Client(null);
+        client.setTransport(server);
+        client.setUrl(new URL("http://localhost/webissues"));
+        client.setAuthenticator(new Authenticator() {
+            public Credentials getCredentials(URL url) {
+                return new Credentials() {
+                    public String getUsername() {
+                        return "admin";
+                    }
+
+                    public char[] getPassword() {
+                        return "secret".toCharArray();
+                    }
+                };
+            }
+        });
+        client.connect(new OperationAdapter());
+        return client;
+    }
+}
@@ -0,0 +1,142 @@
+package org.webissues.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class ProjectsTest {
+
+    /**
+     * Test the folder index follows projects and folders being added and
+     * removed
+     */
+    @Test
+    public void testFolderIndex() {
+        Projects projects = new Projects(null);
+        IssueTypes types = new IssueTypes(null);
+        IssueType bugs = new IssueType(types, 1, "Bugs");
+        IssueType tasks = new IssueType(types, 2, "Tasks");
+
+        Project project = new Project(projects, 1, "Project");
+        Folder bugFolder = new Folder(null, project, 10, "Bugs", bugs, 0);
+        project.add(bugFolder);
+        projects.add(project);
+        assertSame(bugFolder, projects.getFolder(10));
+        assertEquals(1, projects.getFolders(bugs).size());
+        assertEquals(0, projects.getFolders(tasks).size());
+
+        Folder taskFolder = new Folder(null, project, 11, "Tasks", tasks, 0);
+        project.add(taskFolder);
+        assertSame(taskFolder, projects.getFolder(11));
+        assertEquals(1, projects.getFolders(tasks).size());
+
+        project.remove(bugFolder);
+        assertNull(projects.getFolder(10));
+        assertEquals(0, projects.getFolders(bugs).size());
+
+        projects.remove(project);
+        assertNull(projects.getFolder(11));
+        assertEquals(0, projects.getFolders(tasks).size());
+    }
+
+    /**
+     * Test only new folders and those whose stamp moved need querying
+     */
+    @Test
+    public void testChangedFolders() {
+        Projects projects = new Projects(null);
+        IssueType bugs = new IssueType(new IssueTypes(null), 1, "Bugs");
+        Project project = new Project(projects, 1, "Project");
+        Folder quiet = new Folder(null, project, 10, "Quiet", bugs, 20);
+        Folder busy = new Folder(null, project, 11, "Busy", bugs, 35);
+        Folder added = new Folder(null, project, 12, "Added", bugs, 5);
+        project.add(quiet);
+        project.add(busy);
+        project.add(added);
+        projects.add(project);
+
+        Map<Folder, Long> stamps = new HashMap<Folder, Long>();
+        assertEquals(3, projects.getChangedFolders(stamps).size());
+        stamps.put(quiet, 20L);
+        stamps.put(busy, 30L);
+        List<Folder> changed = projects.getChangedFolders(stamps);
+        assertEquals(Arrays.asList(busy, added), changed);
+    }
+
+    /**
+     * Test reloading projects where only folder stamps have changed keeps the
+     * same folders, projects and users, with the new stamps
+     */
+    @Test
+    public void testReloadUpdatesStamps() throws Exception {
+        MemoryTransport server = new MemoryTransport();
+        server.respond("LIST TYPES", "T 1 'Bugs'");
+        server.respond("LIST PROJECTS", "P 1 'Project'\nF 100 1 'Open' 1 20\nF 101 1 'Closed' 1 30");
+        server.respond("LIST USERS", "U 1 'admin' 'Administrator' 2\nM 1 1 2");
+        Client client = MemoryTransportTest.connect(server);
+        IEnvironment environment = client.getEnvironment();
+        Project project = environment.getProjects().get(1);
+        Folder open = environment.getProjects().getFolder(100);
+        Folder closed = environment.getProjects().getFolder(101);
+        User user = environment.getUsers().get(1);
+        String digest = environment.getProjects().getListDigest();
+        String usersDigest = environment.getUsers().getListDigest();
+        assertNotNull(digest);
+
+        server.respond("LIST PROJECTS", "P 1 'Project'\nF 100 1 'Open' 1 25\nF 101 1 'Closed' 1 30");
+        environment.reload(client, new OperationAdapter());
+        assertSame(project, environment.getProjects().get(1));
+        assertSame(open, environment.getProjects().getFolder(100));
+        assertSame(closed, environment.getProjects().getFolder(101));
+        assertSame(user, environment.getUsers().get(1));
+        assertEquals(25, open.getStamp());
+        assertEquals(30, closed.getStamp());
+        assertEquals(digest, environment.getProjects().getListDigest());
+
+        server.respond("LIST PROJECTS", "P 1 'Project'\nF 100 1 'Still open' 1 25\nF 101 1 'Closed' 1 30");
+        environment.reload(client, new OperationAdapter());
+        assertEquals("Still open", environment.getProjects().getFolder(100).getName());
+        assertNotSame(open, environment.getProjects().getFolder(100));
+        assertFalse(digest.equals(environment.getProjects().getListDigest()));
+        assertEquals(usersDigest, environment.getUsers().getListDigest());
+    }
+
+    /**
+     * Test reloading changed projects while the types are kept replaces the
+     * alerts of the types' views, rather than adding to the old ones
+     */
+    @Test
+    public void testReloadReplacesAlerts() throws Exception {
+        MemoryTransport server = new MemoryTransport();
+        server.respond("LIST TYPES", "T 1 'Bugs'\nV 5 1 'Mine' 'VIEW'");
+        server.respond("LIST PROJECTS", "P 1 'Project'\nF 100 1 'Open' 1 20\nA 50 100 5 0");
+        server.respond("LIST USERS", "U 1 'admin' 'Administrator' 2\nM 1 1 2");
+        Client client = MemoryTransportTest.connect(server);
+        IEnvironment environment = client.getEnvironment();
+        View view = environment.getTypes().get(1).getViews().get(5);
+        Folder folder = environment.getProjects().getFolder(100);
+        assertSame(folder, view.get(50).getFolder());
+
+        server.respond("LIST PROJECTS", "P 1 'Project'\nF 100 1 'Open' 1 21\nA 51 100 5 1");
+        environment.reload(client, new OperationAdapter());
+        assertSame(view, environment.getTypes().get(1).getViews().get(5));
+        Folder newFolder = environment.getProjects().getFolder(100);
+        assertNotSame(folder, newFolder);
+        Collection<Alert> alerts = view.values();
+        assertEquals(1, alerts.size());
+        Alert alert = alerts.iterator().next();
+        assertEquals(51, alert.getId());
+        assertSame(newFolder, alert.getFolder());
+    }
+}
@@ -0,0 +1,135 @@
+package org.webissues.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class ResponseReaderTest {
+
+    /**
+     * Test rows are split exactly as {@link Util#parseLine(String)} splits them
+     */
+    @Test
+    public void testSameAsParseLine() throws Exception {
+        String[] lines = new String[] {
+                        "A 'quoted text' 'quote text with a quote (\\') inside it' 'quoted text with a\\nnewline' unquoted 1 2 3 items={\"1\",\"2\\'t\",\"3\"}",
+                        "H 28 25 1268680663 1 4 'Duplicate' ''", "I 12 3 'Caf\u00e9 \u00fcber' 5 1268680663 1 1268680663 2" };
+        for (String line : lines) {
+            ResponseReader reader = reader(line);
+            assertTrue(reader.nextRow());
+            assertEquals(Util.parseLine(line), reader.toList());
+            assertFalse(reader.nextRow());
+        }
+    }
+
+    /**
+     * Test numeric fields are parsed without going through strings
+     */
+    @Test
+    public void testNumericFields() throws Exception {
+        ResponseReader reader = reader("V 2147483647 -12 0 9876543210 'x'");
+        assertTrue(reader.nextRow());
+        assertTrue(reader.isRow("V"));
+        assertFalse(reader.isRow("I"));
+        assertEquals(Integer.MAX_VALUE, reader.intField(1));
+        assertEquals(-12, reader.intField(2));
+        assertEquals(0, reader.intField(3));
+        assertEquals(9876543210L, reader.longField(4));
+        try {
+            reader.intField(4);
+            fail("Expected overflow");
+        } catch (NumberFormatException nfe) {
+        }
+        try {
+            reader.intField(5);
+            fail("Expected bad number");
+        } catch (NumberFormatException nfe) {
+        }
+    }
+
+    /**
+     * Test all line terminators are handled and a leading NULL row is skipped
+     */
+    @Test
+    public void testRowsAndTerminators() throws Exception {
+        ResponseReader reader = reader("NULL\r\nP 1 'One'\rP 2 'Two'\nP 3 'Three'");
+        int rows = 0;
+        while (reader.nextRow()) {
+            rows++;
+            assertEquals(rows, reader.intField(1));
+        }
+        assertEquals(3, rows);
+    }
+
+    /**
+     * Test an error response is turned into an exception
+     */
+    @Test
+    public void testError() throws Exception {
+        ResponseReader reader = reader("ERROR 300 'Login required'");
+        try {
+            reader.nextRow();
+            fail("Expected protocol exception");
+        } catch (ProtocolException pe) {
+            assertEquals(ProtocolException.LOGIN_REQUIRED, pe.getCode());
+        }
+    }
+
+    /**
+     * Test a long row causes the buffers to grow
+     */
+    @Test
+    public void testLongRow() throws Exception {
+        StringBuilder bui = new StringBuilder("C 1 '");
+        for (int i = 0; i < 20000; i++) {
+            bui.append(i % 10);
+        }
+        bui.append("'");
+        for (int i = 0; i < 100; i++) {
+            bui.append(" ").append(i);
+        }
+        ResponseReader reader = reader(bui.toString());
+        assertTrue(reader.nextRow());
+        assertEquals(103, reader.size());
+        assertEquals(20000, reader.stringField(2).length());
+        assertEquals(99, reader.intField(102));
+    }
+
+    /**
+     * Test attribute values are shared between rows, up to the dictionary's
+     * limit
+     */
+    @Test
+    public void testValueField() throws Exception {
+        IssueType type = new IssueType(new IssueTypes(null), 1, "Bugs");
+        Attribute status = new Attribute(type, 10, "Status", Attribute.AttributeType.TEXT, false);
+        ResponseReader reader = reader("V 10 1 'Open'\nV 10 2 'Open'\nV 10 3 'Closed'");
+        assertTrue(reader.nextRow());
+        String first = reader.valueField(3, status);
+        assertTrue(reader.nextRow());
+        assertSame(first, reader.valueField(3, status));
+        assertTrue(reader.nextRow());
+        assertEquals("Closed", reader.valueField(3, null));
+        assertEquals(1, status.getValueDictionary().size());
+
+        ValueDictionary dictionary = new ValueDictionary(2);
+        assertSame(dictionary.intern(new String("A")), dictionary.intern("A"));
+        dictionary.intern("B");
+        String c = new String("C");
+        assertSame(c, dictionary.intern(c));
+        assertNotSame(c, dictionary.intern(new String("C")));
+        assertEquals(2, dictionary.size());
+    }
+
+    private static ResponseReader reader(String text) throws IOException {
+        return new ResponseReader(new ByteArrayInputStream(text.getBytes("UTF-8")));
+    }
+}
@@ -0,0 +1,43 @@
+package org.webissues.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+public class UsersTest {
+
+    /**
+     * Test the login, name and membership indexes follow users being added and
+     * changed
+     */
+    @Test
+    public void testIndexes() {
+        Users users = new Users(null);
+        Project project = new Project(null, 1, "Project");
+        User joe = new User(null, 1, "joe", "Joe Bloggs", Access.NORMAL);
+        User admin = new User(null, 2, "admin", "Administrator", Access.ADMIN);
+        users.add(joe);
+        users.add(admin);
+        assertSame(joe, users.getByLogin("joe"));
+        assertSame(admin, users.getByName("Administrator"));
+        assertNull(users.getByLogin("nobody"));
+        assertEquals(0, users.getMembersOf(project).size());
+
+        joe.put(project.getId(), new ProjectMembership(joe, project, Access.NORMAL));
+        users.usersChanged();
+        assertEquals(1, users.getMembersOf(project).size());
+        assertSame(joe, users.getMembersOf(project).iterator().next());
+
+        User duplicate = new User(null, 3, "joe2", "Joe Bloggs", Access.NORMAL);
+        users.add(duplicate);
+        assertSame(joe, users.getByName("Joe Bloggs"));
+        assertSame(duplicate, users.getByLogin("joe2"));
+
+        users.remove(joe);
+        assertNull(users.getByLogin("joe"));
+        assertSame(duplicate, users.getByName("Joe Bloggs"));
+        assertEquals(0, users.getMembersOf(project).size());
+    }
+}